@@ -0,0 +1,142 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small benchmark harness: timed warmup iterations to let the JIT settle, then timed measurement iterations
+ * reported as the mean time per operation with its spread. Results of each operation are consumed so the JIT can't
+ * remove the work.
+ *
+ * The iteration counts and lengths can be changed with -Dbench.warmup, -Dbench.iterations and -Dbench.millis.
+ */
+class Bench {
+    private static final int WARMUP = Integer.getInteger("bench.warmup", 3);
+    private static final int ITERATIONS = Integer.getInteger("bench.iterations", 5);
+    private static final int MILLIS = Integer.getInteger("bench.millis", 500);
+
+    // Results go here even if a benchmark silences System.out to keep the protocol logging out of the numbers
+    private static final PrintStream out = System.out;
+
+    // Every result is compared against this, which it can never equal, so the work behind it can't be eliminated
+    private static volatile Object trap = new Object();
+    static volatile int sink;
+
+    /**
+     * An operation to time, returning something derived from its work
+     */
+    interface Op {
+        Object run();
+    }
+
+    /**
+     * Discard anything written to System.out from now on, so a participant's logging of every vote doesn't swamp the
+     * numbers, results are still printed
+     */
+    static void silence() {
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    /**
+     * Time an operation on the calling thread and print the result
+     * @param name The name to report the result under
+     * @param op The operation to time
+     */
+    static void measure(String name, Op op) {
+        for (int i = 0; i < WARMUP; i++) iteration(op);
+        double[] results = new double[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) results[i] = iteration(op);
+        report(name, results, 1);
+    }
+
+    /**
+     * Time an operation run concurrently on several threads and print the time per operation across all of them
+     * @param name The name to report the result under
+     * @param threads The number of threads to run the operation on
+     * @param op The operation to time
+     */
+    static void measure(String name, int threads, Op op) {
+        for (int i = 0; i < WARMUP; i++) iteration(threads, op);
+        double[] results = new double[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) results[i] = iteration(threads, op);
+        report(name, results, threads);
+    }
+
+    /**
+     * @return The mean nanoseconds per operation over one iteration
+     */
+    private static double iteration(Op op) {
+        long operations = 0;
+        int result = 0;
+        long start = System.nanoTime();
+        long end = start + MILLIS * 1_000_000L;
+        long now;
+        do {
+            // Check the clock every few operations so reading it doesn't dominate short operations
+            for (int i = 0; i < 64; i++) {
+                if (op.run() == trap) result++;
+            }
+            operations += 64;
+        } while ((now = System.nanoTime()) < end);
+        sink = result;
+        return (double) (now - start) / operations;
+    }
+
+    /**
+     * @return The nanoseconds of wall time per operation completed by all threads over one iteration
+     */
+    private static double iteration(int threads, Op op) {
+        LongAdder operations = new LongAdder();
+        AtomicBoolean running = new AtomicBoolean(true);
+        CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        ArrayList<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Thread worker = new Thread(() -> {
+                int result = 0;
+                long count = 0;
+                await(barrier);
+                while (running.get()) {
+                    if (op.run() == trap) result++;
+                    count++;
+                }
+                operations.add(count);
+                sink = result;
+                await(barrier);
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        await(barrier);
+        long start = System.nanoTime();
+        try {
+            Thread.sleep(MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        running.set(false);
+        long elapsed = System.nanoTime() - start;
+        await(barrier);
+        return (double) elapsed / operations.sum();
+    }
+
+    private static void await(CyclicBarrier barrier) {
+        try {
+            barrier.await();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void report(String name, double[] results, int threads) {
+        double mean = 0;
+        for (double result : results) mean += result;
+        mean /= results.length;
+        double variance = 0;
+        for (double result : results) variance += (result - mean) * (result - mean);
+        double error = Math.sqrt(variance / results.length);
+        out.printf("%-50s %12.1f ns/op  +- %8.1f  %14.0f ops/s%n", name + (threads > 1 ? " x" + threads : ""),
+                mean, error, 1e9 / mean);
+    }
+}
@@ -0,0 +1,52 @@
+import java.util.List;
+
+/**
+ * Measures how long an in-process cluster takes to start, from the coordinator listening to every participant having
+ * joined and been sent the others' details, and on to the first decision being made, which waits for the
+ * participants to connect to each other. A mesh opens a connection between every pair of participants, so it is
+ * only run at the smaller sizes, and is also run connecting to one participant at a time for comparison. Beyond 100
+ * participants the first decision is left out, as it measures passing the votes along rather than starting.
+ *
+ * Run with: java -cp out BootstrapBench [largest cluster]
+ */
+public class BootstrapBench {
+    private static final List<String> OPTIONS = List.of("A", "B", "C");
+
+    public static void main(String[] args) throws Exception {
+        int largest = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+
+        // Warm up
+        for (int i = 0; i < 5; i++) run(null, 10);
+
+        System.out.printf("%-26s %8s %10s %14s%n", "", "nodes", "ready ms", "decided ms");
+        for (int participants = 10; participants <= Math.min(largest, 50); participants *= 5) {
+            run("mesh", participants);
+            run("mesh serial connect", participants, "--connect-parallelism=1");
+        }
+        for (int participants = 10; participants <= largest; participants *= 10) {
+            run("star", participants, "--topology=star");
+            run("tree", participants, "--topology=tree", "--fanout=4");
+        }
+    }
+
+    private static void run(String name, int participants, String... flags) throws Exception {
+        String[] quiet = new String[flags.length + 1];
+        System.arraycopy(flags, 0, quiet, 0, flags.length);
+        quiet[flags.length] = "--log=off";
+
+        long start = System.nanoTime();
+        try (ConsensusCluster cluster = ConsensusCluster.local(participants, quiet)) {
+            cluster.ready().join();
+            double readyMillis = (System.nanoTime() - start) / 1e6;
+            if (participants > 100) {
+                if (name != null) System.out.printf("%-26s %8d %10.1f %14s%n", name, participants, readyMillis, "-");
+                return;
+            }
+            cluster.propose(OPTIONS).join();
+            double decidedMillis = (System.nanoTime() - start) / 1e6;
+            if (name != null) {
+                System.out.printf("%-26s %8d %10.1f %14.1f%n", name, participants, readyMillis, decidedMillis);
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures decisions made through the in-process API, a coordinator and its participants running as threads of this
+ * JVM over local sockets. Latency is one decision proposed at a time, from propose to its future completing, and
+ * throughput is with many decisions in flight at once.
+ *
+ * Run with: java -cp out ConsensusClusterBench [participants] [decisions]
+ */
+public class ConsensusClusterBench {
+    private static final List<String> OPTIONS = List.of("A", "B", "C");
+
+    public static void main(String[] args) throws Exception {
+        int participants = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int decisions = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+        System.out.printf("%-26s %10s %10s %10s %12s%n", "", "start ms", "p50 us", "p99 us", "decisions/s");
+        run("mesh majority", participants, decisions);
+        run("mesh plurality", participants, decisions, "--rule=plurality");
+        run("mesh plurality binary", participants, decisions, "--rule=plurality", "--codec=binary");
+        run("star plurality", participants, decisions, "--rule=plurality", "--topology=star");
+    }
+
+    private static void run(String name, int participants, int decisions, String... flags) throws Exception {
+        String[] quiet = new String[flags.length + 1];
+        System.arraycopy(flags, 0, quiet, 0, flags.length);
+        quiet[flags.length] = "--log=off";
+
+        long start = System.nanoTime();
+        try (ConsensusCluster cluster = ConsensusCluster.local(participants, quiet)) {
+            cluster.propose(OPTIONS).join();
+            double startMillis = (System.nanoTime() - start) / 1e6;
+
+            // Warm up, then one at a time
+            for (int i = 0; i < decisions / 2; i++) cluster.propose(OPTIONS).join();
+            Histogram latency = new Histogram();
+            for (int i = 0; i < decisions; i++) {
+                long proposed = System.nanoTime();
+                cluster.propose(OPTIONS).join();
+                latency.record(System.nanoTime() - proposed);
+            }
+
+            // All at once
+            long pipelined = System.nanoTime();
+            List<CompletableFuture<Outcome>> outcomes = new ArrayList<>();
+            for (int i = 0; i < decisions; i++) outcomes.add(cluster.propose(OPTIONS));
+            CompletableFuture.allOf(outcomes.toArray(new CompletableFuture<?>[0])).join();
+            double seconds = (System.nanoTime() - pipelined) / 1e9;
+
+            System.out.printf("%-26s %10.1f %10.1f %10.1f %12.0f%n", name, startMillis, latency.percentile(50) / 1e3,
+                    latency.percentile(99) / 1e3, decisions / seconds);
+        }
+    }
+}
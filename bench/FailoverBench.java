@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decisions made through the in-process API while the leading coordinator crashes mid-run. Without standbys
+ * the decisions in progress are lost with it, with them the next standby takes over the replicated voting state and
+ * the participants resume with it. Takeover is how long the standby took to lead once the leader was lost, failover
+ * how long until every participant had resumed with it.
+ *
+ * Run with: java -cp out FailoverBench [participants] [decisions]
+ */
+public class FailoverBench {
+    private static final List<String> OPTIONS = List.of("A", "B", "C");
+    // How long the decisions of a run are waited for in all, those left counting as failed
+    private static final long WAIT_MILLIS = 5000;
+    private static final String TAKEOVER = "coordinator.takeover";
+    private static final String FAILOVER = "coordinator.failover";
+
+    public static void main(String[] args) throws Exception {
+        int participants = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int decisions = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+
+        System.out.printf("%-26s %10s %10s %12s %12s %12s%n", "", "decided", "failed", "takeover ms", "failover ms",
+                "decisions/s");
+        run("mesh", 0, participants, decisions);
+        run("mesh 1 standby", 1, participants, decisions);
+        run("mesh 2 standbys", 2, participants, decisions);
+        run("mesh 2 standbys binary", 2, participants, decisions, "--codec=binary");
+        run("star 2 standbys", 2, participants, decisions, "--topology=star");
+    }
+
+    private static void run(String name, int standbys, int participants, int decisions, String... flags)
+            throws Exception {
+        String[] quiet = new String[flags.length + 1];
+        System.arraycopy(flags, 0, quiet, 0, flags.length);
+        quiet[flags.length] = "--log=off";
+
+        try (ConsensusCluster cluster = ConsensusCluster.replicated(standbys, participants, quiet)) {
+            cluster.ready().join();
+            double takeover = total(TAKEOVER);
+            long takeovers = Metrics.histogram(TAKEOVER).count();
+            double failover = total(FAILOVER);
+            long failovers = Metrics.histogram(FAILOVER).count();
+
+            // Half the decisions are proposed before the crash and half after it
+            long start = System.nanoTime();
+            List<CompletableFuture<Outcome>> outcomes = new ArrayList<>();
+            for (int i = 0; i < decisions / 2; i++) outcomes.add(cluster.propose(OPTIONS));
+            cluster.crash();
+            for (int i = decisions / 2; i < decisions; i++) outcomes.add(cluster.propose(OPTIONS));
+            long deadline = System.currentTimeMillis() + WAIT_MILLIS;
+            int decided = 0;
+            for (CompletableFuture<Outcome> outcome : outcomes) {
+                try {
+                    outcome.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    decided++;
+                } catch (Exception e) {
+                    // Counted as failed
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            long took = Metrics.histogram(TAKEOVER).count() - takeovers;
+            long failedOver = Metrics.histogram(FAILOVER).count() - failovers;
+            System.out.printf("%-26s %10d %10d %12s %12s %12.0f%n", name, decided, outcomes.size() - decided,
+                    took == 0 ? "-" : String.format("%.1f", (total(TAKEOVER) - takeover) / took),
+                    failedOver == 0 ? "-" : String.format("%.1f", (total(FAILOVER) - failover) / failedOver),
+                    decided / seconds);
+        }
+    }
+
+    /**
+     * @return The sum of the latencies recorded in a histogram, in milliseconds
+     */
+    private static double total(String histogram) {
+        Map<String, Number> metrics = Metrics.snapshot();
+        Number count = metrics.get(histogram + ".count");
+        Number mean = metrics.get(histogram + ".mean_ms");
+        return count == null ? 0 : count.longValue() * mean.doubleValue();
+    }
+}
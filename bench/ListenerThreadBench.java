@@ -0,0 +1,84 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Compares the threads and memory used by the listener tasks of a fully meshed cluster when they run on platform
+ * threads and when they run on virtual threads
+ *
+ * Each participant runs an accept loop plus a listener per peer, so a cluster of N participants has N * N listener
+ * tasks. Each task here blocks until the cluster is torn down, as a listener blocks waiting for its next message.
+ * Virtual threads need JDK 21, before which the virtual engine falls back to platform threads.
+ *
+ * Run with: java -cp out ListenerThreadBench [threads|virtual] [N...], both engines at N=50, 200 and 500 by default
+ */
+public class ListenerThreadBench {
+    private static final String[] SIZES = {"50", "200", "500"};
+
+    public static void main(String[] args) throws InterruptedException {
+        String[] engines = args.length > 0 ? new String[] {args[0]} : new String[] {"virtual", "threads"};
+        String[] sizes = args.length > 1 ? Arrays.copyOfRange(args, 1, args.length) : SIZES;
+        for (String engine : engines) run(engine, sizes);
+    }
+
+    private static void run(String engine, String[] sizes) throws InterruptedException {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+        for (String size : sizes) {
+            int n = Integer.parseInt(size);
+            int tasks = n * n;
+            ListenerExecutor listeners = new ListenerExecutor(engine);
+            CountDownLatch started = new CountDownLatch(tasks);
+            CountDownLatch teardown = new CountDownLatch(1);
+
+            System.gc();
+            long heapBefore = memory.getHeapMemoryUsage().getUsed();
+            long nonHeapBefore = memory.getNonHeapMemoryUsage().getUsed();
+            int threadsBefore = threads.getThreadCount();
+            long rssBefore = residentKb();
+
+            int launched = 0;
+            try {
+                for (; launched < tasks; launched++) {
+                    listeners.execute(() -> {
+                        started.countDown();
+                        try {
+                            teardown.await();
+                        } catch (InterruptedException ignored) {
+                        }
+                    });
+                }
+                started.await();
+                long heap = memory.getHeapMemoryUsage().getUsed() - heapBefore;
+                long nonHeap = memory.getNonHeapMemoryUsage().getUsed() - nonHeapBefore;
+                System.out.printf("%s N=%d tasks=%d platform threads=+%d heap=+%dKB non-heap=+%dKB rss=+%dKB%n",
+                        engine, n, tasks, threads.getThreadCount() - threadsBefore, heap / 1024, nonHeap / 1024,
+                        residentKb() - rssBefore);
+            } catch (OutOfMemoryError e) {
+                System.out.printf("%s N=%d tasks=%d failed after %d tasks: %s%n", engine, n, tasks, launched,
+                        e.getMessage());
+            } finally {
+                teardown.countDown();
+                listeners.awaitIdle();
+            }
+        }
+    }
+
+    /**
+     * @return The resident set size of this process, which includes the thread stacks, or 0 if it isn't available
+     */
+    private static long residentKb() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        } catch (Exception ignored) {
+        }
+        return 0;
+    }
+}
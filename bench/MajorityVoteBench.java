@@ -0,0 +1,51 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks finding the majority of a round's votes, counting every vote as it arrives and reading the majority off
+ * once, with the ConcurrentTally ballots count in next to the plain Tally the coordinator's rounds use. Votes are
+ * spread evenly over the options and shuffled so the majority element isn't found early. The last rows have several
+ * listeners counting votes into one ballot's tally at once, each reading whether the majority is settled after its
+ * vote as a listener does.
+ *
+ * Run with: java -cp out MajorityVoteBench
+ */
+public class MajorityVoteBench {
+
+    public static void main(String[] args) {
+        for (int votes : new int[] {3, 10, 100, 1000, 10000}) {
+            for (int options : new int[] {2, 5, 20}) {
+                if (options > votes) continue;
+                ArrayList<Integer> shuffled = new ArrayList<>();
+                for (int i = 0; i < votes; i++) shuffled.add(i % options);
+                Collections.shuffle(shuffled, new Random(42));
+                int[] indexes = new int[votes];
+                for (int i = 0; i < votes; i++) indexes[i] = shuffled.get(i);
+
+                Tally tally = new Tally();
+                Bench.measure("Tally votes=" + votes + " options=" + options, () -> {
+                    tally.clear();
+                    for (int index : indexes) tally.add(index);
+                    return tally.majority();
+                });
+                ConcurrentTally concurrent = new ConcurrentTally();
+                Bench.measure("ConcurrentTally votes=" + votes + " options=" + options, () -> {
+                    concurrent.clear();
+                    for (int index : indexes) concurrent.add(index);
+                    return concurrent.majority();
+                });
+            }
+        }
+
+        for (int threads : new int[] {1, 2, 4}) {
+            ConcurrentTally shared = new ConcurrentTally();
+            AtomicInteger next = new AtomicInteger();
+            Bench.measure("ConcurrentTally shared add options=5", threads, () -> {
+                shared.add(Math.floorMod(next.getAndIncrement(), 5));
+                return shared.majority(Integer.MAX_VALUE);
+            });
+        }
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that a participant with a binary connection to the coordinator keeps the coordinator's option numbering
+ * when a text participant's votes reach it before the coordinator's options do. Exits with a failure status if two
+ * options end up sharing an index or a vote is numbered other than the coordinator numbers it.
+ *
+ * Run with: java -cp out MixedCodecTest
+ */
+public class MixedCodecTest {
+    private static boolean passed = true;
+
+    public static void main(String[] args) throws IOException {
+        // The coordinator numbers the options in its own order, which the text votes give no hint of
+        OptionTable coordinator = new OptionTable(List.of("C", "B", "A"));
+        OptionTable participant = new OptionTable();
+        participant.follow();
+
+        // A text participant votes before the binary options for the decision have arrived
+        List<String> early = new ArrayList<>();
+        byte[] text = "VOTE@1 5001 A 5002 B\n".getBytes(StandardCharsets.US_ASCII);
+        new TextParser(new ByteArrayInputStream(text), participant).next(new MessageHandler() {
+            @Override
+            public void votes(VoteBatch votes) {
+                for (int i = 0; i < votes.size; i++) {
+                    check("vote " + i + " left unnumbered", votes.options[i] == -1);
+                    early.add(votes.vote(i, participant));
+                }
+            }
+
+            @Override
+            public void outcome(int instance, int option, int[] contributors, int count) {
+            }
+
+            @Override
+            public void heartbeat() {
+            }
+        });
+        check("votes kept by name", early.equals(List.of("A", "B")));
+        check("nothing numbered before the options", participant.size() == 0);
+
+        // Then the coordinator's options arrive over the binary connection
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        new BinaryWriter(binary, coordinator).voteOptions(1, List.of("A", "B", "C"));
+        new BinaryReader(new ByteArrayInputStream(binary.toByteArray()), participant).read();
+        for (String option : List.of("A", "B", "C")) {
+            check(option + " numbered as the coordinator numbers it",
+                    participant.indexOf(option) == coordinator.indexOf(option));
+        }
+        checkDistinct("following table", participant);
+
+        // A table that numbered an option itself before being told the coordinator's numbering gives it up
+        OptionTable numbered = new OptionTable();
+        numbered.indexOf("A");
+        numbered.put(0, "C");
+        numbered.put(2, "A");
+        check("local number given up", numbered.indexOf("A") == 2 && "C".equals(numbered.get(0)));
+        checkDistinct("renumbered table", numbered);
+
+        System.out.println(passed ? "passed" : "failed");
+        if (!passed) System.exit(1);
+    }
+
+    /**
+     * Check every option in a table is found at the one index it is held at
+     */
+    private static void checkDistinct(String name, OptionTable table) {
+        for (int index = 0; index < table.size(); index++) {
+            String option = table.get(index);
+            if (option != null) check(name + " holds " + option + " once", table.indexOf(option) == index);
+        }
+    }
+
+    private static void check(String name, boolean holds) {
+        if (holds) return;
+        System.out.println("FAILED: " + name);
+        passed = false;
+    }
+}
@@ -0,0 +1,67 @@
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Stands in for a connection in the benchmarks that drive a participant directly, discarding every message, and
+ * optionally blocking on each vote message as if the socket's buffer were full
+ */
+class NullWriter implements MessageWriter {
+    private final long voteNanos;
+
+    NullWriter() {
+        this(0);
+    }
+
+    /**
+     * @param voteNanos How long each vote message blocks for
+     */
+    NullWriter(long voteNanos) {
+        this.voteNanos = voteNanos;
+    }
+
+    @Override
+    public void rule(DecisionRule rule) {
+    }
+
+    @Override
+    public void star() {
+    }
+
+    @Override
+    public void tree(int fanout) {
+    }
+
+    @Override
+    public void details(ParticipantDetails details) {
+    }
+
+    @Override
+    public void voteOptions(int instance, List<String> options) {
+    }
+
+    @Override
+    public void votes(VoteBroadcast votes) {
+        if (voteNanos > 0) LockSupport.parkNanos(voteNanos);
+    }
+
+    @Override
+    public void outcome(int instance, String outcome, Collection<String> contributors) {
+    }
+
+    @Override
+    public void restart(int instance, List<String> failures) {
+    }
+
+    @Override
+    public void decided(int instance, String outcome) {
+    }
+
+    @Override
+    public void rejoined(String participant, boolean binary) {
+    }
+
+    @Override
+    public void heartbeat() {
+    }
+}
@@ -0,0 +1,114 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Measures the bytes allocated per message by the streaming text parser, against reading lines and tokenising them.
+ * Exits with a failure status if the parser allocates once it has warmed up.
+ *
+ * Run with: java -cp out ParserAllocationBench
+ */
+public class ParserAllocationBench {
+    private static final int MESSAGES = 200_000;
+
+    private static boolean allocationFree = true;
+
+    public static void main(String[] args) throws IOException {
+        for (int participants : new int[] {3, 100}) {
+            StringBuilder vote = new StringBuilder("VOTE ");
+            StringBuilder outcome = new StringBuilder("OUTCOME B ");
+            for (int i = 0; i < participants; i++) {
+                vote.append(5000 + i).append(i % 2 == 0 ? " A " : " B ");
+                outcome.append(5000 + i).append(" ");
+            }
+            measure("VOTE x" + participants, vote.toString());
+            measure("OUTCOME x" + participants, outcome.toString());
+        }
+        if (!allocationFree) System.exit(1);
+    }
+
+    private static void measure(String name, String message) throws IOException {
+        OptionTable options = new OptionTable(Arrays.asList("A", "B"));
+        MessageHandler handler = new MessageHandler() {
+            int sink;
+
+            @Override
+            public void votes(VoteBatch votes) {
+                sink += votes.size;
+            }
+
+            @Override
+            public void outcome(int instance, int option, int[] contributors, int count) {
+                sink += count;
+            }
+
+            @Override
+            public void heartbeat() {
+            }
+        };
+        Tokeniser tokeniser = new Tokeniser();
+
+        // Warm up both paths so the measured runs are compiled
+        parse(new TextParser(new RepeatingStream(message), options), handler);
+        tokenise(new BufferedReader(new InputStreamReader(new RepeatingStream(message))), tokeniser);
+
+        TextParser parser = new TextParser(new RepeatingStream(message), options);
+        long before = allocated();
+        parse(parser, handler);
+        long parserBytes = allocated() - before;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new RepeatingStream(message)));
+        before = allocated();
+        tokenise(reader, tokeniser);
+        long tokeniserBytes = allocated() - before;
+
+        System.out.printf("%-14s parser %8.1f B/msg   readLine+Tokeniser %8.1f B/msg%n", name,
+                (double) parserBytes / MESSAGES, (double) tokeniserBytes / MESSAGES);
+        // Allow for a stray allocation or two from the runtime over the whole run
+        if (parserBytes >= MESSAGES) allocationFree = false;
+    }
+
+    private static void parse(TextParser parser, MessageHandler handler) throws IOException {
+        for (int i = 0; i < MESSAGES; i++) parser.next(handler);
+    }
+
+    private static void tokenise(BufferedReader reader, Tokeniser tokeniser) throws IOException {
+        for (int i = 0; i < MESSAGES; i++) tokeniser.getToken(reader.readLine());
+    }
+
+    private static long allocated() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * An endless stream of the same line that allocates nothing as it is read
+     */
+    private static class RepeatingStream extends InputStream {
+        private byte[] line;
+        private int position;
+
+        RepeatingStream(String message) {
+            line = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public int read() {
+            int b = line[position];
+            position = (position + 1) % line.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int count = Math.min(len, line.length - position);
+            System.arraycopy(line, position, b, off, count);
+            position = (position + count) % line.length;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Benchmarks the registerVote merge path while another thread sends this participant's votes to connections that
+ * are slow to write to, as happens when a peer's socket buffer is full. The merges only keep their pace if the writes
+ * aren't made holding the participant's state.
+ *
+ * Run with: java -cp out ParticipantContentionBench
+ */
+public class ParticipantContentionBench {
+    // How long each write to another participant takes
+    private static final long WRITE_NANOS = 20_000;
+
+    public static void main(String[] args) {
+        int participants = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        HashMap<String, MessageWriter> others = new HashMap<>();
+        for (int i = 1; i <= participants; i++) {
+            others.put(Integer.toString(5000 + i), i <= connections ? new NullWriter(WRITE_NANOS) : new NullWriter());
+        }
+        ArrayList<String> options = new ArrayList<>(List.of("A", "B", "C"));
+        Bench.silence();
+
+        for (int threads : new int[] {1, 2, 4, 8, 16}) {
+            Participant participant = new Participant(5000, others, new NullWriter());
+            participant.optionTable().indexOf("A");
+            participant.vote(0, options);
+            ThreadLocal<VoteBatch> batches = ThreadLocal.withInitial(() -> {
+                // Each listener delivers the votes of one of the other participants, too few for a majority
+                VoteBatch batch = new VoteBatch();
+                batch.add(5001 + (int) (Thread.currentThread().getId() % (participants - 1)), 0);
+                return batch;
+            });
+
+            // Sends this participant's votes again and again for as long as the listeners are measured
+            AtomicBoolean sending = new AtomicBoolean(true);
+            Thread sender = new Thread(() -> {
+                while (sending.get()) participant.vote(0, options);
+            });
+            sender.start();
+            Bench.measure("registerVote with a slow sender participants=" + participants, threads, () -> {
+                participant.registerVote(batches.get());
+                return participant;
+            });
+            sending.set(false);
+            try {
+                sender.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decisions made through the in-process API while the connections of one participant after another are
+ * reset mid-round, as a fault in the network between them would. Without --reconnect each reset counts the
+ * participant as failed and it stops, with it the connections are opened again and the rounds in progress carry on.
+ *
+ * Run with: java -cp out ReconnectBench [participants] [resets]
+ */
+public class ReconnectBench {
+    private static final List<String> OPTIONS = List.of("A", "B", "C");
+    // Decisions proposed either side of each reset
+    private static final int BATCH = 20;
+
+    public static void main(String[] args) throws Exception {
+        int participants = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int resets = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        System.out.printf("%-26s %10s %10s %10s %10s %12s%n", "", "decided", "failures", "reconnects", "stopped",
+                "decisions/s");
+        run("mesh", participants, resets);
+        run("mesh reconnect", participants, resets, "--reconnect=2000");
+        run("mesh reconnect binary", participants, resets, "--reconnect=2000", "--codec=binary");
+        run("star reconnect", participants, resets, "--reconnect=2000", "--topology=star");
+    }
+
+    private static void run(String name, int participants, int resets, String... flags) throws Exception {
+        String[] quiet = new String[flags.length + 1];
+        System.arraycopy(flags, 0, quiet, 0, flags.length);
+        quiet[flags.length] = "--log=off";
+
+        try (ConsensusCluster cluster = ConsensusCluster.local(participants, quiet)) {
+            cluster.ready().join();
+            long failures = Metrics.counter("coordinator.failures").sum();
+            long reconnects = Metrics.counter("participant.reconnects").sum();
+
+            long start = System.nanoTime();
+            int decided = 0;
+            for (int reset = 0; reset < resets; reset++) {
+                List<CompletableFuture<Outcome>> outcomes = new ArrayList<>();
+                for (int i = 0; i < BATCH; i++) outcomes.add(cluster.propose(OPTIONS));
+                cluster.nodes().get(reset % participants).reset();
+                for (int i = 0; i < BATCH; i++) outcomes.add(cluster.propose(OPTIONS));
+                for (CompletableFuture<Outcome> outcome : outcomes) {
+                    try {
+                        outcome.get(20, TimeUnit.SECONDS);
+                        decided++;
+                    } catch (Exception e) {
+                        // Counted as not decided
+                    }
+                }
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long stopped = cluster.nodes().stream().filter(node -> node.stopped().isDone()).count();
+
+            System.out.printf("%-26s %10d %10d %10d %10d %12.0f%n", name, decided,
+                    Metrics.counter("coordinator.failures").sum() - failures,
+                    Metrics.counter("participant.reconnects").sum() - reconnects, stopped, decided / seconds);
+        }
+    }
+}
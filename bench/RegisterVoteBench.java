@@ -0,0 +1,44 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Benchmarks the registerVote merge path with many listener threads delivering votes at once, as happens when every
+ * other participant sends its votes in the same instant. One participant never votes so the round never completes
+ * and every call takes the merge path.
+ *
+ * Run with: java -cp out RegisterVoteBench
+ */
+public class RegisterVoteBench {
+
+    public static void main(String[] args) {
+        int participants = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        ArrayList<String> others = new ArrayList<>();
+        for (int i = 1; i <= participants; i++) others.add(Integer.toString(5000 + i));
+        Bench.silence();
+
+        for (int threads : new int[] {1, 2, 4, 8, 16}) {
+            Participant participant = new Participant(5000, others, new NullWriter());
+            ThreadLocal<HashMap<String, String>> votes = ThreadLocal.withInitial(() -> {
+                // Each listener delivers the votes of one of the other participants, all but the last voting
+                HashMap<String, String> vote = new HashMap<>();
+                vote.put(others.get((int) (Thread.currentThread().getId() % (participants - 1))), "A");
+                return vote;
+            });
+            ThreadLocal<VoteBatch> batches = ThreadLocal.withInitial(() -> {
+                VoteBatch batch = new VoteBatch();
+                batch.add(5001 + (int) (Thread.currentThread().getId() % (participants - 1)), 0);
+                return batch;
+            });
+            participant.optionTable().indexOf("A");
+
+            Bench.measure("registerVote(HashMap) participants=" + participants, threads, () -> {
+                participant.registerVote(0, votes.get());
+                return participant;
+            });
+            Bench.measure("registerVote(VoteBatch) participants=" + participants, threads, () -> {
+                participant.registerVote(batches.get());
+                return participant;
+            });
+        }
+    }
+}
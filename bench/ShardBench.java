@@ -0,0 +1,62 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Measures decisions made through a ShardedCluster with many decisions on different keys in flight at once, for one
+ * coordinator and for the decisions partitioned across several, each shard's decisions made independently of the
+ * others'. Spread is the most keys any shard was given over the fewest.
+ *
+ * Run with: java -cp out ShardBench [participants] [decisions]
+ */
+public class ShardBench {
+    private static final List<String> OPTIONS = List.of("A", "B", "C");
+
+    public static void main(String[] args) throws Exception {
+        int participants = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int decisions = args.length > 1 ? Integer.parseInt(args[1]) : 4000;
+
+        System.out.printf("%d processor(s)%n", Runtime.getRuntime().availableProcessors());
+        System.out.printf("%-26s %10s %10s %12s%n", "", "start ms", "spread", "decisions/s");
+        for (int shards : new int[] {1, 2, 4, 8}) run("mesh " + shards + " shard(s)", shards, participants, decisions);
+        run("mesh 4 shards binary", 4, participants, decisions, "--codec=binary");
+    }
+
+    private static void run(String name, int shards, int participants, int decisions, String... flags)
+            throws Exception {
+        String[] quiet = new String[flags.length + 1];
+        System.arraycopy(flags, 0, quiet, 0, flags.length);
+        quiet[flags.length] = "--log=off";
+
+        long start = System.nanoTime();
+        try (ShardedCluster cluster = ShardedCluster.local(shards, participants, quiet)) {
+            cluster.ready().join();
+            double startMillis = (System.nanoTime() - start) / 1e6;
+
+            // Warm up every shard
+            List<CompletableFuture<Outcome>> outcomes = new ArrayList<>();
+            for (int i = 0; i < decisions / 4; i++) outcomes.add(cluster.propose("warm-" + i, OPTIONS));
+            CompletableFuture.allOf(outcomes.toArray(new CompletableFuture<?>[0])).join();
+
+            int[] keys = new int[shards];
+            outcomes.clear();
+            long pipelined = System.nanoTime();
+            for (int i = 0; i < decisions; i++) {
+                String key = "key-" + i;
+                keys[cluster.shards().indexOf(cluster.shard(key))]++;
+                outcomes.add(cluster.propose(key, OPTIONS));
+            }
+            CompletableFuture.allOf(outcomes.toArray(new CompletableFuture<?>[0])).join();
+            double seconds = (System.nanoTime() - pipelined) / 1e9;
+
+            int most = 0;
+            int fewest = Integer.MAX_VALUE;
+            for (int count : keys) {
+                most = Math.max(most, count);
+                fewest = Math.min(fewest, count);
+            }
+            System.out.printf("%-26s %10.1f %10.2f %12.0f%n", name, startMillis, (double) most / fewest,
+                    decisions / seconds);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.List;
+
+/**
+ * Runs the protocol in the deterministic simulation, with no sockets or threads, to give throughput and latency
+ * figures that come out the same on any machine. Wall throughput is how fast the simulation runs the protocol code,
+ * while the virtual throughput and round latencies come from the simulated network of 100us plus up to 50us of
+ * jitter a message, with 200ms to retransmit a dropped one. Each run is repeated with the same seed to check it
+ * plays out the same.
+ *
+ * Run with: java -cp out SimulationBench [decisions] [seed]
+ */
+public class SimulationBench {
+    private static final List<String> OPTIONS = List.of("A", "B", "C");
+
+    public static void main(String[] args) throws Exception {
+        int decisions = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+
+        System.out.printf("%-22s %9s %9s %12s %12s %10s %10s %s%n", "", "decided", "restarts", "wall dec/s",
+                "virt dec/s", "p50 ms", "p99 ms", "repeats");
+        run("mesh 5", seed, 5, decisions, 0, 0, "--topology=mesh");
+        run("mesh 20", seed, 20, decisions / 10, 0, 0, "--topology=mesh");
+        run("star 20", seed, 20, decisions / 10, 0, 0, "--topology=star");
+        run("tree 20", seed, 20, decisions / 10, 0, 0, "--topology=tree");
+        run("mesh 5 runoff", seed, 5, decisions, 0, 0, "--rule=runoff");
+        run("mesh 5 binary", seed, 5, decisions, 0, 0, "--codec=binary");
+        run("mesh 5 crash", seed, 5, decisions, 400_000, 0);
+        run("mesh 5 1% drops", seed, 5, decisions, 0, 0.01);
+    }
+
+    /**
+     * Run a scenario twice with the same seed and print the figures from the second run, once the JIT has warmed up
+     * @param crashAt When the last participant crashes in virtual nanoseconds, 0 for it not to
+     * @param dropRate The chance of each message being dropped
+     * @param args The coordinator's flags, also given to every participant
+     */
+    private static void run(String name, long seed, int participants, int decisions, long crashAt, double dropRate,
+            String... args) throws Exception {
+        Simulation.Result first = simulate(seed, participants, decisions, crashAt, dropRate, args);
+        long start = System.nanoTime();
+        Simulation.Result result = simulate(seed, participants, decisions, crashAt, dropRate, args);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-22s %9d %9d %12.0f %12.0f %10.3f %10.3f %s%n", name, result.decisions, result.restarts,
+                result.decisions / seconds, result.decisions / (result.nanos / 1e9), result.rounds.percentile(50) / 1e6,
+                result.rounds.percentile(99) / 1e6, first.toString().equals(result.toString()) ? "yes" : "NO");
+        if (result.mismatches > 0) System.out.println("Outcomes did not match in " + result.mismatches + " round(s)");
+    }
+
+    private static Simulation.Result simulate(long seed, int participants, int decisions, long crashAt,
+            double dropRate, String... args) throws Exception {
+        Simulation simulation = new Simulation(seed).drops(dropRate, 200_000_000);
+        String[] flags = new String[args.length + 2];
+        System.arraycopy(args, 0, flags, 0, args.length);
+        flags[args.length] = "--decisions=" + decisions;
+        flags[args.length + 1] = "--log=off";
+        simulation.coordinator(participants, OPTIONS, flags);
+        for (int i = 1; i <= participants; i++) simulation.participant(5000 + i, 0, flags);
+        if (crashAt > 0) simulation.crash(5000 + participants, crashAt);
+        return simulation.run();
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Benchmarks Tokeniser.getToken for each message type at payload sizes from 3 to 1000 participants
+ *
+ * Run with: java -cp out TokeniserBench [participants...]
+ */
+public class TokeniserBench {
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? parse(args) : new int[] {3, 10, 100, 1000};
+        Tokeniser tokeniser = new Tokeniser();
+
+        Bench.measure("getToken JOIN", () -> tokeniser.getToken("JOIN 5000"));
+        Bench.measure("getToken VOTE_OPTIONS x3", () -> tokeniser.getToken("VOTE_OPTIONS A B C "));
+        for (int size : sizes) {
+            StringBuilder ports = new StringBuilder();
+            StringBuilder votes = new StringBuilder();
+            for (int i = 0; i < size; i++) {
+                ports.append(5000 + i).append(" ");
+                votes.append(5000 + i).append(i % 3 == 0 ? " A " : " B ");
+            }
+            String details = "DETAILS " + ports;
+            String vote = "VOTE " + votes;
+            String outcome = "OUTCOME A " + ports;
+            String restart = "RESTART " + ports;
+
+            Bench.measure("getToken DETAILS x" + size, () -> tokeniser.getToken(details));
+            Bench.measure("getToken VOTE x" + size, () -> tokeniser.getToken(vote));
+            Bench.measure("getToken OUTCOME x" + size, () -> tokeniser.getToken(outcome));
+            Bench.measure("getToken RESTART x" + size, () -> tokeniser.getToken(restart));
+        }
+    }
+
+    static int[] parse(String[] args) {
+        int[] values = new int[args.length];
+        for (int i = 0; i < args.length; i++) values[i] = Integer.parseInt(args[i]);
+        return values;
+    }
+}
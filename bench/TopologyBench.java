@@ -0,0 +1,106 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares the mesh, tree and star topologies end to end, running a coordinator and N participants as separate
+ * processes. Round latency is the time from every participant having joined to the final outcome, so it includes
+ * the participants connecting to each other, and bytes are the protocol bytes written by every process.
+ *
+ * Run with: java -cp out TopologyBench [rounds] [N...]
+ */
+public class TopologyBench {
+    private static final String[] TOPOLOGIES = {"mesh", "tree", "star"};
+    private static final String CLASSPATH = System.getProperty("java.class.path");
+    private static final String JAVA = System.getProperty("java.home") + "/bin/java";
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int[] sizes = {4, 8, 16, 32};
+        if (args.length > 1) sizes = Arrays.stream(args, 1, args.length).mapToInt(Integer::parseInt).toArray();
+
+        System.out.printf("%-6s %4s %14s %14s%n", "", "N", "latency ms", "bytes");
+        for (int n : sizes) {
+            for (String topology : TOPOLOGIES) {
+                long[] latencies = new long[rounds];
+                long bytes = 0;
+                for (int round = 0; round < rounds; round++) {
+                    long[] result = run(topology, n);
+                    latencies[round] = result[0];
+                    bytes += result[1];
+                }
+                Arrays.sort(latencies);
+                System.out.printf("%-6s %4d %14.1f %14d%n", topology, n, latencies[rounds / 2] / 1e6, bytes / rounds);
+            }
+        }
+    }
+
+    /**
+     * Run one decision
+     * @return The round latency in nanoseconds and the bytes written by every process
+     */
+    private static long[] run(String topology, int n) throws Exception {
+        // Kept below the ephemeral range so no participant's port is taken by another's outgoing connection
+        int port = 20000 + new Random().nextInt(12000);
+        AtomicLong joined = new AtomicLong();
+        AtomicLong decided = new AtomicLong();
+        AtomicLong bytes = new AtomicLong();
+
+        List<Process> processes = new ArrayList<>();
+        Process coordinator = start(bytes, line -> {
+            if (line.startsWith("All participants have joined")) joined.set(System.nanoTime());
+            if (line.startsWith("FINAL OUTCOME")) decided.set(System.nanoTime());
+        }, "Coordinator", Integer.toString(port), Integer.toString(n), "A", "B", "--topology=" + topology,
+                "--count-bytes");
+        processes.add(coordinator);
+        // Give the coordinator time to start listening
+        Thread.sleep(500);
+        for (int i = 1; i <= n; i++) {
+            processes.add(start(bytes, line -> { }, "Participant", Integer.toString(port),
+                    Integer.toString(port + i), "0", "0", "--count-bytes"));
+        }
+
+        for (Process process : processes) {
+            if (!process.waitFor(60, TimeUnit.SECONDS)) {
+                for (Process running : processes) running.destroyForcibly();
+                throw new IllegalStateException(topology + " with " + n + " participants didn't finish");
+            }
+        }
+        // The output readers finish once the processes have exited
+        Thread.sleep(100);
+        return new long[] {decided.get() - joined.get(), bytes.get()};
+    }
+
+    interface LineHandler {
+        void line(String line);
+    }
+
+    /**
+     * Start a process, reading its output on another thread so it can't fill the pipe and block
+     */
+    private static Process start(AtomicLong bytes, LineHandler handler, String... args) throws IOException {
+        List<String> command = new ArrayList<>(Arrays.asList(JAVA, "-cp", CLASSPATH));
+        command.addAll(Arrays.asList(args));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    handler.line(line);
+                    if (line.startsWith("Bytes written: ")) bytes.addAndGet(Long.parseLong(line.substring(15)));
+                }
+            } catch (IOException e) {
+                System.out.println("Failed to read process output");
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        return process;
+    }
+}
@@ -0,0 +1,19 @@
+#! /bin/sh
+# Compiles the sources and benchmarks into bench/out and runs the benchmarks named, or all of them
+# Usage: bench/run.sh [BenchmarkClass...]
+# Exits non-zero if any of them fails, as MixedCodecTest does when its checks fail
+
+cd `dirname $0`/..
+mkdir -p bench/out
+javac -d bench/out src/*.java bench/*.java || exit 1
+
+benchmarks="$@"
+if [ -z "$benchmarks" ]; then
+    benchmarks="MixedCodecTest TokeniserBench MajorityVoteBench RegisterVoteBench ParticipantContentionBench TopologyBench SimulationBench ConsensusClusterBench BootstrapBench ReconnectBench ShardBench FailoverBench"
+fi
+status=0
+for benchmark in $benchmarks; do
+    echo "# $benchmark"
+    java -cp bench/out $benchmark || status=1
+done
+exit $status
@@ -0,0 +1,388 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A participant's voting state for one decision, many of which can run at once over the same connections. The votes
+ * are held by participant index, so recording one neither hashes nor allocates. Those arriving from every other
+ * participant are merged holding the read lock, so the listeners merge them at once, and everything else that reads
+ * or changes the ballot holds the write lock.
+ */
+class Ballot {
+    // What merge returns
+    static final int UNCHANGED = 0;
+    static final int MERGED = 1;
+    static final int EXCLUSIVE = 2;
+
+    // Keeps no count of the readers holding it by thread, so many listeners take it cheaply, but nor can a thread
+    // holding it take it again
+    StampedLock lock = new StampedLock();
+    int instance;
+    int failureCount;
+    boolean outcomeSent;
+    // The outcome sent and the participants whose votes it was based on, sent again if the connection to the
+    // coordinator is reset before it has them
+    String outcome;
+    ArrayList<String> contributors;
+    // Votes from the other participants can arrive before this participant has been sent the options to vote on
+    boolean voted;
+    // When the vote options were last received, from System.nanoTime(), 0 until they have been
+    long optionsReceived;
+    // The options last received in the coordinator's order, which ties are broken by, null until they have been
+    List<String> options;
+    // The participants expected to vote by index, changed only with the write lock held
+    private BitSet expected;
+    private int expectedCount;
+    // One more than the option index each participant voted for by participant index, 0 until its vote arrives,
+    // and the votes for the next round that arrive before this participant restarts. Only replaced with the write
+    // lock held.
+    private volatile AtomicIntegerArray votes;
+    private volatile AtomicIntegerArray cache;
+    // The rankings behind the votes and the cached votes under the runoff rule, by participant index, null until a
+    // ranking is put. Only replaced with the write lock held.
+    private volatile AtomicReferenceArray<String> rankings;
+    private volatile AtomicReferenceArray<String> cachedRankings;
+    // How many of the expected participants have voted, so a complete ballot is found without comparing sets
+    private AtomicInteger arrived = new AtomicInteger();
+    // The votes already sent to each other participant by its index, as participant indexes, so votes are sent
+    // again only to those that haven't had them. Only used with the write lock held.
+    private BitSet[] sent = new BitSet[0];
+    // Counts the votes as they are put, by their index in the option table
+    ConcurrentTally tally = new ConcurrentTally();
+    private ParticipantTable participantTable;
+    private OptionTable optionTable;
+
+    /**
+     * Instantiates a ballot
+     * @param instance The identifier carried by every message about this decision
+     * @param expected The indexes of the participants expected to vote, including this one
+     * @param failureCount Connections to participants that have been lost but not yet reported by the coordinator
+     * @param participantTable The participant table votes are held by
+     * @param optionTable The option table votes are counted by
+     */
+    Ballot(int instance, BitSet expected, int failureCount, ParticipantTable participantTable,
+           OptionTable optionTable) {
+        this.instance = instance;
+        this.expected = expected;
+        expectedCount = expected.cardinality();
+        this.failureCount = failureCount;
+        this.participantTable = participantTable;
+        this.optionTable = optionTable;
+        votes = new AtomicIntegerArray(Math.max(participantTable.size(), 8));
+        cache = new AtomicIntegerArray(votes.length());
+    }
+
+    /**
+     * Record a participant's vote with the write lock held, counting it in the tally in place of any vote it replaces
+     * @param participant The index of the participant that voted
+     * @param option The index of the option voted for
+     * @return True if the vote is new or has changed
+     */
+    boolean putVote(int participant, int option) {
+        return putVote(participant, option, null);
+    }
+
+    /**
+     * Record a participant's vote with the write lock held, counting it in the tally in place of any vote it replaces
+     * @param participant The index of the participant that voted
+     * @param option The index of the option voted for, or ranked first
+     * @param ranking The ranking the vote was sent as, null unless votes are ranked
+     * @return True if the vote is new or has changed
+     */
+    boolean putVote(int participant, int option, String ranking) {
+        grow(participant);
+        if (ranking != null && rankings == null) rankings = new AtomicReferenceArray<>(votes.length());
+        if (rankings != null) rankings.set(participant, ranking);
+        int previous = votes.getAndSet(participant, option + 1);
+        if (previous == option + 1) return false;
+        if (previous != 0) {
+            tally.remove(previous - 1);
+            // Everyone sent the vote it replaces is sent this one
+            for (BitSet votes : sent) {
+                if (votes != null) votes.clear(participant);
+            }
+        } else if (expected.get(participant)) {
+            arrived.incrementAndGet();
+        }
+        tally.add(option);
+        return true;
+    }
+
+    /**
+     * Record a participant's vote with the read lock held, alongside other threads recording theirs. Only a new vote
+     * is recorded this way, as replacing one means counting down another option.
+     * @param participant The index of the participant that voted
+     * @param option The index of the option voted for, or ranked first
+     * @param ranking The ranking the vote was sent as, null unless votes are ranked
+     * @return MERGED if the vote was recorded, UNCHANGED if it was already held, or EXCLUSIVE if it replaces another
+     *         vote or needs the votes, rankings or tally grown, and has to be put with the write lock held instead
+     */
+    int merge(int participant, int option, String ranking) {
+        AtomicIntegerArray votes = this.votes;
+        AtomicReferenceArray<String> rankings = this.rankings;
+        if (participant >= votes.length() || !tally.fits(option)) return EXCLUSIVE;
+        if (ranking != null && rankings == null) return EXCLUSIVE;
+        int previous = votes.get(participant);
+        if (previous == option + 1) return UNCHANGED;
+        if (previous != 0) return EXCLUSIVE;
+        // Set first so the ranking is in place by the time the vote is seen, a listener that loses the race below to
+        // a different vote puts its own again exclusively
+        if (ranking != null) rankings.set(participant, ranking);
+        if (votes.compareAndSet(participant, 0, option + 1)) {
+            tally.add(option);
+            if (expected.get(participant)) arrived.incrementAndGet();
+            return MERGED;
+        }
+        // Another listener has merged a vote from the same participant first
+        return votes.get(participant) == option + 1 ? UNCHANGED : EXCLUSIVE;
+    }
+
+    /**
+     * Keep a vote for the next round with the read lock held
+     * @return False if the votes need growing first, by caching the vote with the write lock held instead
+     */
+    boolean cache(int participant, int option, String ranking) {
+        AtomicIntegerArray cache = this.cache;
+        AtomicReferenceArray<String> cachedRankings = this.cachedRankings;
+        if (participant >= cache.length() || ranking != null && cachedRankings == null) return false;
+        if (cachedRankings != null) cachedRankings.set(participant, ranking);
+        cache.set(participant, option + 1);
+        return true;
+    }
+
+    /**
+     * Keep a vote for the next round with the write lock held
+     */
+    void putCached(int participant, int option, String ranking) {
+        grow(participant);
+        if (ranking != null && cachedRankings == null) cachedRankings = new AtomicReferenceArray<>(cache.length());
+        if (cachedRankings != null) cachedRankings.set(participant, ranking);
+        cache.set(participant, option + 1);
+    }
+
+    /**
+     * @param participant The index of a participant
+     * @return The index of the option it voted for, or -1 if its vote hasn't arrived
+     */
+    int vote(int participant) {
+        AtomicIntegerArray votes = this.votes;
+        return participant < votes.length() ? votes.get(participant) - 1 : -1;
+    }
+
+    /**
+     * @param participant The index of a participant
+     * @return The ranking its vote was sent as, or null if it wasn't ranked or hasn't arrived
+     */
+    String ranking(int participant) {
+        AtomicReferenceArray<String> rankings = this.rankings;
+        return rankings != null && participant < rankings.length() ? rankings.get(participant) : null;
+    }
+
+    /**
+     * @param participants The indexes of the participants whose votes are wanted
+     * @return Their votes as they were sent by participant port
+     */
+    Map<String, String> votes(BitSet participants) {
+        HashMap<String, String> map = new HashMap<>();
+        for (int i = participants.nextSetBit(0); i >= 0; i = participants.nextSetBit(i + 1)) {
+            int vote = vote(i);
+            if (vote == -1) continue;
+            String ranking = ranking(i);
+            map.put(participantTable.name(i), ranking != null ? ranking : optionTable.get(vote));
+        }
+        return map;
+    }
+
+    /**
+     * Find the votes another participant hasn't been sent yet and count them as sent, with the write lock held
+     * @param peer The index of the participant the votes are for
+     * @return The indexes of the participants whose votes it hasn't been sent
+     */
+    BitSet unsent(int peer) {
+        if (peer >= sent.length) sent = Arrays.copyOf(sent, Math.max(sent.length * 2, peer + 1));
+        if (sent[peer] == null) sent[peer] = new BitSet();
+        AtomicIntegerArray votes = this.votes;
+        BitSet unsent = new BitSet();
+        for (int i = 0; i < votes.length(); i++) {
+            if (votes.get(i) != 0 && !sent[peer].get(i)) unsent.set(i);
+        }
+        sent[peer].or(unsent);
+        return unsent;
+    }
+
+    /**
+     * Send another participant every vote again, with the write lock held, as it has restarted since they were sent
+     */
+    void unsend(int peer) {
+        if (peer < sent.length) sent[peer] = null;
+    }
+
+    /**
+     * @return The ports of the participants whose votes are held
+     */
+    ArrayList<String> voters() {
+        AtomicIntegerArray votes = this.votes;
+        ArrayList<String> voters = new ArrayList<>();
+        for (int i = 0; i < votes.length(); i++) {
+            if (votes.get(i) != 0) voters.add(participantTable.name(i));
+        }
+        return voters;
+    }
+
+    /**
+     * Change who is expected to vote, with the write lock held
+     * @param expected The indexes of the participants expected to vote
+     */
+    void expect(BitSet expected) {
+        this.expected = expected;
+        expectedCount = expected.cardinality();
+        recount();
+    }
+
+    /**
+     * Stop expecting a vote from a participant that has failed, dropping any vote from it in this round or the next,
+     * with the write lock held
+     */
+    void leaveOut(int participant) {
+        expected.clear(participant);
+        expectedCount = expected.cardinality();
+        removeVote(participant);
+        if (participant < cache.length()) cache.set(participant, 0);
+        if (cachedRankings != null && participant < cachedRankings.length()) cachedRankings.set(participant, null);
+    }
+
+    /**
+     * Drop a participant's vote with the write lock held
+     */
+    void removeVote(int participant) {
+        if (participant >= votes.length()) return;
+        int previous = votes.getAndSet(participant, 0);
+        if (rankings != null) rankings.set(participant, null);
+        if (previous == 0) return;
+        tally.remove(previous - 1);
+        if (expected.get(participant)) arrived.decrementAndGet();
+    }
+
+    /**
+     * Start the next round with the votes cached for it, with the write lock held
+     */
+    void restart() {
+        votes = cache;
+        cache = new AtomicIntegerArray(votes.length());
+        rankings = cachedRankings;
+        cachedRankings = null;
+        sent = new BitSet[0];
+        recount();
+    }
+
+    /**
+     * Drop every vote with the write lock held
+     */
+    void clear() {
+        votes = new AtomicIntegerArray(votes.length());
+        rankings = null;
+        sent = new BitSet[0];
+        recount();
+    }
+
+    /**
+     * Make room for a participant's vote with the write lock held
+     */
+    private void grow(int participant) {
+        if (participant < votes.length()) return;
+        int length = Math.max(votes.length() * 2, participant + 1);
+        votes = copy(votes, length);
+        cache = copy(cache, length);
+        if (rankings != null) rankings = copy(rankings, length);
+        if (cachedRankings != null) cachedRankings = copy(cachedRankings, length);
+    }
+
+    private static AtomicIntegerArray copy(AtomicIntegerArray array, int length) {
+        AtomicIntegerArray copy = new AtomicIntegerArray(length);
+        for (int i = 0; i < array.length(); i++) copy.set(i, array.get(i));
+        return copy;
+    }
+
+    private static AtomicReferenceArray<String> copy(AtomicReferenceArray<String> array, int length) {
+        AtomicReferenceArray<String> copy = new AtomicReferenceArray<>(length);
+        for (int i = 0; i < array.length(); i++) copy.set(i, array.get(i));
+        return copy;
+    }
+
+    /**
+     * Count the votes again after they have been replaced wholesale
+     */
+    private void recount() {
+        tally.clear();
+        int count = 0;
+        for (int i = 0; i < votes.length(); i++) {
+            int vote = votes.get(i);
+            if (vote == 0) continue;
+            tally.add(vote - 1);
+            if (expected.get(i)) count++;
+        }
+        arrived.set(count);
+    }
+
+    /**
+     * Settle the decision from the votes held, with the write lock held
+     * @param rule How the outcome is settled
+     * @return The index of the option decided on, or -1 for FAIL
+     */
+    int decide(DecisionRule rule) {
+        // The tally already knows whether one option has a majority
+        if (rule.majority()) return tally.majority();
+        AtomicIntegerArray votes = this.votes;
+        ArrayList<int[]> ballots = new ArrayList<>();
+        for (int i = 0; i < votes.length(); i++) {
+            int vote = votes.get(i) - 1;
+            if (vote == -1) continue;
+            String ranking = ranking(i);
+            ballots.add(ranking != null ? DecisionRule.parse(ranking, optionTable) : new int[] {vote});
+        }
+        return rule.decide(instance, ballots, options, optionTable);
+    }
+
+    /**
+     * @return How many participants are expected to vote
+     */
+    int expectedCount() {
+        return expectedCount;
+    }
+
+    /**
+     * @return True once one option has a majority of the votes whichever way the votes still to come go
+     */
+    boolean majorityCertain() {
+        return tally.majority(expectedCount) != -1;
+    }
+
+    /**
+     * @return True once a vote has been received from every participant
+     */
+    boolean complete() {
+        return arrived.get() == expectedCount;
+    }
+
+    /**
+     * @return True once the outcome can be sent, when every vote is in or sooner once one option has a majority
+     *         however the rest vote
+     */
+    boolean ready() {
+        return complete() || voted && majorityCertain();
+    }
+
+    /**
+     * @return A label to add to log messages, empty for the first decision so a single vote logs as it always has
+     */
+    String label() {
+        return instance == 0 ? "" : " [decision " + instance + "]";
+    }
+}
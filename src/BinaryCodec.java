@@ -0,0 +1,657 @@
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A compact binary encoding of the protocol messages. Each frame is a varint length, a one byte message type and
+ * the payload, with participants sent as varint ports and votes sent as varint option indexes. Messages about a
+ * decision start their payload with its varint instance.
+ *
+ * A participant asks for it by sending "JOIN <port> BINARY", and the coordinator agrees by replying with the
+ * HELLO line, after which both directions of that connection are binary. A participant opens a binary connection
+ * to another participant by sending the HELLO line first, and only does so when the coordinator's details say the
+ * other participant understands it.
+ */
+class BinaryCodec {
+    static final String HELLO = "CODEC BINARY";
+
+    static final byte DETAILS = 1;
+    static final byte VOTE_OPTIONS = 2;
+    static final byte VOTE = 3;
+    static final byte OUTCOME = 4;
+    static final byte RESTART = 5;
+    // Defines option indexes for the receiver without starting a vote
+    static final byte OPTIONS = 6;
+    static final byte DECIDED = 7;
+    static final byte TREE = 8;
+    static final byte STAR = 9;
+    static final byte HEARTBEAT = 10;
+    static final byte REJOINED = 11;
+    // Votes that rank the options, each a count of option indexes in order of preference
+    static final byte RANKED_VOTE = 12;
+    static final byte RULE = 13;
+
+    // Space at the front of a frame for the longest varint length
+    private static final int HEADER = 5;
+    // Room for a frame's length, type, instance and counts, before the strings and ports in it
+    private static final int FRAME = 32;
+
+    /**
+     * Writes a frame into a buffer
+     */
+    interface Encoder {
+        void encode(ByteBuffer out);
+    }
+
+    /**
+     * Encode a frame into a new buffer of the size estimated for it, for a frame kept to be sent more than once
+     * @param size The estimated size, see {@link #sizeOf}
+     * @return The frame, ready to be read
+     */
+    static ByteBuffer frame(int size, Encoder encoder) {
+        return encode(ByteBuffer.allocate(size), size, encoder);
+    }
+
+    /**
+     * Encode into a buffer kept for reuse, replacing it first if it is smaller than the size estimated, and again
+     * with one twice the size should the estimate fall short
+     * @param out The buffer to reuse, cleared before encoding
+     * @param size The estimated size, 0 for a message small enough to fit any buffer kept
+     * @return The buffer encoded into, ready to be read, which the caller keeps in place of the one it passed
+     */
+    static ByteBuffer encode(ByteBuffer out, int size, Encoder encoder) {
+        if (out.capacity() < size) out = ByteBuffer.allocate(size);
+        while (true) {
+            try {
+                out.clear();
+                encoder.encode(out);
+                out.flip();
+                return out;
+            } catch (BufferOverflowException | IndexOutOfBoundsException e) {
+                out = ByteBuffer.allocate(out.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * @param values The options, rankings or ports in a frame
+     * @return A bound on the size of a frame holding them, however each is encoded
+     */
+    static int sizeOf(Collection<String> values) {
+        int size = FRAME;
+        for (String value : values) size += 2 * HEADER + 3 * value.length();
+        return size;
+    }
+
+    /**
+     * @return A bound on the size of a frame defining the options from an index onwards
+     */
+    static int sizeOf(OptionTable table, int from) {
+        int size = FRAME;
+        for (int index = from; index < table.size(); index++) {
+            String option = table.get(index);
+            size += 2 * HEADER + (option == null ? 0 : 3 * option.length());
+        }
+        return size;
+    }
+
+    static void encodeRule(ByteBuffer out, DecisionRule rule) {
+        int start = begin(out, RULE);
+        putString(out, rule.name);
+        putString(out, rule.tieBreak);
+        end(out, start);
+    }
+
+    static void encodeStar(ByteBuffer out) {
+        end(out, begin(out, STAR));
+    }
+
+    static void encodeHeartbeat(ByteBuffer out) {
+        end(out, begin(out, HEARTBEAT));
+    }
+
+    static void encodeRejoined(ByteBuffer out, String participant, boolean binary) {
+        int start = begin(out, REJOINED);
+        putVarint(out, Integer.parseInt(participant));
+        out.put((byte) (binary ? 1 : 0));
+        end(out, start);
+    }
+
+    static void encodeTree(ByteBuffer out, int fanout) {
+        int start = begin(out, TREE);
+        putVarint(out, fanout);
+        end(out, start);
+    }
+
+    static void encodeDetails(ByteBuffer out, List<String> participants, Set<String> binaryParticipants) {
+        int start = begin(out, DETAILS);
+        putVarint(out, participants.size());
+        for (String participant : participants) {
+            putVarint(out, Integer.parseInt(participant));
+            out.put((byte) (binaryParticipants.contains(participant) ? 1 : 0));
+        }
+        end(out, start);
+    }
+
+    static void encodeVoteOptions(ByteBuffer out, int instance, List<String> options, OptionTable table) {
+        int start = begin(out, VOTE_OPTIONS);
+        putVarint(out, instance);
+        putVarint(out, options.size());
+        for (String option : options) {
+            putVarint(out, table.indexOf(option));
+            putString(out, option);
+        }
+        end(out, start);
+    }
+
+    /**
+     * Encode the options from the given index onwards so the receiver can decode votes for them
+     */
+    static void encodeOptions(ByteBuffer out, OptionTable table, int from) {
+        int start = begin(out, OPTIONS);
+        putVarint(out, table.size() - from);
+        for (int i = from; i < table.size(); i++) {
+            putVarint(out, i);
+            putString(out, table.get(i) == null ? "" : table.get(i));
+        }
+        end(out, start);
+    }
+
+    /**
+     * Votes are sent in a ranked vote frame if any of them is a ranking, so no ranking is numbered as an option
+     */
+    static void encodeVote(ByteBuffer out, int instance, Map<String, String> votes, OptionTable table) {
+        boolean ranked = false;
+        for (String vote : votes.values()) ranked |= DecisionRule.isRanking(vote);
+        int start = begin(out, ranked ? RANKED_VOTE : VOTE);
+        putVarint(out, instance);
+        putVarint(out, votes.size());
+        for (Map.Entry<String, String> vote : votes.entrySet()) {
+            putVarint(out, Integer.parseInt(vote.getKey()));
+            if (!ranked) {
+                putVarint(out, table.indexOf(vote.getValue()));
+                continue;
+            }
+            String[] ranking = vote.getValue().split(String.valueOf(DecisionRule.RANKING));
+            putVarint(out, ranking.length);
+            for (String option : ranking) putVarint(out, table.indexOf(option));
+        }
+        end(out, start);
+    }
+
+    /**
+     * The outcome is sent as one more than its option index, with 0 meaning FAIL
+     */
+    static void encodeOutcome(ByteBuffer out, int instance, String outcome, Collection<String> contributors,
+                              OptionTable table) {
+        int start = begin(out, OUTCOME);
+        putVarint(out, instance);
+        putVarint(out, outcome.equals("FAIL") ? 0 : table.indexOf(outcome) + 1);
+        putPorts(out, contributors);
+        end(out, start);
+    }
+
+    static void encodeRestart(ByteBuffer out, int instance, List<String> failures) {
+        int start = begin(out, RESTART);
+        putVarint(out, instance);
+        putPorts(out, failures);
+        end(out, start);
+    }
+
+    /**
+     * The outcome is sent as it is for OUTCOME, FAIL meaning the decision is being voted on again as a new instance
+     */
+    static void encodeDecided(ByteBuffer out, int instance, String outcome, OptionTable table) {
+        int start = begin(out, DECIDED);
+        putVarint(out, instance);
+        putVarint(out, outcome.equals("FAIL") ? 0 : table.indexOf(outcome) + 1);
+        end(out, start);
+    }
+
+    /**
+     * @param frame A frame ready to be read, left where it is
+     * @return The frame's message type
+     */
+    static byte type(ByteBuffer frame) {
+        int position = frame.position();
+        while (frame.get(position) < 0) position++;
+        return frame.get(position + 1);
+    }
+
+    /**
+     * Decode the next complete frame in a buffer
+     * @param in A buffer holding zero or more frames, its position is moved past the frame decoded
+     * @param table The option table for the connection, updated by the options frames received
+     * @return A token for the message, or null if the buffer doesn't hold a complete message
+     * @throws IOException If the frame is empty, of an unknown type or its body runs past its end, after which the
+     *                     stream can't be relied on to be in step
+     */
+    static Token decode(ByteBuffer in, OptionTable table) throws IOException {
+        while (true) {
+            int start = in.position();
+            int length = peekVarint(in);
+            if (length < 0 || in.remaining() < length) {
+                in.position(start);
+                return null;
+            }
+            if (length == 0) {
+                Log.warn("Empty binary frame");
+                throw new IOException("Empty binary frame");
+            }
+            int end = in.position() + length;
+            byte type = in.get(in.position());
+            Metrics.received(type, end - start);
+            // The body is read from a view ending with the frame, so a malformed one can't read into the next
+            Token token;
+            try {
+                token = decodeBody(in.slice(in.position() + 1, length - 1), type, table);
+            } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+                Log.warn("Malformed binary message of type: " + type);
+                throw new IOException("Malformed binary message of type: " + type, e);
+            }
+            in.position(end);
+            if (token != null) return token;
+        }
+    }
+
+    private static Token decodeBody(ByteBuffer in, byte type, OptionTable table) throws IOException {
+        switch (type) {
+            case RULE:
+                return new RuleToken(null, getString(in), getString(in));
+            case STAR:
+                return new StarToken(null);
+            case TREE:
+                return new TreeToken(null, getVarint(in));
+            case HEARTBEAT:
+                return new HeartbeatToken(null);
+            case REJOINED:
+                return new RejoinedToken(null, Integer.toString(getVarint(in)), in.get() == 1);
+            case DETAILS: {
+                int count = getCount(in);
+                ArrayList<String> participants = new ArrayList<>(count);
+                HashSet<String> binaryParticipants = new HashSet<>();
+                for (int i = 0; i < count; i++) {
+                    String participant = Integer.toString(getVarint(in));
+                    participants.add(participant);
+                    if (in.get() == 1) binaryParticipants.add(participant);
+                }
+                return new DetailsToken(null, participants, binaryParticipants);
+            }
+            case VOTE_OPTIONS: {
+                int instance = getVarint(in);
+                int count = getCount(in);
+                ArrayList<String> voteOptions = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    int index = getVarint(in);
+                    String option = getString(in);
+                    table.put(index, option);
+                    voteOptions.add(option);
+                }
+                return withInstance(new VoteOptionsToken(null, voteOptions), instance);
+            }
+            case OPTIONS: {
+                int count = getCount(in);
+                for (int i = 0; i < count; i++) table.put(getVarint(in), getString(in));
+                return null;
+            }
+            case VOTE: {
+                int instance = getVarint(in);
+                int count = getCount(in);
+                HashMap<String, String> votes = new HashMap<>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    String participant = Integer.toString(getVarint(in));
+                    String option = table.get(getVarint(in));
+                    if (option != null) votes.put(participant, option);
+                }
+                return withInstance(new VoteToken(null, votes), instance);
+            }
+            case RANKED_VOTE: {
+                int instance = getVarint(in);
+                int count = getCount(in);
+                HashMap<String, String> votes = new HashMap<>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    String participant = Integer.toString(getVarint(in));
+                    int length = getCount(in);
+                    StringJoiner ranking = new StringJoiner(String.valueOf(DecisionRule.RANKING));
+                    for (int j = 0; j < length; j++) {
+                        String option = table.get(getVarint(in));
+                        if (option != null) ranking.add(option);
+                    }
+                    if (ranking.length() > 0) votes.put(participant, ranking.toString());
+                }
+                return withInstance(new VoteToken(null, votes), instance);
+            }
+            case OUTCOME: {
+                int instance = getVarint(in);
+                int index = getVarint(in);
+                String outcome = index == 0 ? "FAIL" : table.get(index - 1);
+                return withInstance(new OutcomeToken(null, outcome, getPorts(in)), instance);
+            }
+            case RESTART: {
+                int instance = getVarint(in);
+                return withInstance(new RestartToken(null, getPorts(in)), instance);
+            }
+            case DECIDED: {
+                int instance = getVarint(in);
+                int index = getVarint(in);
+                String outcome = index == 0 ? "FAIL" : table.get(index - 1);
+                return withInstance(new DecidedToken(null, outcome), instance);
+            }
+            default:
+                Log.warn("Unknown binary message type: " + type);
+                throw new IOException("Unknown binary message type: " + type);
+        }
+    }
+
+    private static Token withInstance(Token token, int instance) {
+        token.instance = instance;
+        return token;
+    }
+
+    /**
+     * Read a line a byte at a time, so nothing past it is consumed before the codec of the rest is known
+     * @return The line without its terminator, or null if the stream ended first
+     */
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) return line.size() == 0 ? null : line.toString(Charset.defaultCharset());
+            if (b != '\r') line.write(b);
+        }
+        return line.toString(Charset.defaultCharset());
+    }
+
+    private static int begin(ByteBuffer out, byte type) {
+        int start = out.position();
+        out.position(start + HEADER);
+        out.put(type);
+        return start;
+    }
+
+    /**
+     * Write the length in front of the frame and close the gap left for the longest varint
+     */
+    private static void end(ByteBuffer out, int start) {
+        int length = out.position() - start - HEADER;
+        int prefix = varintSize(length);
+        for (int i = 0; i < length; i++) out.put(start + prefix + i, out.get(start + HEADER + i));
+        out.position(start);
+        putVarint(out, length);
+        out.position(start + prefix + length);
+    }
+
+    private static void putPorts(ByteBuffer out, Collection<String> ports) {
+        putVarint(out, ports.size());
+        for (String port : ports) putVarint(out, Integer.parseInt(port));
+    }
+
+    private static ArrayList<String> getPorts(ByteBuffer in) {
+        int count = getCount(in);
+        ArrayList<String> ports = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) ports.add(Integer.toString(getVarint(in)));
+        return ports;
+    }
+
+    static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putVarint(out, bytes.length);
+        out.put(bytes);
+    }
+
+    static String getString(ByteBuffer in) {
+        int length = getCount(in);
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * Read the length of a string or list, each byte or element taking at least a byte of what is left
+     * @throws BufferUnderflowException If it is longer than what is left could hold
+     */
+    private static int getCount(ByteBuffer in) {
+        int count = getVarint(in);
+        if (count < 0 || count > in.remaining()) throw new BufferUnderflowException();
+        return count;
+    }
+
+    static void putVarint(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    /**
+     * Read a varint if all of it is in the buffer
+     * @return The value, or -1 if the buffer ends part way through it
+     */
+    private static int peekVarint(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; in.hasRemaining() && shift < 35; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+        return -1;
+    }
+
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+}
+
+/**
+ * Reads binary frames from a blocking stream
+ */
+class BinaryReader implements MessageReader {
+    private InputStream in;
+    private OptionTable table;
+    private ByteBuffer frame = ByteBuffer.allocate(256);
+
+    /**
+     * Instantiates a binary reader
+     * @param in The stream to read, positioned just after the codec handshake
+     * @param table The option table to decode option indexes with
+     */
+    BinaryReader(InputStream in, OptionTable table) {
+        this.in = in;
+        this.table = table;
+    }
+
+    @Override
+    public Token read() throws IOException {
+        while (true) {
+            // Read the length prefix and then the rest of the frame after it
+            frame.clear();
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = in.read();
+                if (b == -1) {
+                    if (shift == 0) return null;
+                    throw new EOFException();
+                }
+                frame.put((byte) b);
+                length |= (b & 0x7F) << shift;
+                if (b < 0x80) break;
+            }
+            if (frame.remaining() < length) {
+                ByteBuffer larger = ByteBuffer.allocate(frame.position() + length);
+                frame.flip();
+                frame = larger.put(frame);
+            }
+            if (in.readNBytes(frame.array(), frame.position(), length) < length) throw new EOFException();
+            frame.position(frame.position() + length);
+            frame.flip();
+
+            Token token;
+            try {
+                token = BinaryCodec.decode(frame, table);
+            } catch (IOException e) {
+                // Out of step with the other end, so the connection is closed rather than read further
+                in.close();
+                throw e;
+            }
+            if (token != null) return token;
+        }
+    }
+}
+
+/**
+ * Writes binary frames to a blocking stream
+ */
+class BinaryWriter implements MessageWriter {
+    private OutputStream out;
+    private OptionTable table;
+    // How many of the table's options the other end has been told about
+    private int optionsSent;
+    // A participant sends from whichever thread made the change behind a message, so frames are written whole and
+    // the options go out ahead of the votes that use them
+    private ReentrantLock lock = new ReentrantLock();
+    // The frames not kept to be sent again are encoded into this one buffer, held with the lock
+    private ByteBuffer frame = ByteBuffer.allocate(256);
+
+    /**
+     * Instantiates a binary writer
+     * @param out The stream to write, just after the codec handshake
+     * @param table The option table to encode options with
+     */
+    BinaryWriter(OutputStream out, OptionTable table) {
+        this.out = out;
+        this.table = table;
+    }
+
+    @Override
+    public void rule(DecisionRule rule) {
+        write(0, out -> BinaryCodec.encodeRule(out, rule));
+    }
+
+    @Override
+    public void star() {
+        write(0, BinaryCodec::encodeStar);
+    }
+
+    @Override
+    public void tree(int fanout) {
+        write(0, out -> BinaryCodec.encodeTree(out, fanout));
+    }
+
+    @Override
+    public void details(ParticipantDetails details) {
+        write(details.binary());
+    }
+
+    @Override
+    public void voteOptions(int instance, List<String> options) {
+        lock.lock();
+        try {
+            write(BinaryCodec.sizeOf(options), out -> BinaryCodec.encodeVoteOptions(out, instance, options, table));
+            optionsSent = Math.max(optionsSent, table.size());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void votes(VoteBroadcast votes) {
+        ByteBuffer frame = votes.binary(table);
+        lock.lock();
+        try {
+            // Make sure the other end can decode every option index in the votes
+            if (optionsSent < table.size()) {
+                int from = optionsSent;
+                write(BinaryCodec.sizeOf(table, from), out -> BinaryCodec.encodeOptions(out, table, from));
+                optionsSent = table.size();
+            }
+            write(frame);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void outcome(int instance, String outcome, Collection<String> contributors) {
+        write(BinaryCodec.sizeOf(contributors) + outcome.length() * 3,
+                out -> BinaryCodec.encodeOutcome(out, instance, outcome, contributors, table));
+    }
+
+    @Override
+    public void restart(int instance, List<String> failures) {
+        write(BinaryCodec.sizeOf(failures), out -> BinaryCodec.encodeRestart(out, instance, failures));
+    }
+
+    @Override
+    public void decided(int instance, String outcome) {
+        write(0, out -> BinaryCodec.encodeDecided(out, instance, outcome, table));
+    }
+
+    @Override
+    public void rejoined(String participant, boolean binary) {
+        write(0, out -> BinaryCodec.encodeRejoined(out, participant, binary));
+    }
+
+    @Override
+    public void heartbeat() {
+        write(0, BinaryCodec::encodeHeartbeat);
+    }
+
+    /**
+     * Encode a frame into the writer's buffer and write it
+     * @param size The estimated size of the frame, 0 if it is small
+     */
+    private void write(int size, BinaryCodec.Encoder encoder) {
+        lock.lock();
+        try {
+            frame = BinaryCodec.encode(frame, size, encoder);
+            write(frame);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void write(ByteBuffer frame) {
+        Metrics.sent(BinaryCodec.type(frame), frame.remaining());
+        lock.lock();
+        try {
+            out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            out.flush();
+        } catch (IOException e) {
+            // Matches the print writers, a lost connection is noticed by the listener on the other side
+            Log.warn("Failed to write binary message");
+        } finally {
+            lock.unlock();
+        }
+    }
+}
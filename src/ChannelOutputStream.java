@@ -0,0 +1,67 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * An output stream over a non-blocking socket channel so it can sit underneath the same print writers used for
+ * blocking sockets. Bytes the socket send buffer has no room for are queued and sent by the selector thread once the
+ * channel is writable, so a slow connection holds up neither the thread writing nor the others.
+ */
+class ChannelOutputStream extends OutputStream {
+    private SelectionKey key;
+    // The bytes written but not yet sent, between the position and the limit
+    private ByteBuffer pending = ByteBuffer.allocate(0);
+
+    /**
+     * Instantiates a channel output stream
+     * @param key The selection key of the non-blocking channel to write to
+     */
+    ChannelOutputStream(SelectionKey key) {
+        this.key = key;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    /**
+     * Send as much as the channel takes straight away and queue the rest, unless earlier bytes are still queued
+     */
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+        if (!pending.hasRemaining()) ((SocketChannel) key.channel()).write(buffer);
+        if (!buffer.hasRemaining()) return;
+        queue(buffer);
+        try {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        } catch (CancelledKeyException e) {
+            throw new IOException("Channel closed", e);
+        }
+        key.selector().wakeup();
+    }
+
+    /**
+     * Send as many of the queued bytes as the channel takes, called by the selector thread once it is writable
+     */
+    synchronized void drain() throws IOException {
+        ((SocketChannel) key.channel()).write(pending);
+        if (!pending.hasRemaining()) key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+    }
+
+    private void queue(ByteBuffer bytes) {
+        pending.compact();
+        if (pending.remaining() < bytes.remaining()) {
+            int needed = pending.position() + bytes.remaining();
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, needed));
+            pending.flip();
+            pending = larger.put(pending);
+        }
+        pending.put(bytes);
+        pending.flip();
+    }
+}
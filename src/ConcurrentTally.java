@@ -0,0 +1,91 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts votes by option index like a tally, with atomic counters so any number of threads can count votes at once.
+ * The counters are only grown, cleared or counted down by a thread holding its ballot exclusively, so a count added
+ * alongside other threads is never lost to a copy.
+ */
+class ConcurrentTally {
+    // The count of the leading option in the high half and its index in the low half, so both change in one step
+    private static final long NO_LEADER = leader(0, -1);
+
+    private volatile AtomicIntegerArray counts = new AtomicIntegerArray(8);
+    private AtomicInteger total = new AtomicInteger();
+    private AtomicLong leader = new AtomicLong(NO_LEADER);
+
+    private static long leader(int count, int option) {
+        return (long) count << 32 | option & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @param option The index of an option
+     * @return True if there is a counter for the option, so it can be counted alongside other threads
+     */
+    boolean fits(int option) {
+        return option < counts.length();
+    }
+
+    /**
+     * Count a vote, growing the counters first if they don't reach its option
+     * @param option The index of the option voted for, which fits unless the ballot is held exclusively
+     */
+    void add(int option) {
+        AtomicIntegerArray counts = this.counts;
+        if (option >= counts.length()) {
+            AtomicIntegerArray grown = new AtomicIntegerArray(Math.max(counts.length() * 2, option + 1));
+            for (int i = 0; i < counts.length(); i++) grown.set(i, counts.get(i));
+            this.counts = counts = grown;
+        }
+        int count = counts.incrementAndGet(option);
+        total.incrementAndGet();
+        // Counts only go up alongside other threads, so the highest count seen is the leader's, and an option that
+        // ties it keeps the lead it already has
+        long current;
+        while ((int) ((current = leader.get()) >>> 32) < count) {
+            if (leader.compareAndSet(current, leader(count, option))) break;
+        }
+    }
+
+    /**
+     * Stop counting a vote, when a vote is replaced or its participant fails
+     * @param option The index of the option voted for
+     */
+    void remove(int option) {
+        AtomicIntegerArray counts = this.counts;
+        counts.decrementAndGet(option);
+        total.decrementAndGet();
+        if ((int) leader.get() != option) return;
+        // Only a vote for the leader can change it, and with the ballot held exclusively the counts hold still while
+        // they are gone over again
+        long next = NO_LEADER;
+        for (int i = 0; i < counts.length(); i++) {
+            if (counts.get(i) > (int) (next >>> 32)) next = leader(counts.get(i), i);
+        }
+        leader.set(next);
+    }
+
+    void clear() {
+        counts = new AtomicIntegerArray(counts.length());
+        total.set(0);
+        leader.set(NO_LEADER);
+    }
+
+    /**
+     * @return The index of the option with more than half of the votes counted, or -1 if there isn't one
+     */
+    int majority() {
+        return majority(total.get());
+    }
+
+    /**
+     * @param voters How many votes there will be once everyone has voted
+     * @return The index of the option with more than half of every vote whichever way the rest go, or -1 if the
+     *         outcome isn't certain yet
+     */
+    int majority(int voters) {
+        long leader = this.leader.get();
+        return (int) (leader >>> 32) > voters / 2 ? (int) leader : -1;
+    }
+}
@@ -0,0 +1,420 @@
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Keeps a participant's connections to the other participants and the coordinator open through transient resets. A
+ * connection to another participant that fails to write is opened again in the background and the votes of every
+ * round in progress are sent again over it, and a connection lost from another participant is only counted as a
+ * failure if that participant hasn't opened a new one within the reconnect window. A connection is only opened
+ * again while the other end still accepts it, one that refuses it has stopped.
+ *
+ * Each connection to another participant opens with a SESSION line naming the participant it is from, so the one it
+ * replaces can be told apart from a participant joining the tree or connecting for the first time.
+ */
+class ConnectionManager {
+    // Opens connections again, each waiting out its backoff between attempts
+    private static final ExecutorService reconnects = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "reconnect");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Counts a participant that hasn't connected again as failed once the window has passed
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "reconnect-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private String self;
+    private long reconnectNanos;
+    // Sends the votes of every round in progress to a participant over the connection opened again to it
+    private BiConsumer<String, MessageWriter> replay;
+    // How many connections from each participant are open, as a new one can arrive before the old one is noticed
+    // lost, and the failures of those that have lost them to count unless they connect again in time
+    private Map<String, Integer> open = new HashMap<>();
+    private Map<String, ScheduledFuture<?>> lost = new HashMap<>();
+    private volatile boolean closed;
+    // Parses the coordinator's reply to a resumed connection
+    private Tokeniser tokeniser = new Tokeniser();
+
+    /**
+     * Instantiates a connection manager
+     * @param self The port of the participant the connections belong to
+     * @param reconnectMillis How long a connection is retried for, and a participant given to connect again
+     * @param replay Sends the votes of every round in progress to a participant connected to again
+     */
+    ConnectionManager(String self, int reconnectMillis, BiConsumer<String, MessageWriter> replay) {
+        this.self = self;
+        this.reconnectNanos = TimeUnit.MILLISECONDS.toNanos(reconnectMillis);
+        this.replay = replay;
+    }
+
+    /**
+     * Keep connections open through resets if asked to
+     * @param flags The command line flags, --reconnect=<ms> is how long to try to open a connection again for
+     * @param self The port of the participant the connections belong to
+     * @param replay Sends the votes of every round in progress to a participant connected to again
+     * @return The connection manager, or null if a lost connection counts as a failure straight away
+     */
+    static ConnectionManager create(Flags flags, String self, BiConsumer<String, MessageWriter> replay) {
+        int reconnect = flags.getInt("reconnect", 0);
+        if (reconnect <= 0) return null;
+        return new ConnectionManager(self, reconnect, replay);
+    }
+
+    /**
+     * Open a connection to another participant that is opened again if it fails to write
+     * @param participant The port of the other participant
+     * @param dial Opens a connection to the participant
+     * @param codec Builds the writer for a connection, writing the codec handshake
+     * @return The writer, which writes to whichever connection is open
+     */
+    PeerLink link(String participant, Dial<OutputStream> dial, Function<OutputStream, MessageWriter> codec)
+            throws IOException {
+        PeerLink link = new PeerLink(participant, dial, codec);
+        link.open();
+        return link;
+    }
+
+    /**
+     * Open a connection again, retrying with a doubling backoff until it opens, the other end refuses it or the
+     * reconnect window has passed
+     * @param dial Opens the connection
+     * @return The connection, or null if it couldn't be opened again
+     */
+    <T> T reopen(Dial<T> dial) {
+        long deadline = System.nanoTime() + reconnectNanos;
+        long backoff = 10;
+        while (!closed) {
+            try {
+                return dial.open();
+            } catch (ConnectException e) {
+                return null;
+            } catch (IOException e) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) return null;
+                long jittered = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+                try {
+                    Thread.sleep(Math.min(remaining, jittered));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+                backoff = Math.min(backoff * 2, 1000);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resume the connection to the coordinator after it was reset, or with the standbys after it in turn if it has
+     * failed, each given the reconnect window to accept it. A standby holds the connection until it has taken over.
+     * @param coordinators The ports of the coordinator and the standbys after it, in the order they take over
+     * @param binary Whether to ask for the binary codec
+     * @param connections Holds the connection once it is open, so closing the participant closes it
+     * @return The connection resumed, or null if the coordinators have all stopped, counted this participant as
+     *         failed or are standbys that haven't taken over in time
+     */
+    Resumed resume(List<Integer> coordinators, boolean binary, Collection<Closeable> connections) {
+        for (int i = 0; i < coordinators.size() && !closed; i++) {
+            Log.info(i == 0 ? "Resuming the connection to the coordinator"
+                    : "Resuming with standby coordinator: " + coordinators.get(i));
+            Resumed resumed = resume(coordinators.get(i), binary, connections);
+            if (resumed != null) {
+                Metrics.counter("participant.reconnects").increment();
+                return resumed;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resume the connection with one coordinator, which replies with the codec for the rest of the connection
+     */
+    private Resumed resume(int coordinator, boolean binary, Collection<Closeable> connections) {
+        Socket socket = reopen(() -> {
+            Socket opened = new Socket("localhost", coordinator);
+            opened.setTcpNoDelay(true);
+            return opened;
+        });
+        if (socket == null) return null;
+        connections.add(socket);
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            out.write(("RESUME " + self + (binary ? " BINARY" : "") + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            socket.setSoTimeout(window());
+            String message = BinaryCodec.readLine(in);
+            socket.setSoTimeout(0);
+            Token token = message == null ? null : tokeniser.getToken(message);
+            if (token instanceof CodecToken) {
+                return new Resumed(coordinator, socket, in, out, ((CodecToken) token).codec.equals("BINARY"));
+            }
+        } catch (IOException e) {
+            Log.warn("Failed to resume the connection to the coordinator");
+        }
+        closeQuietly(socket);
+        return null;
+    }
+
+    /**
+     * @return How long a connection is retried for, in milliseconds
+     */
+    int window() {
+        return (int) TimeUnit.NANOSECONDS.toMillis(reconnectNanos);
+    }
+
+    /**
+     * Count a connection opened by another participant
+     * @param participant The port it named in its session line
+     * @return True if it replaces a connection from the same participant, which isn't counted as failed
+     */
+    synchronized boolean opened(String participant) {
+        int connections = open.merge(participant, 1, Integer::sum);
+        ScheduledFuture<?> failure = lost.remove(participant);
+        if (failure != null) failure.cancel(false);
+        return connections > 1 || failure != null;
+    }
+
+    /**
+     * Count a connection from another participant that has been lost as a failure once the reconnect window has
+     * passed, unless the participant opens a new one first or already has
+     * @param participant The port it named in its session line
+     * @param failure Counts the participant as failed
+     */
+    synchronized void lost(String participant, Runnable failure) {
+        if (open.merge(participant, -1, Integer::sum) > 0 || closed) return;
+        lost.put(participant, timer.schedule(() -> {
+            synchronized (this) {
+                if (lost.remove(participant) == null) return;
+            }
+            Log.info("Participant: " + participant + " did not reconnect in time");
+            failure.run();
+        }, reconnectNanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Stop opening connections again and counting the failures of those lost
+     */
+    synchronized void close() {
+        closed = true;
+        for (ScheduledFuture<?> failure : lost.values()) failure.cancel(false);
+        lost.clear();
+    }
+
+    private static void closeQuietly(Closeable connection) {
+        try {
+            connection.close();
+        } catch (IOException e) {
+            Log.warn("Failed to close a connection");
+        }
+    }
+
+    /**
+     * A connection to a coordinator that has been resumed, and whether it agreed to the binary codec
+     */
+    static class Resumed {
+        final int coordinator;
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        final boolean binary;
+
+        Resumed(int coordinator, Socket socket, InputStream in, OutputStream out, boolean binary) {
+            this.coordinator = coordinator;
+            this.socket = socket;
+            this.in = in;
+            this.out = out;
+            this.binary = binary;
+        }
+    }
+
+    /**
+     * Opens a connection, throwing ConnectException if the other end refuses it
+     */
+    interface Dial<T> {
+        T open() throws IOException;
+    }
+
+    /**
+     * A connection to another participant that is opened again when a write to it fails, messages written before
+     * it is are lost with the connection and made up for by the replay once it has been
+     */
+    class PeerLink implements MessageWriter, Closeable {
+        private String participant;
+        private Dial<OutputStream> dial;
+        private Function<OutputStream, MessageWriter> codec;
+        private volatile OutputStream out;
+        private volatile MessageWriter writer;
+        private boolean reconnecting;
+
+        PeerLink(String participant, Dial<OutputStream> dial, Function<OutputStream, MessageWriter> codec) {
+            this.participant = participant;
+            this.dial = dial;
+            this.codec = codec;
+        }
+
+        /**
+         * Open a connection to the participant, naming this one so it can tell the connection replaces another
+         */
+        private void open() throws IOException {
+            OutputStream stream = dial.open();
+            stream.write(("SESSION " + self + "\n").getBytes(StandardCharsets.US_ASCII));
+            stream.flush();
+            OutputStream previous = out;
+            out = stream;
+            writer = codec.apply(new WatchedOutputStream(stream));
+            if (previous != null) closeQuietly(previous);
+        }
+
+        /**
+         * Open the connection again in the background, once however many writes fail on the broken one
+         */
+        private void broken(OutputStream stream) {
+            synchronized (this) {
+                if (reconnecting || stream != out || closed) return;
+                reconnecting = true;
+            }
+            Log.info("Connection to participant: " + participant + " has been reset, reconnecting");
+            reconnects.execute(() -> {
+                Boolean opened = reopen(() -> {
+                    open();
+                    return true;
+                });
+                synchronized (this) {
+                    reconnecting = false;
+                }
+                if (opened == null) {
+                    // The other participant has stopped, which its connection to this one shows
+                    Log.info("Failed to reconnect to participant: " + participant);
+                    return;
+                }
+                Metrics.counter("participant.reconnects").increment();
+                Log.info("Reconnected to participant: " + participant);
+                replay.accept(participant, this);
+            });
+        }
+
+        @Override
+        public void close() {
+            OutputStream stream = out;
+            if (stream != null) closeQuietly(stream);
+        }
+
+        @Override
+        public void rule(DecisionRule rule) {
+            writer.rule(rule);
+        }
+
+        @Override
+        public void star() {
+            writer.star();
+        }
+
+        @Override
+        public void tree(int fanout) {
+            writer.tree(fanout);
+        }
+
+        @Override
+        public void details(ParticipantDetails details) {
+            writer.details(details);
+        }
+
+        @Override
+        public void voteOptions(int instance, List<String> options) {
+            writer.voteOptions(instance, options);
+        }
+
+        @Override
+        public void votes(VoteBroadcast votes) {
+            writer.votes(votes);
+        }
+
+        @Override
+        public void outcome(int instance, String outcome, Collection<String> contributors) {
+            writer.outcome(instance, outcome, contributors);
+        }
+
+        @Override
+        public void restart(int instance, List<String> failures) {
+            writer.restart(instance, failures);
+        }
+
+        @Override
+        public void decided(int instance, String outcome) {
+            writer.decided(instance, outcome);
+        }
+
+        @Override
+        public void rejoined(String participant, boolean binary) {
+            writer.rejoined(participant, binary);
+        }
+
+        @Override
+        public void heartbeat() {
+            writer.heartbeat();
+        }
+
+        /**
+         * Passes writes on to a connection, reporting the first that fails as the connection having broken. The
+         * writers don't throw on a failed write, so it is noticed here.
+         */
+        private class WatchedOutputStream extends FilterOutputStream {
+            WatchedOutputStream(OutputStream out) {
+                super(out);
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                try {
+                    out.write(b);
+                } catch (IOException e) {
+                    broken(out);
+                    throw e;
+                }
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                try {
+                    out.write(b, off, len);
+                } catch (IOException e) {
+                    broken(out);
+                    throw e;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                try {
+                    out.flush();
+                } catch (IOException e) {
+                    broken(out);
+                    throw e;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Runs consensus votes in-process, with the coordinator on threads of the calling JVM, so a service can make many
+ * decisions without starting a process for each. Every decision proposed is voted on by the participants that have
+ * joined, alongside any others in progress, and its future completes once the decision has been made. The
+ * participants are ConsensusNodes, started along with the cluster or joining it from elsewhere. A replicated cluster
+ * also runs standby coordinators, the next of which takes over the decisions in progress if the leader fails.
+ *
+ * Closing the cluster waits for the decisions in progress to be made, then closes every connection, which stops the
+ * nodes, in place of the processes exiting.
+ */
+public class ConsensusCluster implements AutoCloseable {
+    // The coordinator leading, replaced by the next standby once it fails
+    private volatile Coordinator coordinator;
+    // Every coordinator started, the first leading and the others standbys of those before them, and their threads
+    private List<Coordinator> coordinators = new ArrayList<>();
+    private List<Thread> threads = new ArrayList<>();
+    private List<ConsensusNode> nodes = new ArrayList<>();
+
+    /**
+     * Start a coordinator for participants to join
+     * @param port The port to listen for participants on, 0 for any free port
+     * @param expectedParticipants How many participants join before decisions are voted on
+     * @param flags As for the coordinator's command line but for --decisions and --serve, with --engine=nio taken as
+     *              threads
+     */
+    public ConsensusCluster(int port, int expectedParticipants, String... flags) throws IOException {
+        coordinator = start(port, expectedParticipants, flags);
+    }
+
+    /**
+     * Start a coordinator on a thread of its own, once it is listening
+     */
+    private Coordinator start(int port, int expectedParticipants, String... flags) throws IOException {
+        Coordinator[] started = new Coordinator[1];
+        started[0] = new Coordinator(expectedParticipants, new ArrayList<>(), new Flags(flags),
+                () -> started[0].close());
+        Coordinator coordinator = started[0];
+        coordinator.embed();
+        Thread thread = new Thread(() -> coordinator.run(port), "coordinator-" + coordinators.size());
+        coordinators.add(coordinator);
+        threads.add(thread);
+        thread.start();
+        try {
+            coordinator.bound().join();
+        } catch (CompletionException e) {
+            throw new IOException("Failed to listen for participants", e.getCause());
+        }
+        return coordinator;
+    }
+
+    /**
+     * Start a coordinator and the participants to vote with, all in this process
+     * @param participants How many participants to start
+     * @param flags As for the coordinator's command line, also given to every participant
+     * @return The cluster, ready for decisions to be proposed to
+     */
+    public static ConsensusCluster local(int participants, String... flags) throws IOException {
+        ConsensusCluster cluster = new ConsensusCluster(0, participants, flags);
+        try {
+            for (int i = 0; i < participants; i++) cluster.nodes.add(new ConsensusNode(cluster.port(), flags));
+        } catch (IOException | RuntimeException e) {
+            cluster.abandon();
+            throw e;
+        }
+        return cluster;
+    }
+
+    /**
+     * Start a coordinator with standbys to take over from it, and the participants to vote with, all in this process.
+     * Each standby replicates the voting state of the first coordinator before it still running, and once none are
+     * takes over with the decisions in progress, whose futures complete as it makes them.
+     * @param standbys How many standby coordinators to start
+     * @param participants How many participants to start
+     * @param flags As for local, with --reconnect=1000 unless given, as the participants resume with a standby
+     *              within that long
+     * @return The cluster, ready for decisions to be proposed to
+     */
+    public static ConsensusCluster replicated(int standbys, int participants, String... flags) throws IOException {
+        if (!new Flags(flags).has("reconnect")) flags = with(flags, "--reconnect=1000");
+        ConsensusCluster cluster = new ConsensusCluster(0, participants, flags);
+        try {
+            StringBuilder leaders = new StringBuilder().append(cluster.port());
+            StringBuilder ports = new StringBuilder();
+            for (int i = 0; i < standbys; i++) {
+                Coordinator standby = cluster.start(0, participants, with(flags, "--follow=" + leaders));
+                standby.voting().thenRun(() -> cluster.takeOver(standby));
+                int port = standby.bound().join();
+                leaders.append(',').append(port);
+                ports.append(ports.length() == 0 ? "" : ",").append(port);
+            }
+            String[] nodeFlags = with(flags, "--standbys=" + ports);
+            for (int i = 0; i < participants; i++) cluster.nodes.add(new ConsensusNode(cluster.port(), nodeFlags));
+        } catch (IOException | RuntimeException e) {
+            cluster.abandon();
+            throw e;
+        }
+        return cluster;
+    }
+
+    private static String[] with(String[] flags, String flag) {
+        String[] copy = Arrays.copyOf(flags, flags.length + 1);
+        copy[flags.length] = flag;
+        return copy;
+    }
+
+    /**
+     * Lead with the standby that has taken over, handing it the decisions proposed to the last leader
+     */
+    private void takeOver(Coordinator next) {
+        Coordinator previous = coordinator;
+        coordinator = next;
+        previous.handOver(next);
+    }
+
+    /**
+     * @return The port participants join on
+     */
+    public int port() {
+        return coordinator.bound().join();
+    }
+
+    /**
+     * @return The nodes started with the cluster
+     */
+    public List<ConsensusNode> nodes() {
+        return nodes;
+    }
+
+    /**
+     * @return Completed once the expected participants have joined and been sent each other's details, exceptionally
+     *         if the cluster is closed first
+     */
+    public CompletableFuture<Void> ready() {
+        return coordinator.voting();
+    }
+
+    /**
+     * Propose a decision, voted on once the expected participants have joined. The future completes on a thread of
+     * its own, so what is chained to it can't hold up the vote.
+     * @param options The options to decide between, none containing '>'
+     * @return The outcome, completed exceptionally if every participant fails or the cluster is closed first
+     */
+    public CompletableFuture<Outcome> propose(List<String> options) {
+        ArrayList<String> copy = new ArrayList<>(options);
+        if (copy.isEmpty() || !Coordinator.rankable(copy)) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException(
+                    "Vote options must be given and can't contain " + DecisionRule.RANKING));
+        }
+        return coordinator.voting().thenCompose(started -> coordinator.propose(copy))
+                .thenApplyAsync(Function.identity());
+    }
+
+    /**
+     * Fail the leading coordinator as a crash of its process would, for the benchmarks
+     */
+    void crash() {
+        coordinator.close();
+    }
+
+    /**
+     * Wait for the decisions proposed to be made, then stop the coordinators and the nodes started with the cluster.
+     * If the thread is interrupted first everything is closed without waiting, the decisions in progress failing, and
+     * the thread left interrupted.
+     */
+    @Override
+    public void close() {
+        Coordinator leader = coordinator;
+        leader.shutdown();
+        try {
+            threads.get(coordinators.indexOf(leader)).join();
+            // Standbys stop once the leader has made every decision, and are closed in case one was still connecting
+            for (Coordinator standby : coordinators) standby.close();
+            for (Thread thread : threads) thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abandon();
+            return;
+        }
+        for (ConsensusNode node : nodes) node.stopped().join();
+    }
+
+    /**
+     * Close the nodes and coordinators started so far without waiting for any decisions, then wait for the
+     * coordinators' threads to end unless interrupted
+     */
+    void abandon() {
+        for (ConsensusNode node : nodes) node.close();
+        for (Coordinator coordinator : coordinators) coordinator.close();
+        try {
+            for (Thread thread : threads) thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
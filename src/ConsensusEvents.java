@@ -0,0 +1,101 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A step of the protocol recorded by JDK Flight Recorder when a recording is running, e.g. with
+ * -XX:StartFlightRecording. Each event begins before the coordinator's or participant's lock is taken, so its
+ * duration includes any wait for the lock, which as a ReentrantLock shows up in the recording as thread park
+ * events. When no recording is running committing an event only checks a flag, and the JIT can usually drop the
+ * allocation of the event as well.
+ */
+@Category("Consensus")
+@StackTrace(false)
+abstract class ConsensusEvent extends Event {
+    @Label("Participant")
+    @Description("The port of the participant the step is about, or of the participant taking it")
+    String participant;
+
+    @Label("Round")
+    @Description("The instance of the decision being voted on, 0 if the step isn't about one")
+    int round;
+
+    @Label("Payload Size")
+    @Description("How many participants, options or votes the step carries")
+    int payloadSize;
+
+    /**
+     * Commit the event if it is being recorded, timed from when it began
+     */
+    void commit(String participant, int round, int payloadSize) {
+        if (!shouldCommit()) return;
+        this.participant = participant;
+        this.round = round;
+        this.payloadSize = payloadSize;
+        commit();
+    }
+}
+
+@Name("consensus.Join")
+@Label("Join")
+@Category({"Consensus", "Coordinator"})
+class JoinEvent extends ConsensusEvent {
+}
+
+@Name("consensus.SendParticipants")
+@Label("Send Participants")
+@Category({"Consensus", "Coordinator"})
+class SendParticipantsEvent extends ConsensusEvent {
+}
+
+@Name("consensus.SendVoteOptions")
+@Label("Send Vote Options")
+@Category({"Consensus", "Coordinator"})
+class SendVoteOptionsEvent extends ConsensusEvent {
+}
+
+@Name("consensus.RegisterOutcome")
+@Label("Register Outcome")
+@Category({"Consensus", "Coordinator"})
+class RegisterOutcomeEvent extends ConsensusEvent {
+}
+
+@Name("consensus.RestartVote")
+@Label("Restart Vote")
+@Category({"Consensus", "Coordinator"})
+class RestartVoteEvent extends ConsensusEvent {
+}
+
+@Name("consensus.RegisterFailure")
+@Label("Register Failure")
+@Category({"Consensus", "Coordinator"})
+class RegisterFailureEvent extends ConsensusEvent {
+}
+
+@Name("consensus.CastVote")
+@Label("Cast Vote")
+@Category({"Consensus", "Participant"})
+class CastVoteEvent extends ConsensusEvent {
+}
+
+@Name("consensus.RegisterVote")
+@Label("Register Vote")
+@Category({"Consensus", "Participant"})
+class RegisterVoteEvent extends ConsensusEvent {
+}
+
+@Name("consensus.SendOutcome")
+@Label("Send Outcome")
+@Category({"Consensus", "Participant"})
+class SendOutcomeEvent extends ConsensusEvent {
+}
+
+@Name("consensus.Restarted")
+@Label("Restarted")
+@Description("A participant clearing its ballot when the coordinator restarts a vote")
+@Category({"Consensus", "Participant"})
+class RestartedEvent extends ConsensusEvent {
+}
@@ -0,0 +1,59 @@
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A participant run in-process, joining a ConsensusCluster's coordinator on this host and voting on every decision
+ * proposed to it until the coordinator closes the connection. Closing the node first is seen by the cluster as the
+ * participant failing.
+ */
+public class ConsensusNode implements AutoCloseable {
+    private Participant participant;
+    private CompletableFuture<Void> stopped = new CompletableFuture<>();
+
+    /**
+     * Start a participant and join a coordinator
+     * @param coordinatorPort The port the coordinator is listening on
+     * @param flags As for the participant's command line
+     */
+    public ConsensusNode(int coordinatorPort, String... flags) throws IOException {
+        participant = new Participant(0, 0, 0, new Flags(flags), () -> participant.close());
+        Thread thread = new Thread(() -> {
+            try {
+                participant.run(coordinatorPort);
+            } finally {
+                stopped.complete(null);
+            }
+        }, "participant-" + participant.port());
+        thread.start();
+    }
+
+    /**
+     * @return The port this node listens for the other participants on
+     */
+    public int port() {
+        return participant.port();
+    }
+
+    /**
+     * @return Completed once the node has stopped
+     */
+    public CompletableFuture<Void> stopped() {
+        return stopped;
+    }
+
+    /**
+     * Reset the node's connections as a fault in the network would, for the benchmarks
+     */
+    void reset() {
+        participant.resetConnections();
+    }
+
+    /**
+     * Leave the cluster, closing every connection
+     */
+    @Override
+    public void close() {
+        participant.close();
+        stopped.join();
+    }
+}
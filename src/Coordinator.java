@@ -2,200 +2,1234 @@ import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * The coordinator in a consensus vote
  */
 public class Coordinator {
+    private static final ScheduledExecutorService rejoinTimer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "rejoin timer");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private int expectedParticipants;
-    private Map<String, PrintWriter> participants = Collections.synchronizedMap(new HashMap<>(expectedParticipants));
-    private ArrayList<String> failedParticipants;
-    private ArrayList<String> outcomes;
+    private Map<String, MessageWriter> participants = Collections.synchronizedMap(new HashMap<>(expectedParticipants));
     private ArrayList<String> options;
+    private OptionTable optionTable;
+    // Whether participants asking for the binary codec are sent it, refused by --codec=text
+    private boolean binaryEnabled;
+    // Used to batch the messages written to each participant
+    private Flags flags;
+    // How many children each participant has when votes are passed along a tree by --topology=tree with
+    // --fanout=<k>, 0 to send them to everyone
+    private int fanout;
+    // Whether participants send their votes to the coordinator rather than to each other, by --topology=star
+    private boolean star;
+    // How the outcome is settled from the votes, sent to each participant on joining unless it is a majority
+    private DecisionRule rule;
+    // Suspects participants that stop sending heartbeats, null if they don't send them
+    private FailureDetector detector;
+    // Logs every change to the voting state to --wal=<path> so a restarted coordinator can resume, null to keep it in
+    // memory alone
+    private WriteAheadLog wal;
+    private LogWriter log;
+    // Streams the voting state to the standby coordinators following this one, null until one does
+    private Replicas replicas;
+    // The coordinators this one is a standby of by --follow=<port>,..., in the order they take over, empty if it
+    // leads from the start
+    private List<Integer> leaders = new ArrayList<>();
+    // When the leader this coordinator took over from was lost, 0 once no participant is left to resume
+    private long failedOver;
+    // The outcomes of the decisions in progress when this coordinator took over, by the id they were proposed with
+    private Map<Integer, CompletableFuture<Outcome>> takenOver = new ConcurrentHashMap<>();
+    // The coordinator that took over once this one failed, which decisions proposed since are passed on to
+    private Coordinator successor;
+    // The participants that had joined the coordinator whose state was recovered
+    private Set<String> recoveredParticipants = new HashSet<>();
+    // How long a participant whose connection is lost has to rejoin from its journal or resume a connection that was
+    // reset, the longer of --rejoin=<ms> and --reconnect=<ms>, before it counts as failed, 0 to count it straight
+    // away, and when each participant still to rejoin was lost
+    private int rejoinMillis;
+    private Map<String, Long> away = new HashMap<>();
+    // Closes the listening socket once no participant is left to rejoin
+    private Closeable listener;
+    private boolean voteStarted;
+    // When the coordinator started listening, which each participant's join time is measured from
+    private long listeningSince;
+
+    // The decisions in progress by instance, and how many to run at once over the options, set by --decisions=N
+    private Map<Integer, Decision> decisions = new HashMap<>();
+    private int nextInstance;
+    private int decisionCount;
+    private int decided;
+    private long started;
+    // Whether further decisions are read from standard input a line of options at a time, by --serve, and whether it
+    // has been closed
+    private boolean serving;
+    private boolean inputClosed;
+    // Whether decisions are proposed by the code the coordinator is embedded in, which closes the connections rather
+    // than the process exiting once it is done, the connections to close and whether they have been
+    private boolean embedded;
+    private Set<Closeable> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+    // The port the coordinator listens on once it is, and when the participants have all joined
+    private CompletableFuture<Integer> bound = new CompletableFuture<>();
+    private CompletableFuture<Void> voting = new CompletableFuture<>();
+    // Whether restarts are voted on as a new instance, a single mesh decision keeps instance 0 so its messages are
+    // untagged
+    private boolean renumber;
+
+    // Ends the process once every decision has been made, and picks the options removed on restarting, the same ones
+    // from one run to the next with --seed=<n>, both replaced when the coordinator is run in a simulation
+    private Runnable exit;
+    private Random random;
+
+    // Guards the voting state, a lock rather than synchronized so waiting virtual threads don't pin their carrier
+    private ReentrantLock lock = new ReentrantLock();
 
     /**
-     * Instantiate a coordinator
-     * @param port The port this coordinator should listen on for the participants to join
+     * Instantiate a coordinator, recovering its voting state from the write-ahead log if one is given
      * @param expectedParticipants The number of participants the coordinator is expecting to join
      * @param options The voting options to be given to the participants to decide upon
+     * @param flags The command line flags, each documented on the field or component it configures
+     * @param exit Called once every decision has been made, and not expected to return
      */
-    private Coordinator(int port, int expectedParticipants, ArrayList<String> options) {
-        Tokeniser tokeniser = new Tokeniser();
-        outcomes = new ArrayList<>();
-        failedParticipants = new ArrayList<>();
+    Coordinator(int expectedParticipants, ArrayList<String> options, Flags flags, Runnable exit) throws IOException {
+        Log.configure(flags);
+        this.exit = exit;
+        random = flags.has("seed") ? new Random(flags.getInt("seed", 0)) : new Random();
+        decisionCount = flags.getInt("decisions", 1);
+        serving = flags.has("serve");
         this.expectedParticipants = expectedParticipants;
         this.options = options;
+        optionTable = new OptionTable(options);
+        binaryEnabled = !flags.get("codec", "binary").equals("text");
+        this.flags = flags;
+        fanout = flags.get("topology", "mesh").equals("tree") ? Math.max(1, flags.getInt("fanout", 2)) : 0;
+        star = flags.get("topology", "mesh").equals("star");
+        rule = DecisionRule.create(flags);
+        detector = FailureDetector.create(flags, "coordinator");
+        rejoinMillis = Math.max(flags.getInt("rejoin", 0), flags.getInt("reconnect", 0));
+        // Votes passed along a tree are still being relayed for longer after a restart, and a participant that
+        // rejoins is sent the votes from before it
+        renumber = decisionCount > 1 || serving || fanout > 0 || rejoinMillis > 0;
+        for (String leader : flags.get("follow", "").split(",")) {
+            if (!leader.isEmpty()) leaders.add(Integer.parseInt(leader));
+        }
+        // A standby's replica of the voting state is kept in memory, the leader's log being the one to recover from
+        if (leaders.isEmpty()) wal = WriteAheadLog.create(flags, "wal", out -> snapshot(new LogWriter(out)));
+        if (wal != null) recover();
+    }
+
+    /**
+     * Accept participants and handle their messages until every decision has been made
+     * @param port The port this coordinator should listen on for the participants to join
+     */
+    void run(int port) {
+        Metrics.expose(flags, "coordinator-" + port);
+        Tokeniser tokeniser = new Tokeniser();
+        // A standby takes over on the threads engine, having held its port since it started
+        if (flags.get("engine", "threads").equals("nio") && !embedded && leaders.isEmpty()) {
+            Log.info("Waiting for " + expectedParticipants + " participant(s) to join");
+            new CoordinatorSelector(this, port, tokeniser).run();
+            return;
+        }
+
+        ListenerExecutor listeners = ListenerExecutor.create(flags);
+        try {
+            if (leaders.isEmpty()) Log.info("Waiting for " + expectedParticipants + " participant(s) to join");
+            ServerSocket listener = new ServerSocket(port, Transport.BACKLOG);
+            bound.complete(listener.getLocalPort());
+            listening(listener);
+            // Participants and standbys failing over to a standby connect to it straight away, and wait to be
+            // accepted until it takes over
+            if (!leaders.isEmpty() && !follow()) return;
+
+            // Accept participants until the last expected one has joined and the listener is closed, or while the
+            // vote goes on for participants restarted from their journals to rejoin on the same port
+            while (true) acceptParticipant(listener, tokeniser, listeners);
+        } catch (IOException e) {
+            bound.completeExceptionally(e);
+            if (!voteStarted || rejoins()) Log.info("Coordinator server socket closed");
+        }
+        listeners.awaitIdle();
+    }
+
+    /**
+     * Vote on the decisions proposed by the code the coordinator is embedded in until it is shut down, rather than
+     * a fixed number or those read from standard input, and close the connections once done rather than exiting.
+     * The threads engine is used in place of the NIO engine.
+     */
+    void embed() {
+        embedded = true;
+        serving = true;
+        decisionCount = 0;
+        renumber = true;
+    }
+
+    /**
+     * @return The port the coordinator listens on, once it is
+     */
+    CompletableFuture<Integer> bound() {
+        return bound;
+    }
+
+    /**
+     * @return Completed once every expected participant has joined and decisions are voted on
+     */
+    CompletableFuture<Void> voting() {
+        return voting;
+    }
+
+    /**
+     * Stop taking decisions, stopping once those in progress have been made
+     */
+    void shutdown() {
+        lock.lock();
+        try {
+            inputClosed = true;
+            if (decisions.isEmpty() || !voteStarted) finish();
+        } finally {
+            lock.unlock();
+        }
+        voting.completeExceptionally(new IllegalStateException("The coordinator has been shut down"));
+    }
 
+    /**
+     * Stop listening and close the connection to every participant, for a coordinator run in-process to stop
+     * without its process exiting. The participants stop as their connections close.
+     */
+    void close() {
+        closed = true;
+        if (detector != null) detector.close();
         try {
-            System.out.println("Waiting for " + expectedParticipants + " participant(s) to join");
-            ServerSocket listener = new ServerSocket(port);
+            if (listener != null) listener.close();
+            for (Closeable connection : connections) connection.close();
+        } catch (IOException e) {
+            Log.warn("Failed to close the connections to the participants");
+        }
+    }
 
-            // Accept participants until the expected number is reached
-            while (participants.size() < expectedParticipants) {
-                Socket participantSocket = listener.accept();
+    /**
+     * Accept a participant joining or rejoining, reading its join and then its messages on a listener thread so
+     * participants joining at once are registered in parallel
+     */
+    private void acceptParticipant(ServerSocket listener, Tokeniser tokeniser, ListenerExecutor listeners)
+            throws IOException {
+        Socket participantSocket = listener.accept();
+        participantSocket.setTcpNoDelay(true);
+        connections.add(participantSocket);
+        // Accepted as the coordinator was closed, after it closed the connections
+        if (closed) {
+            participantSocket.close();
+            return;
+        }
+        listeners.execute(() -> {
+            try {
+                listen(participantSocket, tokeniser);
+            } catch (IOException e) {
+                Log.info("Participant failed to join");
+                try {
+                    participantSocket.close();
+                } catch (IOException closeFailure) {
+                    Log.warn("Failed to close the connection to a participant");
+                }
+            }
+        });
+    }
 
-                BufferedReader in = new BufferedReader(new InputStreamReader(participantSocket.getInputStream()));
-                PrintWriter out = new PrintWriter(new OutputStreamWriter(participantSocket.getOutputStream()));
+    /**
+     * Read the join from a participant and, once it has joined or rejoined, listen for its messages
+     */
+    private void listen(Socket participantSocket, Tokeniser tokeniser) throws IOException {
+        InputStream in = new BufferedInputStream(participantSocket.getInputStream());
+        OutputStream out = participantSocket.getOutputStream();
 
-                // Read the join token
-                Token token = tokeniser.getToken(in.readLine());
+        // Read the join token, a line at a time as the rest of the connection may be binary
+        String message = BinaryCodec.readLine(in);
+        Token token = message == null ? null : tokeniser.getToken(message);
 
-                if (token instanceof JoinToken) {
-                    JoinToken joinToken = ((JoinToken) token);
-                    register(joinToken.port, out);
+        if (token instanceof FollowToken) {
+            String standby = ((FollowToken) token).standby;
+            replicate(standby, out);
+            try {
+                // Nothing is read from a standby, its connection is only watched for closing
+                while (in.read() != -1) ;
+            } catch (IOException e) {
+                Log.debug("Failed to read from standby coordinator: " + standby);
+            }
+            unreplicate(standby, out);
+            participantSocket.close();
+            return;
+        }
 
-                    // Start a new thread to listen for the outcome from this participant
-                    System.out.println("Listening for outcome from participant: " + joinToken.port);
-                    new Thread (new CoordinatorListener(this, joinToken.port, in, tokeniser)).start();
+        if (token instanceof JoinToken) {
+            JoinToken joinToken = ((JoinToken) token);
+            MessageWriter writer = accept(joinToken, out);
+            if (join(joinToken, writer)) {
+                CoordinatorListener outcomeListener;
+                if (writer instanceof BinaryWriter) {
+                    MessageReader reader = new BinaryReader(in, optionTable);
+                    outcomeListener = new CoordinatorListener(this, joinToken.port, writer, reader);
                 } else {
-                    System.out.println("Participant failed to join");
+                    TextParser parser = new TextParser(in, optionTable);
+                    outcomeListener = new CoordinatorListener(this, joinToken.port, writer, parser);
                 }
+
+                outcomeListener.heartbeats = watch(joinToken.port, () -> {
+                    try {
+                        participantSocket.close();
+                    } catch (IOException e) {
+                        Log.warn("Failed to close the connection to a suspected participant");
+                    }
+                });
+
+                Log.info("Listening for outcome from participant: " + joinToken.port);
+                startOnceJoined();
+                outcomeListener.run();
+                return;
             }
-            System.out.println("All participants have joined");
+        }
+        Log.info("Participant failed to join");
+        participantSocket.close();
+    }
 
-            // When all have joined send the lists of participants and vote options to the participants
-            sendParticipants();
-            sendVoteOptions();
-        } catch (IOException e) {
-            System.out.println("Coordinator server socket closed");
+    /**
+     * Start the vote if the last expected participant has just joined, no longer accepting participants unless they
+     * can rejoin
+     */
+    private void startOnceJoined() {
+        lock.lock();
+        try {
+            if (voteStarted || !allJoined()) return;
+            Log.info("All participants have joined");
+            if (!rejoins() && listener != null) {
+                try {
+                    listener.close();
+                } catch (IOException e) {
+                    Log.warn("Failed to close the coordinator server socket");
+                }
+            }
+            startVote();
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
-     * Send each participant the port numbers of the other participants so they can connect to each other directly
+     * @param listener Closes the socket participants join on, once there is no one left to rejoin
      */
-    private synchronized void sendParticipants() {
-        for (Map.Entry<String, PrintWriter> participant : participants.entrySet()) {
-            PrintWriter out = participant.getValue();
+    void listening(Closeable listener) {
+        this.listener = listener;
+        listeningSince = System.nanoTime();
+    }
 
-            // Compile a list of the other participants
-            StringBuilder participantList = new StringBuilder();
-            for (Map.Entry<String, PrintWriter> entry : participants.entrySet()) {
-                if (entry.getKey().equals(participant.getKey())) continue;
-                participantList.append(entry.getKey()).append(" ");
+    /**
+     * @return True while participants can still rejoin after the vote has started
+     */
+    boolean rejoins() {
+        return rejoinMillis > 0;
+    }
+
+    /**
+     * Choose the codec for a participant that has just joined, replying to agree to the binary codec if it was asked
+     * for and is enabled
+     * @param token The participant's join message
+     * @param out The output stream to the participant
+     * @return A writer for the chosen codec
+     */
+    MessageWriter accept(JoinToken token, OutputStream out) {
+        MessageWriter writer;
+        if (binaryEnabled && token.codec.equals("BINARY")) {
+            PrintWriter hello = new PrintWriter(new OutputStreamWriter(out));
+            hello.println(BinaryCodec.HELLO);
+            hello.flush();
+            writer = new BinaryWriter(LingerOutputStream.wrap(out, flags), optionTable);
+        } else {
+            if (token.resume) {
+                // A participant resuming waits to hear which codec to use either way
+                PrintWriter hello = new PrintWriter(new OutputStreamWriter(out));
+                hello.println("CODEC TEXT");
+                hello.flush();
             }
+            writer = new TextWriter(new PrintWriter(new OutputStreamWriter(LingerOutputStream.wrap(out, flags))));
+        }
+        // A participant resuming already knows how the outcome is settled and the topology
+        if (token.resume) return writer;
+        // Tell the participant straight away how the outcome is settled and that it won't be sent the details of the
+        // other participants
+        if (!rule.majority()) writer.rule(rule);
+        if (star) writer.star();
+        return writer;
+    }
+
+    /**
+     * Watch the heartbeats of a participant that has joined, if heartbeats are sent
+     * @param name The port of the participant
+     * @param close Closes the connection to the participant if it is suspected, which is then lost like any other
+     * @return The heartbeats to record each arrival in, or null if heartbeats aren't sent
+     */
+    Heartbeats watch(String name, Runnable close) {
+        if (detector == null) return null;
+        return detector.watch(() -> {
+            Log.info("Suspecting participant: " + name + " has failed");
+            close.run();
+        });
+    }
+
+    /**
+     * Stop watching the heartbeats of a participant whose connection has been lost
+     */
+    void unwatch(Heartbeats heartbeats) {
+        if (heartbeats != null) detector.unwatch(heartbeats);
+    }
 
-            // Send the participant list
-            System.out.println("Sending participant list to: " + participant.getKey() + " - " + participantList);
-            out.println("DETAILS " + participantList);
-            out.flush();
+    /**
+     * @return The option table binary connections encode and decode options with
+     */
+    OptionTable optionTable() {
+        return optionTable;
+    }
+
+    /**
+     * @return True once the expected number of participants have joined
+     */
+    boolean allJoined() {
+        return participants.size() >= expectedParticipants;
+    }
+
+    /**
+     * When all have joined send the lists of participants to the participants and start the first decisions
+     */
+    void startVote() {
+        lock.lock();
+        try {
+            voteStarted = true;
+            Metrics.histogram("coordinator.ready").since(listeningSince);
+            if (!star) sendParticipants();
+            started = System.nanoTime();
+            for (Decision decision : new ArrayList<>(decisions.values())) resume(decision);
+            for (int i = decided + decisions.size(); i < decisionCount; i++) propose(options);
+            // Every decision may have been made before the coordinator being recovered stopped
+            if (decisions.isEmpty() && !serving) finish();
+        } finally {
+            lock.unlock();
         }
+        voting.complete(null);
+        startServing();
     }
 
     /**
-     * Send each participant the vote options
+     * Read further decisions from standard input if asked to
      */
-    private synchronized void sendVoteOptions() {
-        for (Map.Entry<String, PrintWriter> participant : participants.entrySet()) {
-            PrintWriter out = participant.getValue();
+    private void startServing() {
+        if (serving && !embedded) {
+            Thread input = new Thread(this::serve);
+            // Don't keep the coordinator alive once the participants have all gone
+            input.setDaemon(true);
+            input.start();
+        }
+    }
 
-            // Compile a list of vote options
-            StringBuilder optionsList = new StringBuilder();
-            for (String option : options) {
-                optionsList.append(option).append(" ");
+    /**
+     * Start a new decision over the participants that have joined
+     * @param options The options to decide between
+     * @return The outcome once the decision has been made, completed exceptionally if there is no one left to make it
+     */
+    CompletableFuture<Outcome> propose(List<String> options) {
+        lock.lock();
+        try {
+            if (successor != null) return successor.propose(options);
+            if (embedded && (inputClosed || voters() == 0)) {
+                return CompletableFuture.failedFuture(new IllegalStateException(inputClosed
+                        ? "The coordinator has been shut down" : "All participants have failed"));
             }
+            Decision decision = new Decision(nextInstance++, new ArrayList<>(options));
+            decisions.put(decision.instance, decision);
+            if (log != null) {
+                log.proposed(decision.id, decision.instance, decision.options, decision.failedParticipants);
+                commit();
+            }
+            sendVoteOptions(decision);
+            return decision.outcome;
+        } finally {
+            lock.unlock();
+        }
+    }
 
+    /**
+     * Start a decision for each line of options read from standard input, until it is closed
+     */
+    private void serve() {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                ArrayList<String> lineOptions = new ArrayList<>(Arrays.asList(line.trim().split("\\s+")));
+                if (line.isBlank()) continue;
+                if (rankable(lineOptions)) propose(lineOptions);
+                else Log.warn("Vote options can't contain " + DecisionRule.RANKING + ": " + line);
+            }
+        } catch (IOException e) {
+            Log.warn("Failed to read decisions from standard input");
+        }
+        lock.lock();
+        try {
+            inputClosed = true;
+            if (decisions.isEmpty()) finish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Send each participant the port numbers of the other participants so they can connect to each other directly
+     */
+    private void sendParticipants() {
+        // Every participant is sent the same list, leaving itself out, so it is encoded once for all of them
+        ParticipantDetails details = new ParticipantDetails(participants.keySet(), binaryParticipants());
+        Log.info("Sending participant list to all participants - " + details);
+        for (Map.Entry<String, MessageWriter> participant : participants.entrySet()) {
+            SendParticipantsEvent event = new SendParticipantsEvent();
+            event.begin();
+            if (fanout > 0) participant.getValue().tree(fanout);
+            participant.getValue().details(details);
+            event.commit(participant.getKey(), 0, details.size() - 1);
+        }
+    }
+
+    /**
+     * @return The participants that other participants can open binary connections to
+     */
+    private Set<String> binaryParticipants() {
+        Set<String> binaryParticipants = new HashSet<>();
+        for (Map.Entry<String, MessageWriter> participant : participants.entrySet()) {
+            if (participant.getValue() instanceof BinaryWriter) binaryParticipants.add(participant.getKey());
+        }
+        return binaryParticipants;
+    }
+
+    /**
+     * @return How many participants are voting, counting those that have been lost but can still rejoin
+     */
+    private int voters() {
+        return participants.size() + away.size();
+    }
+
+    /**
+     * Send each participant the vote options for a decision
+     */
+    private void sendVoteOptions(Decision decision) {
+        decision.roundStarted = System.nanoTime();
+        for (Map.Entry<String, MessageWriter> participant : participants.entrySet()) {
             // Send the vote options
-            System.out.println("Sending vote options to: " + participant.getKey() + " - " + optionsList);
-            out.println("VOTE_OPTIONS " + optionsList);
-            out.flush();
+            SendVoteOptionsEvent event = new SendVoteOptionsEvent();
+            event.begin();
+            if (Log.isDebug()) {
+                Log.debug("Sending vote options to: " + participant.getKey() + " - " + decision.options
+                        + decision.label());
+            }
+            participant.getValue().voteOptions(decision.instance, decision.options);
+            event.commit(participant.getKey(), decision.instance, decision.options.size());
         }
     }
 
     /**
      * Register an outcome with the coordinator
+     * @param participant The port of the participant that sent the outcome
+     * @param instance The decision the outcome is for
      * @param outcome The vote the participant decided on based on all votes
      * @param contributors A list of participants who's votes were considered in deciding the outcome
      */
-    synchronized void registerOutcome(String outcome, ArrayList<String> contributors) {
-        outcomes.add(outcome);
-        System.out.println("Outcome received: " + outcome + " based on votes from: " + contributors);
-        if (outcomes.size() == participants.size()) {
-            printOutcome();
+    void registerOutcome(String participant, int instance, String outcome, ArrayList<String> contributors) {
+        RegisterOutcomeEvent event = new RegisterOutcomeEvent();
+        event.begin();
+        lock.lock();
+        try {
+            Decision decision = decisions.get(instance);
+            // Ignore outcomes that arrive after their decision has been made or for an instance since revoted, and
+            // outcomes sent again by a participant that has rejoined
+            if (decision == null || !decision.addOutcome(participant, outcome)) return;
+            Metrics.histogram("coordinator.outcome").since(decision.roundStarted);
+            if (log != null) log.outcome(instance, participant, outcome);
+            if (Log.isDebug()) {
+                Log.debug("Outcome received: " + outcome + " based on votes from: " + contributors
+                        + decision.label());
+            }
+            if (decision.outcomes.size() == voters()) {
+                printOutcome(decision);
+            }
+        } finally {
+            lock.unlock();
+            event.commit(participant, instance, contributors.size());
+        }
+    }
+
+    /**
+     * Register a vote sent straight to the coordinator in the star topology
+     * @param instance The decision the vote is for
+     * @param participant The port of the participant that voted
+     * @param vote The option voted for
+     */
+    void registerVote(int instance, String participant, String vote) {
+        lock.lock();
+        try {
+            Decision decision = decisions.get(instance);
+            // Ignore votes that arrive after their decision has been made or from participants that have failed
+            if (decision == null || !participants.containsKey(participant)) return;
+            // Numbering only the options offered, as a vote may name anything
+            if (!decision.offers(vote)) {
+                Log.warn("Ignoring a vote from participant: " + participant + " that is not for an option"
+                        + decision.label());
+                return;
+            }
+            if (!decision.addVote(participant, vote, optionTable.indexOf(DecisionRule.firstChoice(vote)))) return;
+            Metrics.histogram("coordinator.vote").since(decision.roundStarted);
+            if (log != null) log.vote(instance, participant, vote);
+            if (Log.isDebug()) Log.debug("Vote received: " + vote + " from: " + participant + decision.label());
+            tallyVotes(decision);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Decide as soon as one option has a majority of the participants' votes, as the rest can't change the outcome,
+     * or by the decision rule once every participant has voted, restarting voting if that settles nothing
+     */
+    private void tallyVotes(Decision decision) {
+        if (voters() == 0) return;
+        boolean complete = decision.votes.size() == voters();
+        int settled = decision.tally.majority(voters());
+        if (settled == -1 && complete && !rule.majority()) {
+            ArrayList<int[]> ballots = new ArrayList<>();
+            for (String vote : decision.votes.values()) ballots.add(DecisionRule.parse(vote, optionTable));
+            settled = rule.decide(decision.instance, ballots, decision.options, optionTable);
+        }
+        if (settled != -1) {
+            String outcome = optionTable.get(settled);
+            Log.info("FINAL OUTCOME" + decision.label() + ": " + outcome);
+            decided(decision, outcome);
+        } else if (complete) {
+            Log.info("No majority from the votes: " + decision.votes.values() + decision.label());
+            restartVote(decision, true);
         }
     }
 
     /**
      * Output the outcome or restart voting if it was a fail or not all participants returned the same outcome
      */
-    private synchronized void printOutcome() {
+    private void printOutcome(Decision decision) {
+        ArrayList<String> outcomes = decision.outcomes;
         // Check all participants agree
-        if (outcomes.stream().distinct().limit(2).count() <= 1) {
+        if (decision.outcomesAgree()) {
             // If they agree it was a fail restart the vote
             if (outcomes.get(0).equals("FAIL")) {
-                restartVote();
+                restartVote(decision, true);
             } else {
-                System.out.println("FINAL OUTCOME: " + outcomes.get(0));
-                System.exit(0);
+                Log.info("FINAL OUTCOME" + decision.label() + ": " + outcomes.get(0));
+                decided(decision, outcomes.get(0));
             }
         } else {
-            System.out.println("Outcomes received did not all match: " + outcomes);
+            Log.warn("Outcomes received did not all match: " + outcomes + decision.label());
         }
     }
 
+    /**
+     * Let the participants drop their state for a decision that has been made, and stop once every decision has
+     * been made
+     */
+    private void decided(Decision decision, String outcome) {
+        decisions.remove(decision.instance);
+        Metrics.histogram("coordinator.round").since(decision.roundStarted);
+        Metrics.histogram("coordinator.decision").since(decision.proposed);
+        Metrics.counter("coordinator.decisions").increment();
+        if (log != null) {
+            log.decided(decision.instance, outcome);
+            commit();
+        }
+        for (Map.Entry<String, MessageWriter> participant : participants.entrySet()) {
+            participant.getValue().decided(decision.instance, outcome);
+        }
+        decided++;
+        decision.outcome.complete(new Outcome(outcome, decision.rounds, System.nanoTime() - decision.proposed));
+        if (decisions.isEmpty() && (serving ? inputClosed : decided >= decisionCount)) finish();
+    }
+
+    /**
+     * Report the throughput when running more than one decision, then stop
+     */
+    private void finish() {
+        if (decided > 1) {
+            double seconds = (System.nanoTime() - started) / 1e9;
+            Log.info(String.format("All %d decisions made in %.3fs, %.1f decisions/s", decided, seconds,
+                    decided / seconds));
+        }
+        if (wal != null) wal.delete();
+        if (replicas != null) replicas.finish();
+        exit.run();
+    }
+
     /**
      * Restart the vote in the event of a fail outcome from all participants
+     * @param removeOption Whether to remove a random option, the options are kept when revoting after a failure
      */
-    private synchronized void restartVote() {
+    private void restartVote(Decision decision, boolean removeOption) {
+        RestartVoteEvent event = new RestartVoteEvent();
+        event.begin();
+        Metrics.histogram("coordinator.round").since(decision.roundStarted);
+        Metrics.counter("coordinator.restarts").increment();
+        decision.rounds++;
         // Discard the current outcomes
-        outcomes.clear();
+        decision.clear();
         // Remove a random option
-        options.remove(new Random().nextInt(options.size()));
-        System.out.println("Triggering voting restart");
+        String removed = removeOption ? decision.options.remove(random.nextInt(decision.options.size())) : null;
+        Log.info("Triggering voting restart" + decision.label());
 
-        StringBuilder failures = new StringBuilder();
-        for (String participant : failedParticipants) {
-            failures.append(participant).append(" ");
+        int previous = decision.instance;
+        if (renumber) {
+            decisions.remove(decision.instance);
+            decision.instance = nextInstance++;
+            decisions.put(decision.instance, decision);
+        }
+        if (log != null) {
+            log.restarted(previous, decision.instance, removed);
+            commit();
+        }
+        if (renumber) {
+            // Vote again as a new instance so votes for the last round still being relayed aren't counted
+            for (Map.Entry<String, MessageWriter> participant : participants.entrySet()) {
+                participant.getValue().decided(previous, "FAIL");
+            }
         }
 
         // Send the restart message to all participants
-        for (Map.Entry<String, PrintWriter> participant : participants.entrySet()) {
-            participant.getValue().println("RESTART " + failures);
+        for (Map.Entry<String, MessageWriter> participant : participants.entrySet()) {
+            participant.getValue().restart(decision.instance, decision.failedParticipants);
         }
-        failedParticipants.clear();
+        int failures = decision.failedParticipants.size();
+        decision.failedParticipants.clear();
         // Resend the vote options
-        sendVoteOptions();
+        sendVoteOptions(decision);
+        event.commit(null, previous, failures);
     }
 
     /**
      * Register a participant failure to remove them from the participants map so we don't wait for an outcome from them
+     * once they have had the time given to rejoin
      * @param name The port of the participant that has died
+     * @param writer The writer for the connection that was lost
      */
-    synchronized void registerFailure(String name) {
-        // Remove the failed participant so we don't wait for it to send an outcome
-        participants.remove(name);
-        failedParticipants.add(name);
-        // Check if you can output the final outcome in case a participant failed after all of the others had reported back
-        if (outcomes.size() == participants.size() && !outcomes.isEmpty()) printOutcome();
-        if (participants.isEmpty()) System.out.println("All participants have failed");
+    void registerFailure(String name, MessageWriter writer) {
+        RegisterFailureEvent event = new RegisterFailureEvent();
+        event.begin();
+        lock.lock();
+        try {
+            // A participant that has already rejoined on a new connection hasn't failed, and connections close
+            // along with a coordinator that has been stopped
+            if (closed || participants.get(name) != writer) return;
+            participants.remove(name);
+            if (rejoinMillis > 0) {
+                long left = System.nanoTime();
+                away.put(name, left);
+                Log.info("Waiting " + rejoinMillis + "ms for participant: " + name + " to rejoin");
+                rejoinTimer.schedule(() -> expire(name, left), rejoinMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+            failed(name);
+        } finally {
+            lock.unlock();
+            event.commit(name, 0, 0);
+        }
     }
 
     /**
-     * Register the participant by adding them to the participants map
+     * Count a participant that hasn't rejoined in time as failed
+     * @param left When it was lost, so a participant that has rejoined and been lost again since is given its time
      */
-    private void register(String name, PrintWriter out) {
-        if (participants.containsKey(name)) {
-            System.out.println("Participant failed to join as it's port is already in use");
-            return;
+    private void expire(String name, long left) {
+        lock.lock();
+        try {
+            if (!away.remove(name, left)) return;
+            Log.info("Participant: " + name + " did not rejoin in time");
+            failed(name);
+            failedOver();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Leave a failed participant out of every decision in progress
+     */
+    private void failed(String name) {
+        Metrics.counter("coordinator.failures").increment();
+        if (log != null) log.failed(name);
+        for (Decision decision : new ArrayList<>(decisions.values())) {
+            decision.failedParticipants.add(name);
+            if (star) {
+                // The coordinator has every vote so it can decide without the failed participant straight away
+                decision.removeVote(name, optionTable);
+                tallyVotes(decision);
+                continue;
+            }
+            // Check if you can output the final outcome in case a participant failed after all of the others had
+            // reported back
+            if (decision.outcomes.size() == voters() && !decision.outcomes.isEmpty()) {
+                printOutcome(decision);
+            } else if (renumber && decision.outcomes.isEmpty() && !participants.isEmpty()) {
+                // With other decisions in flight the failed participant may have voted on this one without its
+                // vote reaching anyone, so no participant can finish it and it is voted on again without them
+                restartVote(decision, false);
+            }
+        }
+        if (voters() == 0) {
+            Log.info("All participants have failed");
+            if (embedded) {
+                // No one is left to make the decisions proposed
+                for (Decision decision : decisions.values()) {
+                    decision.outcome.completeExceptionally(new IllegalStateException("All participants have failed"));
+                }
+                decisions.clear();
+                if (inputClosed) finish();
+            }
+            // There is no one left to rejoin, so stop accepting and let the coordinator exit as it does without
+            if (rejoins() && voteStarted && listener != null) {
+                try {
+                    listener.close();
+                } catch (IOException e) {
+                    Log.warn("Failed to close the coordinator server socket");
+                }
+            }
         }
+    }
+
+    /**
+     * Register or take back a participant, depending on whether it asked to rejoin
+     * @param token The participant's join message
+     * @param out The writer chosen for the participant by accept
+     * @return True if the participant was registered or taken back
+     */
+    boolean join(JoinToken token, MessageWriter out) {
+        JoinEvent event = new JoinEvent();
+        event.begin();
+        boolean joined = token.rejoin || token.resume ? rejoin(token.port, out, token.resume)
+                : register(token.port, out);
+        event.commit(token.port, 0, joined ? 1 : 0);
+        return joined;
+    }
+
+    /**
+     * Register the participant by adding them to the participants map
+     * @return True if the participant was registered
+     */
+    boolean register(String name, MessageWriter out) {
+        lock.lock();
         try {
+            if (participants.containsKey(name)) {
+                Log.info("Participant failed to join as it's port is already in use");
+                return false;
+            }
+            if (voteStarted) {
+                Log.info("Participant failed to join as the vote has started");
+                return false;
+            }
+            if (allJoined()) {
+                Log.info("Participant failed to join as the expected number have joined");
+                return false;
+            }
             participants.put(name, out);
+            if (log != null) log.joined(name);
+            Metrics.histogram("coordinator.join").since(listeningSince);
+            return true;
         } catch (NullPointerException e) {
-            System.out.println("Failed to register new participant");
+            Log.warn("Failed to register new participant");
+            return false;
+        } finally {
+            lock.unlock();
         }
     }
 
+    /**
+     * Take back a participant restarted from its journal, which rejoins on a new connection in place of the one it
+     * lost, and put it and the other participants back in touch. Its votes and outcomes come from its journal, so the
+     * decisions in progress carry on without it being counted as failed. A participant whose connection was reset
+     * resumes in the same way, but is still in touch with the others.
+     * @param resume Whether the participant is resuming a connection that was reset rather than restarting
+     * @return True if the participant was taken back, false if it has already been counted as failed
+     */
+    boolean rejoin(String name, MessageWriter out, boolean resume) {
+        lock.lock();
+        try {
+            Long left = away.remove(name);
+            if (!voteStarted) {
+                // Until the vote starts there is nothing to rejoin, a participant resuming just replaces its writer
+                if (!resume || !participants.containsKey(name)) return register(name, out);
+                participants.put(name, out);
+                return true;
+            }
+            if (left == null && !participants.containsKey(name)) {
+                Log.info("Participant failed to " + (resume ? "resume" : "rejoin")
+                        + " as it has already been counted as failed");
+                return false;
+            }
+            // A lost connection not yet noticed is ignored once its writer has been replaced
+            participants.put(name, out);
+            if (log != null) log.joined(name);
+            Metrics.counter(resume ? "coordinator.reconnects" : "coordinator.rejoins").increment();
+            Log.info("Participant: " + name + (resume ? " has reconnected" : " has rejoined")
+                    + (left == null ? "" : String.format(" after %.1fms", (System.nanoTime() - left) / 1e6)));
+
+            if (!star && !resume) {
+                // Including those still to rejoin, which it connects to once they have
+                ArrayList<String> all = new ArrayList<>(participants.keySet());
+                all.addAll(away.keySet());
+                ParticipantDetails details = new ParticipantDetails(all, binaryParticipants());
+                Log.info("Sending participant list to: " + name + " - " + details);
+                if (fanout > 0) out.tree(fanout);
+                out.details(details);
+                for (Map.Entry<String, MessageWriter> participant : participants.entrySet()) {
+                    if (!participant.getKey().equals(name)) {
+                        participant.getValue().rejoined(name, out instanceof BinaryWriter);
+                    }
+                }
+            }
+            for (Decision decision : decisions.values()) {
+                Log.debug("Sending vote options to: " + name + " - " + decision.options + decision.label());
+                out.voteOptions(decision.instance, decision.options);
+            }
+            failedOver();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rebuild the voting state from the write-ahead log left by a coordinator that stopped part way through
+     */
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        log = new LogWriter(this::record);
+        Recovery recovery = new Recovery();
+        int records = wal.replay((type, in) -> LogWriter.read(type, in, recovery));
+        if (records == 0) return;
+        Log.info(String.format("Recovered %d decided and %d pending decision(s) from %d records in %.1fms, "
+                        + "participants were %s", decided, decisions.size(), records,
+                (System.nanoTime() - start) / 1e6, recoveredParticipants));
+    }
+
+    /**
+     * Vote again on a decision recovered from the write-ahead log, over the options it had been narrowed down to.
+     * Its outcomes came from participants of the coordinator that stopped, which left when it did, so it is voted on
+     * as a new instance by the participants that have joined since.
+     */
+    private void resume(Decision decision) {
+        decision.clear();
+        decision.failedParticipants.clear();
+        int previous = decision.instance;
+        decisions.remove(previous);
+        decision.instance = nextInstance++;
+        decisions.put(decision.instance, decision);
+        log.restarted(previous, decision.instance, null);
+        commit();
+        Log.info("Resuming the vote over " + decision.options + decision.label());
+        sendVoteOptions(decision);
+    }
+
+    /**
+     * Append a record to the write-ahead log and stream it to the standbys, whichever there are
+     */
+    private void record(byte type, BinaryCodec.Encoder encoder) {
+        if (wal != null) wal.write(type, encoder);
+        if (replicas != null) replicas.write(type, encoder);
+    }
+
+    /**
+     * Make the records logged so far durable and hand them to the standbys, before anything depending on them is sent
+     */
+    private void commit() {
+        if (wal != null) wal.commit();
+        if (replicas != null) replicas.flush();
+    }
+
+    /**
+     * Stream the voting state to a standby coordinator, a snapshot of it followed by every change as it is logged
+     * @param standby The port of the standby
+     * @param out The stream to the standby
+     */
+    void replicate(String standby, OutputStream out) {
+        lock.lock();
+        try {
+            if (replicas == null) {
+                replicas = new Replicas();
+                if (log == null) log = new LogWriter(this::record);
+            }
+            replicas.add(standby, out, sink -> snapshot(new LogWriter(sink)));
+            Log.info("Replicating to standby coordinator: " + standby);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop streaming to a standby coordinator whose connection has closed
+     * @param out The stream it was replicated to
+     */
+    void unreplicate(String standby, OutputStream out) {
+        lock.lock();
+        try {
+            replicas.remove(standby, out);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replicate the voting state of the first of the coordinators ahead of this standby that is running, and take
+     * over as the leader once none are left
+     * @return True once this coordinator has taken over, false if the leader made every decision first
+     */
+    private boolean follow() {
+        long lost = Replicas.follow(leaders, bound.join(), flags, connections, () -> closed, () -> {
+            // Each stream starts from a snapshot of the whole voting state, replacing the last one followed
+            Recovery recovery = new Recovery();
+            return (type, payload) -> {
+                lock.lock();
+                try {
+                    LogWriter.read(type, payload, recovery);
+                } finally {
+                    lock.unlock();
+                }
+            };
+        });
+        if (lost == Replicas.FINISHED) {
+            exit.run();
+            return false;
+        }
+        if (closed) return false;
+        takeOver(lost);
+        return true;
+    }
+
+    /**
+     * Take over as the leader with the voting state replicated from the last, giving each of its participants the
+     * reconnect window to resume with this coordinator before it counts as failed. Decisions the last leader had every
+     * outcome or vote for are settled straight away.
+     * @param lost When the last leader was lost
+     */
+    private void takeOver(long lost) {
+        lock.lock();
+        try {
+            Log.info(String.format("Taking over as the leader %.1fms after the last was lost, with %d decision(s) in "
+                    + "progress over participants %s", (System.nanoTime() - lost) / 1e6, decisions.size(),
+                    recoveredParticipants));
+            Metrics.counter("coordinator.failovers").increment();
+            Metrics.histogram("coordinator.takeover").since(lost);
+            for (Decision decision : decisions.values()) takenOver.put(decision.id, decision.outcome);
+            if (recoveredParticipants.size() < expectedParticipants) {
+                // The last leader was lost before every participant had joined, so they join this one afresh
+                Log.info("Waiting for " + expectedParticipants + " participant(s) to join");
+                recoveredParticipants.clear();
+                return;
+            }
+            voteStarted = true;
+            long now = System.nanoTime();
+            started = now;
+            failedOver = lost;
+            for (String participant : recoveredParticipants) {
+                away.put(participant, now);
+                rejoinTimer.schedule(() -> expire(participant, now), rejoinMillis, TimeUnit.MILLISECONDS);
+            }
+            for (Decision decision : new ArrayList<>(decisions.values())) {
+                decision.roundStarted = now;
+                if (star) tallyVotes(decision);
+                else if (!decision.outcomes.isEmpty() && decision.outcomes.size() == voters()) printOutcome(decision);
+            }
+            // The last leader may have been lost before proposing them all, those it did being replicated first
+            for (int i = decided + decisions.size(); i < decisionCount; i++) propose(options);
+            // Every decision may have been made before the last leader was lost
+            if (decisions.isEmpty() && (serving ? inputClosed : decided >= decisionCount)) finish();
+        } finally {
+            lock.unlock();
+        }
+        voting.complete(null);
+        startServing();
+    }
+
+    /**
+     * Measure how long the participants took to fail over once none is left to resume with this coordinator
+     */
+    private void failedOver() {
+        if (failedOver == 0 || !away.isEmpty()) return;
+        Metrics.histogram("coordinator.failover").since(failedOver);
+        Log.info(String.format("Failed over %.1fms after the last leader was lost", (System.nanoTime() - failedOver)
+                / 1e6));
+        failedOver = 0;
+    }
+
+    /**
+     * Complete the outcomes of the decisions proposed to this coordinator, which has failed, from the coordinator that
+     * took over from it, for a cluster run in-process. A decision it never handed over is proposed to it again, as
+     * are those proposed to this coordinator from now on.
+     * @param next The coordinator that took over
+     */
+    void handOver(Coordinator next) {
+        List<Decision> pending = new ArrayList<>();
+        lock.lock();
+        try {
+            successor = next;
+            pending.addAll(decisions.values());
+        } finally {
+            lock.unlock();
+        }
+        for (Decision decision : pending) {
+            CompletableFuture<Outcome> outcome = next.takenOver.get(decision.id);
+            if (outcome == null) outcome = next.propose(decision.options);
+            outcome.whenComplete((taken, failure) -> {
+                if (failure == null) decision.outcome.complete(taken);
+                else decision.outcome.completeExceptionally(failure);
+            });
+        }
+    }
+
+    /**
+     * Write the whole voting state into a snapshot of the write-ahead log, called with the lock held as the log is
+     * only appended to under it
+     */
+    private void snapshot(LogHandler out) {
+        out.state(nextInstance, decided);
+        for (String participant : participants.keySet()) out.joined(participant);
+        // Those still to rejoin or resume are voting too
+        for (String participant : away.keySet()) out.joined(participant);
+        for (Decision decision : decisions.values()) {
+            out.proposed(decision.id, decision.instance, decision.options, decision.failedParticipants);
+            for (Map.Entry<String, String> outcome : decision.reported.entrySet()) {
+                out.outcome(decision.instance, outcome.getKey(), outcome.getValue());
+            }
+            for (Map.Entry<String, String> vote : decision.votes.entrySet()) {
+                out.vote(decision.instance, vote.getKey(), vote.getValue());
+            }
+        }
+    }
+
+    /**
+     * Applies the records replayed from the write-ahead log to the voting state, the same way the changes were made
+     * when they were logged
+     */
+    private class Recovery implements LogHandler {
+        @Override
+        public void state(int nextInstance, int decided) {
+            // A snapshot holds the whole state
+            recoveredParticipants.clear();
+            decisions.clear();
+            Coordinator.this.nextInstance = nextInstance;
+            Coordinator.this.decided = decided;
+        }
+
+        @Override
+        public void joined(String participant) {
+            recoveredParticipants.add(participant);
+        }
+
+        @Override
+        public void proposed(int id, int instance, List<String> options, List<String> failures) {
+            Decision decision = new Decision(id, new ArrayList<>(options));
+            decision.instance = instance;
+            decision.failedParticipants.addAll(failures);
+            decisions.put(instance, decision);
+            nextInstance = Math.max(nextInstance, instance + 1);
+        }
+
+        @Override
+        public void outcome(int instance, String participant, String outcome) {
+            Decision decision = decisions.get(instance);
+            if (decision != null) decision.addOutcome(participant, outcome);
+        }
+
+        @Override
+        public void vote(int instance, String participant, String vote) {
+            Decision decision = decisions.get(instance);
+            if (decision != null) {
+                decision.addVote(participant, vote, optionTable.indexOf(DecisionRule.firstChoice(vote)));
+            }
+        }
+
+        @Override
+        public void failed(String participant) {
+            recoveredParticipants.remove(participant);
+            for (Decision decision : decisions.values()) {
+                decision.failedParticipants.add(participant);
+                decision.removeVote(participant, optionTable);
+            }
+        }
+
+        @Override
+        public void restarted(int instance, int newInstance, String removed) {
+            Decision decision = decisions.remove(instance);
+            if (decision == null) return;
+            decision.clear();
+            if (removed != null) decision.options.remove(removed);
+            decision.failedParticipants.clear();
+            decision.instance = newInstance;
+            decisions.put(newInstance, decision);
+            nextInstance = Math.max(nextInstance, newInstance + 1);
+        }
+
+        @Override
+        public void decided(int instance, String outcome) {
+            if (decisions.remove(instance) != null) decided++;
+        }
+    }
+
+    /**
+     * @param options Vote options
+     * @return True if none of the options contain the character ranked votes are joined by
+     */
+    static boolean rankable(List<String> options) {
+        for (String option : options) {
+            if (option.indexOf(DecisionRule.RANKING) != -1) return false;
+        }
+        return true;
+    }
+
     /**
      * Start a coordinator
-     * @param args Coordinator port, Expected number of participants, Vote options
+     * @param args Coordinator port, Expected number of participants, Vote options, optionally
+     *             --engine=threads|nio|virtual, --codec=binary|text, --decisions=N, --serve, --linger=<ms>,
+     *             --batch=<messages>, --topology=mesh|tree|star, --fanout=<k>, --heartbeat=<ms>, --pause=<ms>,
+     *             --phi=<threshold>, --wal=<path>, --fsync=always|interval|never, --fsync-interval=<ms>,
+     *             --snapshot-every=<records>, --rejoin=<ms>, --reconnect=<ms>, --follow=<port>,...,
+     *             --rule=majority|plurality|runoff, --tie-break=order|hash, --seed=<n>, --log=debug|info|warn|off,
+     *             --metrics and --metrics-port=<port>
      */
     public static void main(String[] args) {
-        if (args.length > 2) {
-            ArrayList<String> options = new ArrayList<>(Arrays.asList(args).subList(2, args.length));
-            new Coordinator(Integer.parseInt(args[0]), Integer.parseInt(args[1]), options);
+        Flags flags = new Flags(args);
+        ArrayList<String> positional = flags.positional();
+        if (positional.size() > 2) {
+            ArrayList<String> options = new ArrayList<>(positional.subList(2, positional.size()));
+            if (!rankable(options)) {
+                Log.info("Vote options can't contain " + DecisionRule.RANKING);
+                return;
+            }
+            int expectedParticipants = Integer.parseInt(positional.get(1));
+            Coordinator coordinator;
+            try {
+                coordinator = new Coordinator(expectedParticipants, options, flags, () -> System.exit(0));
+            } catch (IOException e) {
+                Log.warn("Failed to open the write-ahead log");
+                return;
+            }
+            coordinator.run(Integer.parseInt(positional.get(0)));
         } else {
-            System.out.println("Not enough arguments provided");
+            Log.info("Not enough arguments provided");
         }
     }
 }
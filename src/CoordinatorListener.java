@@ -1,27 +1,47 @@
-import java.io.BufferedReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Map;
 
 /**
  * A listener thread to wait for the outcome from a participant
  */
-class CoordinatorListener implements Runnable {
+class CoordinatorListener implements Runnable, MessageHandler {
     private Coordinator coordinator;
     private String name;
-    private BufferedReader in;
-    private Tokeniser tokeniser;
+    // The writer registered for this connection, which a participant that rejoins replaces
+    private MessageWriter out;
+    private MessageReader in;
+    private TextParser parser;
+    private ArrayList<String> contributors = new ArrayList<>();
+    // The participant's heartbeats, null if they aren't sent
+    Heartbeats heartbeats;
 
     /**
-     * Instantiates a coordinator listener
+     * Instantiates a coordinator listener for a binary connection
      * @param coordinator A reference to the coordinator this listener belongs to
      * @param name The identifier of the socket we are listening for
-     * @param in A buffered reader for the socket
-     * @param tokeniser A reference to the tokeniser object for parsing the received messages
+     * @param out The writer registered for the socket
+     * @param in A message reader for the socket
      */
-    CoordinatorListener(Coordinator coordinator, String name, BufferedReader in, Tokeniser tokeniser) {
+    CoordinatorListener(Coordinator coordinator, String name, MessageWriter out, MessageReader in) {
         this.coordinator = coordinator;
         this.name = name;
+        this.out = out;
         this.in = in;
-        this.tokeniser = tokeniser;
+    }
+
+    /**
+     * Instantiates a coordinator listener for a text connection
+     * @param coordinator A reference to the coordinator this listener belongs to
+     * @param name The identifier of the socket we are listening for
+     * @param out The writer registered for the socket
+     * @param parser A text parser for the socket
+     */
+    CoordinatorListener(Coordinator coordinator, String name, MessageWriter out, TextParser parser) {
+        this.coordinator = coordinator;
+        this.name = name;
+        this.out = out;
+        this.parser = parser;
     }
 
     /**
@@ -29,21 +49,62 @@ class CoordinatorListener implements Runnable {
      */
     @Override
     public void run() {
-        String message;
         try {
-            while ((message = in.readLine()) != null) {
-                // Get outcome from participants
-                Token token = tokeniser.getToken(message);
-                if (token instanceof OutcomeToken) {
-                    OutcomeToken outcomeToken = ((OutcomeToken) token);
-                    coordinator.registerOutcome(outcomeToken.outcome, outcomeToken.participants);
+            if (parser != null) {
+                // Get outcome from participants through the handler methods
+                while (parser.next(this)) ;
+            } else {
+                Token token;
+                while ((token = in.read()) != null) {
+                    // Get outcome from participants
+                    if (token instanceof OutcomeToken) {
+                        OutcomeToken outcomeToken = ((OutcomeToken) token);
+                        coordinator.registerOutcome(name, outcomeToken.instance, outcomeToken.outcome,
+                                outcomeToken.participants);
+                    } else if (token instanceof VoteToken) {
+                        // Votes are only sent to the coordinator in the star topology
+                        VoteToken voteToken = ((VoteToken) token);
+                        for (Map.Entry<String, String> vote : voteToken.votes.entrySet()) {
+                            coordinator.registerVote(voteToken.instance, vote.getKey(), vote.getValue());
+                        }
+                    } else if (token instanceof HeartbeatToken) {
+                        heartbeat();
+                    }
                 }
             }
             throw new IOException();
         } catch (IOException e) {
             // Register the failure with the coordinator to remove the participant from the participants map
-            System.out.println("Connection to participant: " + name + " has been lost");
-            coordinator.registerFailure(name);
+            Log.info("Connection to participant: " + name + " has been lost");
+            coordinator.unwatch(heartbeats);
+            coordinator.registerFailure(name, out);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void votes(VoteBatch votes) {
+        for (int i = 0; i < votes.size; i++) {
+            String vote = votes.vote(i, coordinator.optionTable());
+            coordinator.registerVote(votes.instance, PortNames.of(votes.participants[i]), vote);
+        }
+    }
+
+    @Override
+    public void outcome(int instance, int option, int[] contributors, int count) {
+        if (option == NOT_AN_OPTION) {
+            // The coordinator numbers every option it sends, so no participant decides on one it doesn't know
+            Log.warn("Ignoring an outcome from participant: " + name + " that is not an option for decision "
+                    + instance);
+            return;
+        }
+        this.contributors.clear();
+        for (int i = 0; i < count; i++) this.contributors.add(PortNames.of(contributors[i]));
+        String outcome = option == -1 ? "FAIL" : coordinator.optionTable().get(option);
+        coordinator.registerOutcome(name, instance, outcome, this.contributors);
+    }
+
+    @Override
+    public void heartbeat() {
+        if (heartbeats != null) heartbeats.heartbeat();
+    }
+}
@@ -0,0 +1,176 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The changes to the coordinator's state, in the order they were made. Replaying them in a new coordinator rebuilds
+ * the state the last one had.
+ */
+interface LogHandler {
+
+    /**
+     * Only in snapshots, before the rest of the state
+     * @param nextInstance The instance the next decision will be given
+     * @param decided How many decisions had been made
+     */
+    void state(int nextInstance, int decided);
+
+    void joined(String participant);
+
+    /**
+     * A decision has started, or in a snapshot is in progress with the failures since its options were last sent
+     */
+    void proposed(int id, int instance, List<String> options, List<String> failures);
+
+    void outcome(int instance, String participant, String outcome);
+
+    void vote(int instance, String participant, String vote);
+
+    void failed(String participant);
+
+    /**
+     * @param removed The option removed from the decision, null if they were all kept
+     */
+    void restarted(int instance, int newInstance, String removed);
+
+    void decided(int instance, String outcome);
+}
+
+/**
+ * Encodes each state change as a record type and a payload of the binary codec's varints and strings
+ */
+class LogWriter implements LogHandler {
+    static final byte STATE = 1;
+    static final byte JOINED = 2;
+    static final byte PROPOSED = 3;
+    static final byte OUTCOME = 4;
+    static final byte VOTE = 5;
+    static final byte FAILED = 6;
+    static final byte RESTARTED = 7;
+    static final byte DECIDED = 8;
+
+    private RecordSink out;
+
+    /**
+     * Instantiates a log writer
+     * @param out Where the records are written, the log or a snapshot of it
+     */
+    LogWriter(RecordSink out) {
+        this.out = out;
+    }
+
+    @Override
+    public void state(int nextInstance, int decided) {
+        out.write(STATE, payload -> {
+            BinaryCodec.putVarint(payload, nextInstance);
+            BinaryCodec.putVarint(payload, decided);
+        });
+    }
+
+    @Override
+    public void joined(String participant) {
+        out.write(JOINED, payload -> BinaryCodec.putString(payload, participant));
+    }
+
+    @Override
+    public void proposed(int id, int instance, List<String> options, List<String> failures) {
+        out.write(PROPOSED, payload -> {
+            BinaryCodec.putVarint(payload, id);
+            BinaryCodec.putVarint(payload, instance);
+            putStrings(payload, options);
+            putStrings(payload, failures);
+        });
+    }
+
+    @Override
+    public void outcome(int instance, String participant, String outcome) {
+        out.write(OUTCOME, payload -> {
+            BinaryCodec.putVarint(payload, instance);
+            BinaryCodec.putString(payload, participant);
+            BinaryCodec.putString(payload, outcome);
+        });
+    }
+
+    @Override
+    public void vote(int instance, String participant, String vote) {
+        out.write(VOTE, payload -> {
+            BinaryCodec.putVarint(payload, instance);
+            BinaryCodec.putString(payload, participant);
+            BinaryCodec.putString(payload, vote);
+        });
+    }
+
+    @Override
+    public void failed(String participant) {
+        out.write(FAILED, payload -> BinaryCodec.putString(payload, participant));
+    }
+
+    @Override
+    public void restarted(int instance, int newInstance, String removed) {
+        out.write(RESTARTED, payload -> {
+            BinaryCodec.putVarint(payload, instance);
+            BinaryCodec.putVarint(payload, newInstance);
+            payload.put((byte) (removed == null ? 0 : 1));
+            if (removed != null) BinaryCodec.putString(payload, removed);
+        });
+    }
+
+    @Override
+    public void decided(int instance, String outcome) {
+        out.write(DECIDED, payload -> {
+            BinaryCodec.putVarint(payload, instance);
+            BinaryCodec.putString(payload, outcome);
+        });
+    }
+
+    /**
+     * Pass a record to a handler
+     */
+    static void read(byte type, ByteBuffer in, LogHandler handler) {
+        switch (type) {
+            case STATE:
+                handler.state(BinaryCodec.getVarint(in), BinaryCodec.getVarint(in));
+                break;
+            case JOINED:
+                handler.joined(BinaryCodec.getString(in));
+                break;
+            case PROPOSED:
+                handler.proposed(BinaryCodec.getVarint(in), BinaryCodec.getVarint(in), getStrings(in),
+                        getStrings(in));
+                break;
+            case OUTCOME:
+                handler.outcome(BinaryCodec.getVarint(in), BinaryCodec.getString(in), BinaryCodec.getString(in));
+                break;
+            case VOTE:
+                handler.vote(BinaryCodec.getVarint(in), BinaryCodec.getString(in), BinaryCodec.getString(in));
+                break;
+            case FAILED:
+                handler.failed(BinaryCodec.getString(in));
+                break;
+            case RESTARTED: {
+                int instance = BinaryCodec.getVarint(in);
+                int newInstance = BinaryCodec.getVarint(in);
+                String removed = in.get() == 1 ? BinaryCodec.getString(in) : null;
+                handler.restarted(instance, newInstance, removed);
+                break;
+            }
+            case DECIDED:
+                handler.decided(BinaryCodec.getVarint(in), BinaryCodec.getString(in));
+                break;
+            default:
+                Log.warn("Unknown write-ahead log record");
+        }
+    }
+
+    private static void putStrings(ByteBuffer out, List<String> values) {
+        BinaryCodec.putVarint(out, values.size());
+        for (String value : values) BinaryCodec.putString(out, value);
+    }
+
+    private static ArrayList<String> getStrings(ByteBuffer in) {
+        int count = BinaryCodec.getVarint(in);
+        ArrayList<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) values.add(BinaryCodec.getString(in));
+        return values;
+    }
+}
@@ -0,0 +1,280 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single threaded selector loop that accepts participants and listens for their outcomes on non-blocking
+ * channels, in place of a coordinator listener thread per participant
+ */
+class CoordinatorSelector implements Runnable {
+    private Coordinator coordinator;
+    private int port;
+    private Tokeniser tokeniser;
+    private int open;
+    private Selector selector;
+    // Connections suspected by the failure detector, closed on the selector thread as the channels are registered
+    // with it
+    private Queue<SelectionKey> suspected = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Instantiates a coordinator selector
+     * @param coordinator A reference to the coordinator this selector belongs to
+     * @param port The port to accept participants on
+     * @param tokeniser A reference to the tokeniser object for parsing the received messages
+     */
+    CoordinatorSelector(Coordinator coordinator, int port, Tokeniser tokeniser) {
+        this.coordinator = coordinator;
+        this.port = port;
+        this.tokeniser = tokeniser;
+    }
+
+    /**
+     * The state kept for each participant channel
+     */
+    private static class Connection {
+        // The participant's port, null until it has sent its join message
+        String name;
+        MessageWriter out;
+        // Switched on by the join handshake, after which the channel carries binary frames instead of lines
+        boolean binary;
+        // The stream written to the channel through, the voting state being replicated to it if the channel is from a
+        // standby coordinator
+        ChannelOutputStream stream;
+        boolean standby;
+        ByteBuffer in = ByteBuffer.allocate(256);
+        // The participant's heartbeats, null if they aren't sent
+        Heartbeats heartbeats;
+    }
+
+    /**
+     * Accept participants until the expected number have joined, or for as long as any are left when participants
+     * can rejoin, then pass their outcomes to the coordinator until
+     * every connection has closed
+     */
+    @Override
+    public void run() {
+        try (Selector selector = Selector.open(); ServerSocketChannel listener = ServerSocketChannel.open()) {
+            this.selector = selector;
+            listener.bind(new InetSocketAddress(port), Transport.BACKLOG);
+            listener.configureBlocking(false);
+            SelectionKey acceptKey = listener.register(selector, SelectionKey.OP_ACCEPT);
+            // Closed through its key, as the listener itself is closed once the loop ends
+            coordinator.listening(() -> {
+                acceptKey.channel().close();
+                selector.wakeup();
+            });
+            boolean started = false;
+
+            while (acceptKey.isValid() || open > 0) {
+                selector.select();
+                SelectionKey suspect;
+                while ((suspect = suspected.poll()) != null) {
+                    if (suspect.isValid()) lost(suspect, (Connection) suspect.attachment());
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) continue;
+
+                    if (key.isAcceptable()) {
+                        accept(listener, selector);
+                        continue;
+                    }
+                    if (key.isWritable()) write(key);
+                    if (key.isValid() && key.isReadable()) read(key);
+                }
+                // Stop accepting once everyone has joined, as the blocking accept loop does, unless participants can
+                // rejoin
+                if (!started && coordinator.allJoined()) {
+                    started = true;
+                    if (!coordinator.rejoins()) acceptKey.cancel();
+                    Log.info("All participants have joined");
+                    coordinator.startVote();
+                }
+            }
+        } catch (IOException e) {
+            Log.info("Coordinator server socket closed");
+        }
+    }
+
+    /**
+     * Accept a new participant connection and register it for reads, and for writes only while bytes are queued
+     */
+    private void accept(ServerSocketChannel listener, Selector selector) throws IOException {
+        SocketChannel channel = listener.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        open++;
+
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        Connection connection = new Connection();
+        connection.stream = new ChannelOutputStream(key);
+        key.attach(connection);
+    }
+
+    /**
+     * Send the bytes queued for a channel that has room for them again
+     */
+    private void write(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            connection.stream.drain();
+        } catch (IOException e) {
+            lost(key, connection);
+        }
+    }
+
+    /**
+     * Read whatever is available on a channel and handle each complete message
+     */
+    private void read(SelectionKey key) {
+        SocketChannel channel = (SocketChannel) key.channel();
+        Connection connection = (Connection) key.attachment();
+
+        int read;
+        try {
+            if (!connection.in.hasRemaining()) connection.in = grow(connection.in);
+            read = channel.read(connection.in);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if (read == -1) {
+            lost(key, connection);
+            return;
+        }
+
+        // Handle each complete message, leaving any partial message in the buffer
+        ByteBuffer in = connection.in;
+        in.flip();
+        while (in.hasRemaining()) {
+            Token token;
+            if (connection.binary) {
+                try {
+                    token = BinaryCodec.decode(in, coordinator.optionTable());
+                } catch (IOException e) {
+                    // Out of step with the participant, so the connection is closed rather than read further
+                    lost(key, connection);
+                    return;
+                }
+            } else {
+                String message = nextLine(in);
+                token = message == null ? null : tokeniser.getToken(message);
+                if (message != null && token == null) continue;
+            }
+            if (token == null) break;
+            if (!handle(key, connection, token)) return;
+        }
+        in.compact();
+    }
+
+    /**
+     * Take the next complete line from a buffer
+     * @return The line without its terminator, or null if the buffer doesn't hold a complete line
+     */
+    static String nextLine(ByteBuffer in) {
+        int start = in.position();
+        for (int i = start; i < in.limit(); i++) {
+            if (in.get(i) != '\n') continue;
+            int end = i > start && in.get(i - 1) == '\r' ? i - 1 : i;
+            in.position(i + 1);
+            return new String(in.array(), start, end - start, Charset.defaultCharset());
+        }
+        return null;
+    }
+
+    /**
+     * Handle a single message from a participant
+     * @return False if the connection has been closed
+     */
+    private boolean handle(SelectionKey key, Connection connection, Token token) {
+        if (connection.name == null) {
+            if (token instanceof FollowToken) {
+                // Nothing more is read from a standby, its channel is only watched for closing
+                connection.name = ((FollowToken) token).standby;
+                connection.standby = true;
+                coordinator.replicate(connection.name, connection.stream);
+                return true;
+            }
+            // The first message must be the join token
+            if (token instanceof JoinToken) {
+                JoinToken joinToken = ((JoinToken) token);
+                MessageWriter out = coordinator.accept(joinToken, connection.stream);
+                if (coordinator.join(joinToken, out)) {
+                    connection.name = joinToken.port;
+                    connection.out = out;
+                    connection.binary = out instanceof BinaryWriter;
+                    connection.heartbeats = coordinator.watch(connection.name, () -> {
+                        suspected.add(key);
+                        selector.wakeup();
+                    });
+                    Log.info("Listening for outcome from participant: " + connection.name);
+                    return true;
+                }
+            }
+            Log.info("Participant failed to join");
+            close(key);
+            return false;
+        }
+
+        if (token instanceof OutcomeToken) {
+            OutcomeToken outcomeToken = ((OutcomeToken) token);
+            coordinator.registerOutcome(connection.name, outcomeToken.instance, outcomeToken.outcome,
+                    outcomeToken.participants);
+        } else if (token instanceof VoteToken) {
+            // Votes are only sent to the coordinator in the star topology
+            VoteToken voteToken = ((VoteToken) token);
+            for (Map.Entry<String, String> vote : voteToken.votes.entrySet()) {
+                coordinator.registerVote(voteToken.instance, vote.getKey(), vote.getValue());
+            }
+        } else if (token instanceof HeartbeatToken) {
+            if (connection.heartbeats != null) connection.heartbeats.heartbeat();
+        }
+        return true;
+    }
+
+    /**
+     * Register the failure of a participant whose connection has closed
+     */
+    private void lost(SelectionKey key, Connection connection) {
+        close(key);
+        if (connection.standby) {
+            coordinator.unreplicate(connection.name, connection.stream);
+        } else if (connection.name != null) {
+            Log.info("Connection to participant: " + connection.name + " has been lost");
+            coordinator.unwatch(connection.heartbeats);
+            coordinator.registerFailure(connection.name, connection.out);
+        }
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        open--;
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            Log.warn("Failed to close participant channel");
+        }
+    }
+
+    /**
+     * @return A buffer twice the size of the one given, holding the same contents
+     */
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
@@ -0,0 +1,31 @@
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the bytes of protocol messages written by this process, printed on exit for the topology benchmark
+ */
+class CountingOutputStream extends FilterOutputStream {
+    private static final LongAdder written = new LongAdder();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> System.out.println("Bytes written: " + written.sum())));
+    }
+
+    CountingOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        written.increment();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        written.add(len);
+    }
+}
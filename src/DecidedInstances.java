@@ -0,0 +1,56 @@
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The decisions a participant has been told are made, kept as a low-water mark with every instance below it decided
+ * and a set of those decided above it. The coordinator numbers decisions in increasing order, so the mark follows
+ * them up and the set stays small however many decisions a long-running participant sees. Changed with the
+ * participant's lock held, read without it.
+ */
+class DecidedInstances {
+    private static final int PRUNE_AT = 64;
+
+    private volatile int below;
+    private Set<Integer> above = ConcurrentHashMap.newKeySet();
+    // How large the set may grow before the instances below the lowest still being voted on are pruned from it
+    private int pruneAt = PRUNE_AT;
+
+    /**
+     * @return True if the decision has been made
+     */
+    boolean contains(int instance) {
+        return instance < below || above.contains(instance);
+    }
+
+    /**
+     * Mark a decision made. A gap left by decisions made while the participant was away is closed once the set
+     * grows, by raising the mark to the lowest decision still being voted on: the coordinator has sent the options
+     * of every decision in progress before saying this one is made, so each has a ballot, and later decisions are
+     * numbered above all of them.
+     * @param instance The decision made
+     * @param live The decisions still being voted on
+     */
+    void add(int instance, Collection<Integer> live) {
+        if (instance < below) return;
+        above.add(instance);
+        // The mark is raised before an instance leaves the set, so it is never seen as not decided
+        for (int mark = below; above.contains(mark); mark++) {
+            below = mark + 1;
+            above.remove(mark);
+        }
+        if (above.size() < pruneAt) return;
+
+        int lowest = Integer.MAX_VALUE;
+        for (int ballot : live) lowest = Math.min(lowest, ballot);
+        if (lowest == Integer.MAX_VALUE) {
+            // Nothing is being voted on, so every decision numbered so far has been made
+            lowest = below;
+            for (int decided : above) lowest = Math.max(lowest, decided + 1);
+        }
+        if (lowest > below) below = lowest;
+        int mark = below;
+        above.removeIf(decided -> decided < mark);
+        pruneAt = Math.max(PRUNE_AT, above.size() * 2);
+    }
+}
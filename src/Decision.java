@@ -0,0 +1,111 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The coordinator's state for one decision, many of which can run at once over the same participants
+ */
+class Decision {
+    // Fixed for the life of the decision, the instance changes if it is voted on again alongside other decisions
+    int id;
+    int instance;
+    ArrayList<String> options;
+    ArrayList<String> outcomes = new ArrayList<>();
+    // The outcome from each participant, so one resent by a participant that has rejoined is only counted once
+    Map<String, String> reported = new HashMap<>();
+    // How many of the outcomes match the first
+    private int agreeing;
+    // Participants that have failed since the vote options were last sent for this decision
+    ArrayList<String> failedParticipants = new ArrayList<>();
+
+    // The votes sent straight to the coordinator in the star topology, counted by option index as they arrive
+    HashMap<String, String> votes = new HashMap<>();
+    Tally tally = new Tally();
+
+    // When the decision was proposed or recovered and when its vote options were last sent, from System.nanoTime()
+    long proposed = System.nanoTime();
+    long roundStarted;
+    // How many rounds it has been voted on, and its outcome for whoever proposed it
+    int rounds = 1;
+    CompletableFuture<Outcome> outcome = new CompletableFuture<>();
+
+    /**
+     * Instantiates a decision
+     * @param instance The identifier carried by every message about this decision
+     * @param options The options to decide between, removed from as restarts eliminate them
+     */
+    Decision(int instance, ArrayList<String> options) {
+        this.id = instance;
+        this.instance = instance;
+        this.options = options;
+    }
+
+    /**
+     * Record an outcome from a participant, counting those that agree with the first as they arrive
+     * @return False if the participant has already reported an outcome
+     */
+    boolean addOutcome(String participant, String outcome) {
+        if (reported.putIfAbsent(participant, outcome) != null) return false;
+        outcomes.add(outcome);
+        if (outcomes.get(0).equals(outcome)) agreeing++;
+        return true;
+    }
+
+    /**
+     * @return True if every outcome received so far is the same
+     */
+    boolean outcomesAgree() {
+        return agreeing == outcomes.size();
+    }
+
+    /**
+     * @param vote A vote as sent, an option or a ranking
+     * @return True if every option in the vote is one being decided between
+     */
+    boolean offers(String vote) {
+        for (String option : vote.split(String.valueOf(DecisionRule.RANKING))) {
+            if (!options.contains(option)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Count a participant's vote
+     * @param vote The vote as it was sent, a ranking under the runoff rule
+     * @param option The index of the vote, or its first choice, in the coordinator's option table
+     * @return False if the participant has already voted
+     */
+    boolean addVote(String participant, String vote, int option) {
+        if (votes.putIfAbsent(participant, vote) != null) return false;
+        tally.add(option);
+        return true;
+    }
+
+    /**
+     * Stop counting the vote of a participant that has failed
+     * @param table The coordinator's option table
+     */
+    void removeVote(String participant, OptionTable table) {
+        String vote = votes.remove(participant);
+        if (vote != null) tally.remove(table.indexOf(DecisionRule.firstChoice(vote)));
+    }
+
+    /**
+     * Discard the outcomes and votes received before a restart
+     */
+    void clear() {
+        outcomes.clear();
+        reported.clear();
+        agreeing = 0;
+        votes.clear();
+        tally.clear();
+    }
+
+    /**
+     * @return A label to add to log messages, empty for the first decision so a single vote logs as it always has
+     */
+    String label() {
+        return id == 0 ? "" : " [decision " + id + "]";
+    }
+}
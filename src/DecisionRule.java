@@ -0,0 +1,197 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * How the outcome of a decision is settled from its votes, chosen by the coordinator and sent to every participant on
+ * joining so they all settle it the same way. The majority rule fails a round without a majority, and each failure
+ * costs another round over one option fewer. The plurality and runoff rules settle any round with votes in it,
+ * breaking ties the same way everywhere, by the order of the coordinator's options or by a hash of the option and
+ * the decision.
+ *
+ * Under the runoff rule each participant ranks every option in the one vote it sends, as its options in order of
+ * preference joined by '>'. The options with the fewest first preferences are then eliminated, as many at once as
+ * can't between them overtake the next, until one holds a majority of the rankings left.
+ */
+class DecisionRule {
+    static final String MAJORITY = "majority";
+    static final String PLURALITY = "plurality";
+    static final String RUNOFF = "runoff";
+    static final String ORDER = "order";
+    static final String HASH = "hash";
+    // Joins the options of a ranked vote, so it can't appear in an option
+    static final char RANKING = '>';
+
+    final String name;
+    final String tieBreak;
+
+    /**
+     * Instantiates a decision rule, anything not recognised being taken as the default
+     * @param name majority, plurality or runoff
+     * @param tieBreak order or hash
+     */
+    DecisionRule(String name, String tieBreak) {
+        this.name = name.equals(PLURALITY) || name.equals(RUNOFF) ? name : MAJORITY;
+        this.tieBreak = tieBreak.equals(HASH) ? HASH : ORDER;
+    }
+
+    /**
+     * @return The rule given by --rule=majority|plurality|runoff and --tie-break=order|hash, majority by default
+     */
+    static DecisionRule create(Flags flags) {
+        return new DecisionRule(flags.get("rule", MAJORITY), flags.get("tie-break", ORDER));
+    }
+
+    /**
+     * @return True for the majority rule, which the participants follow without being told
+     */
+    boolean majority() {
+        return name.equals(MAJORITY);
+    }
+
+    /**
+     * @return True if each participant votes with a ranking of every option
+     */
+    boolean ranked() {
+        return name.equals(RUNOFF);
+    }
+
+    /**
+     * @param vote A vote as sent, an option or a ranking
+     * @return True if the vote is a ranking
+     */
+    static boolean isRanking(String vote) {
+        return vote.indexOf(RANKING) != -1;
+    }
+
+    /**
+     * @param vote A vote as sent, an option or a ranking
+     * @return The option voted for, or ranked first
+     */
+    static String firstChoice(String vote) {
+        int end = vote.indexOf(RANKING);
+        return end == -1 ? vote : vote.substring(0, end);
+    }
+
+    /**
+     * @param vote A vote as sent, an option or a ranking
+     * @param table The option table to number the options with
+     * @return The indexes of the options in order of preference, leaving out any a table following the coordinator's
+     *         numbering hasn't been sent
+     */
+    static int[] parse(String vote, OptionTable table) {
+        String[] options = vote.split(String.valueOf(RANKING));
+        int[] ranking = new int[options.length];
+        int count = 0;
+        for (String option : options) {
+            int index = table.indexOf(option);
+            if (index != -1) ranking[count++] = index;
+        }
+        return count == ranking.length ? ranking : Arrays.copyOf(ranking, count);
+    }
+
+    /**
+     * @param options The options being voted on
+     * @return A ranking of the options in the order given
+     */
+    static String rank(List<String> options) {
+        return String.join(String.valueOf(RANKING), options);
+    }
+
+    /**
+     * Settle a decision from its votes
+     * @param instance The decision, which the hash tie-break is taken over
+     * @param ballots Each vote as option indexes in order of preference, a single option unless it is ranked
+     * @param options The options being voted on in the coordinator's order, which the order tie-break follows
+     * @param table The option table the indexes are from
+     * @return The index of the option decided on, or -1 for FAIL
+     */
+    int decide(int instance, List<int[]> ballots, List<String> options, OptionTable table) {
+        if (ballots.isEmpty()) return -1;
+        // Taken once, as listeners may number more options while this runs
+        int size = table.size();
+        long[] precedence = precedence(instance, options, table, size);
+        boolean[] eliminated = new boolean[size];
+        while (true) {
+            // Count each ballot for its most preferred option still standing
+            int[] counts = new int[size];
+            boolean[] standing = new boolean[size];
+            int total = 0;
+            for (int[] ballot : ballots) {
+                int first = -1;
+                for (int option : ballot) {
+                    // An option numbered since the size was taken, or not numbered at all, can't be counted
+                    if (option < 0 || option >= size || eliminated[option]) continue;
+                    standing[option] = true;
+                    if (first == -1) first = option;
+                }
+                if (first == -1) continue;
+                counts[first]++;
+                total++;
+            }
+
+            ArrayList<Integer> candidates = new ArrayList<>();
+            for (int option = 0; option < standing.length; option++) {
+                if (standing[option]) candidates.add(option);
+            }
+            if (candidates.isEmpty()) return -1;
+            // Fewest first preferences first, ties with the option that loses the tie-break first
+            candidates.sort((a, b) -> counts[a] != counts[b]
+                    ? Integer.compare(counts[a], counts[b]) : Long.compare(precedence[b], precedence[a]));
+            int leader = candidates.get(candidates.size() - 1);
+            if (counts[leader] * 2 > total) return leader;
+            if (name.equals(MAJORITY)) return -1;
+            if (name.equals(PLURALITY) || candidates.size() == 1) return leader;
+
+            // Eliminate the trailing options that together have fewer first preferences than the option above them,
+            // as no transfer between them could lift one past it, or the last option alone if there are none
+            int eliminate = 1;
+            int sum = 0;
+            for (int i = 0; i < candidates.size() - 1; i++) {
+                sum += counts[candidates.get(i)];
+                if (sum < counts[candidates.get(i + 1)]) eliminate = i + 1;
+            }
+            for (int i = 0; i < eliminate; i++) eliminated[candidates.get(i)] = true;
+        }
+    }
+
+    /**
+     * Rank the options for breaking ties, by their place in the coordinator's order or by a hash of the option and
+     * the decision, which every participant works out the same way
+     * @return The precedence of each option by index, lowest first
+     */
+    private long[] precedence(int instance, List<String> options, OptionTable table, int size) {
+        long[] precedence = new long[size];
+        for (int index = 0; index < precedence.length; index++) {
+            String option = table.get(index);
+            long rank;
+            if (tieBreak.equals(HASH)) {
+                rank = option == null ? Integer.MAX_VALUE : mix(option.hashCode() * 31 + instance);
+            } else {
+                int place = options == null || option == null ? -1 : options.indexOf(option);
+                rank = place == -1 ? Integer.MAX_VALUE : place;
+            }
+            // Options that still tie are taken in index order
+            precedence[index] = rank * size + index;
+        }
+        return precedence;
+    }
+
+    /**
+     * Spread a string hash, which is the same in every JVM, so every option is as likely to win a tie
+     * @return A value from 0 to Integer.MAX_VALUE
+     */
+    private static long mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash & Integer.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + tieBreak;
+    }
+}
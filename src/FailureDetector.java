@@ -0,0 +1,198 @@
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Suspects that the other end of a connection has failed once its heartbeats stop arriving, using a phi accrual
+ * failure detector. The gaps between a connection's heartbeats are kept, and phi is how unlikely the silence since
+ * the last one is given those gaps, as -log10 of the chance that a heartbeat is still to come. A connection whose
+ * heartbeats arrive steadily is suspected soon after they stop, where a connection that is merely slow is given
+ * longer, rather than every connection waiting out the same fixed timeout.
+ */
+class FailureDetector {
+    // Heartbeats are sent on a separate thread to the checks, so a write held up by a stalled connection can't
+    // hold up suspecting it
+    private static final ScheduledExecutorService sender = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "failure detector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private int intervalMillis;
+    private int pauseMillis;
+    private double threshold;
+    // The role of the node the detector belongs to, which names its metrics
+    private String role;
+    private Set<Heartbeats> watched = ConcurrentHashMap.newKeySet();
+    private ScheduledFuture<?> checking;
+    private ScheduledFuture<?> sending;
+
+    /**
+     * Instantiates a failure detector, checking the connections watched twice every heartbeat interval
+     * @param intervalMillis How often heartbeats are sent
+     * @param pauseMillis How much later than usual a heartbeat can arrive before it counts against the connection,
+     *                    as heartbeats queue behind the messages sent before them and wait while those are handled
+     * @param threshold The phi above which a connection is suspected, each point of phi making a mistaken
+     *                  suspicion ten times less likely
+     * @param role The role of the node the detector belongs to, coordinator or participant
+     */
+    FailureDetector(int intervalMillis, int pauseMillis, double threshold, String role) {
+        this.intervalMillis = intervalMillis;
+        this.pauseMillis = pauseMillis;
+        this.threshold = threshold;
+        this.role = role;
+        long period = Math.max(1, TimeUnit.MILLISECONDS.toMicros(intervalMillis) / 2);
+        checking = checker.scheduleAtFixedRate(this::check, period, period, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Detect failures with heartbeats if a heartbeat interval is set
+     * @param flags The command line flags, --heartbeat=<ms> sets the heartbeat interval, 0 to leave failures to the
+     *              connections closing and the timeout, --pause=<ms> how late a heartbeat can be, a second by
+     *              default, and --phi=<threshold> how sure to be before suspecting a connection
+     * @param role The role of the node the detector belongs to, coordinator or participant
+     * @return The failure detector, or null if heartbeats aren't sent
+     */
+    static FailureDetector create(Flags flags, String role) {
+        int interval = flags.getInt("heartbeat", 0);
+        if (interval <= 0) return null;
+        return new FailureDetector(interval, flags.getInt("pause", 1000),
+                Double.parseDouble(flags.get("phi", "8")), role);
+    }
+
+    /**
+     * Send heartbeats every interval until the process exits or the detector is closed
+     * @param heartbeat Writes a heartbeat to every connection
+     */
+    void send(Runnable heartbeat) {
+        sending = sender.scheduleAtFixedRate(heartbeat, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sending heartbeats and checking for them, for a node stopped without its process exiting
+     */
+    void close() {
+        checking.cancel(false);
+        if (sending != null) sending.cancel(false);
+        watched.clear();
+    }
+
+    /**
+     * Start watching the heartbeats arriving on a connection, which isn't suspected until the first has arrived
+     * @param suspect Run once if the connection is suspected, after which it is no longer watched
+     * @return The heartbeats to record each arrival in
+     */
+    Heartbeats watch(Runnable suspect) {
+        Heartbeats heartbeats = new Heartbeats(intervalMillis, pauseMillis, suspect);
+        watched.add(heartbeats);
+        return heartbeats;
+    }
+
+    /**
+     * Stop watching a connection that has closed
+     */
+    void unwatch(Heartbeats heartbeats) {
+        watched.remove(heartbeats);
+    }
+
+    private void check() {
+        long now = System.nanoTime();
+        for (Heartbeats heartbeats : watched) {
+            // Removed first so a connection is only suspected once
+            if (heartbeats.phi(now) > threshold && watched.remove(heartbeats)) {
+                // How long the connection was silent before it was suspected
+                Metrics.histogram(role + ".failure.detection").record(now - heartbeats.last());
+                heartbeats.suspect.run();
+            }
+        }
+    }
+}
+
+/**
+ * The gaps between the last heartbeats to arrive on a connection, with their running sum and sum of squares so the
+ * mean and deviation are kept up to date as each arrives
+ */
+class Heartbeats {
+    private static final int WINDOW = 100;
+
+    private double[] intervals = new double[WINDOW];
+    private int count;
+    private int next;
+    private double sum;
+    private double squares;
+    // Keeps a connection with very regular heartbeats from being suspected after the smallest delay
+    private double minDeviation;
+    private int pauseMillis;
+    // When the last heartbeat arrived, 0 until the first has
+    private long last;
+
+    Runnable suspect;
+
+    /**
+     * Instantiates the heartbeats for a connection, expecting them to arrive every interval until they show
+     * otherwise
+     * @param intervalMillis How often the other end sends heartbeats
+     * @param pauseMillis How much later than usual a heartbeat can arrive before it counts against the connection
+     * @param suspect Run if the connection is suspected
+     */
+    Heartbeats(int intervalMillis, int pauseMillis, Runnable suspect) {
+        this.suspect = suspect;
+        this.pauseMillis = pauseMillis;
+        minDeviation = intervalMillis / 4.0;
+        add(intervalMillis - minDeviation);
+        add(intervalMillis + minDeviation);
+    }
+
+    /**
+     * Record a heartbeat arriving
+     */
+    synchronized void heartbeat() {
+        long now = System.nanoTime();
+        if (last != 0) add((now - last) / 1e6);
+        last = now;
+    }
+
+    /**
+     * @return When the last heartbeat arrived, from System.nanoTime()
+     */
+    synchronized long last() {
+        return last;
+    }
+
+    /**
+     * @param now The current System.nanoTime()
+     * @return How strongly the connection is suspected, 0 until the first heartbeat has arrived
+     */
+    synchronized double phi(long now) {
+        if (last == 0) return 0;
+        double mean = sum / count;
+        double deviation = Math.max(Math.sqrt(Math.max(0, squares / count - mean * mean)), minDeviation);
+        mean += pauseMillis;
+        double silence = (now - last) / 1e6;
+        // A logistic approximation of the normal distribution's tail
+        double y = (silence - mean) / deviation;
+        double e = Math.exp(-y * (1.5976 + 0.070566 * y * y));
+        return silence > mean ? -Math.log10(e / (1 + e)) : -Math.log10(1 - 1 / (1 + e));
+    }
+
+    private void add(double interval) {
+        if (count == WINDOW) {
+            sum -= intervals[next];
+            squares -= intervals[next] * intervals[next];
+        } else {
+            count++;
+        }
+        intervals[next] = interval;
+        sum += interval;
+        squares += interval * interval;
+        next = (next + 1) % WINDOW;
+    }
+}
@@ -0,0 +1,61 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line flags of the form --name or --name=value, given alongside the positional arguments
+ */
+class Flags {
+    private Map<String, String> flags = new HashMap<>();
+    private ArrayList<String> positional = new ArrayList<>();
+
+    /**
+     * Split the command line arguments into flags and positional arguments
+     * @param args The arguments passed to main
+     */
+    Flags(String[] args) {
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                int split = arg.indexOf('=');
+                if (split == -1) flags.put(arg.substring(2), "true");
+                else flags.put(arg.substring(2, split), arg.substring(split + 1));
+            } else {
+                positional.add(arg);
+            }
+        }
+    }
+
+    /**
+     * @return The arguments that were not flags, in the order they were given
+     */
+    ArrayList<String> positional() {
+        return positional;
+    }
+
+    /**
+     * @param name The flag name without the leading dashes
+     * @return True if the flag was given
+     */
+    boolean has(String name) {
+        return flags.containsKey(name);
+    }
+
+    /**
+     * @param name The flag name without the leading dashes
+     * @param defaultValue The value to use if the flag was not given
+     * @return The value of the flag
+     */
+    String get(String name, String defaultValue) {
+        return flags.getOrDefault(name, defaultValue);
+    }
+
+    /**
+     * @param name The flag name without the leading dashes
+     * @param defaultValue The value to use if the flag was not given
+     * @return The value of the flag as an integer
+     */
+    int getInt(String name, int defaultValue) {
+        String value = flags.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+}
@@ -0,0 +1,153 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An output stream that holds back each flush for up to a linger time, so every message written to a connection in
+ * that window goes out in a single write. The writers flush after every message so a flush marks a message boundary.
+ */
+class LingerOutputStream extends OutputStream {
+    // One timer thread times the batches of every connection, handing each batch whose linger time is up to a sender
+    // thread to write, so a connection that stops being read holds up only its own batches
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "linger");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ExecutorService senders = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(task, "linger sender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // The streams holding back a batch, flushed on exit as the coordinator and participants finish with System.exit.
+    // A stream is only held here until its batch is written, so one whose connection is lost isn't kept.
+    private static final Set<LingerOutputStream> streams = ConcurrentHashMap.newKeySet();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            for (LingerOutputStream stream : streams) stream.flushBatch();
+        }));
+    }
+
+    private OutputStream out;
+    private long lingerNanos;
+    private int maxBatch;
+
+    private byte[] buffer = new byte[8192];
+    private int count;
+    private int messages;
+    private boolean scheduled;
+    // A write failure on the timer thread, thrown from the next write on the thread using the stream
+    private IOException failure;
+    private ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Instantiates a linger output stream
+     * @param out The stream batches are written to
+     * @param lingerMillis How long to hold back a flush for more messages
+     * @param maxBatch How many messages to hold back before writing them without waiting for the linger time
+     */
+    LingerOutputStream(OutputStream out, int lingerMillis, int maxBatch) {
+        this.out = out;
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.maxBatch = maxBatch;
+    }
+
+    /**
+     * Batch the messages written to a stream if a linger time is set
+     * @param out The stream to wrap
+     * @param flags The command line flags, --linger=<ms> sets the linger time, 0 to write every message immediately,
+     *              and --batch=<messages> the most messages held back, --count-bytes counts the bytes written
+     * @return The stream to write to
+     */
+    static OutputStream wrap(OutputStream out, Flags flags) {
+        if (flags.has("count-bytes")) out = new CountingOutputStream(out);
+        int linger = flags.getInt("linger", 0);
+        if (linger <= 0) return out;
+        return new LingerOutputStream(out, linger, flags.getInt("batch", 64));
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        lock.lock();
+        try {
+            throwFailure();
+            if (count + len > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + len));
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * End a message, writing the batch if it is full or starting the linger time if it is the first in the batch
+     */
+    @Override
+    public void flush() throws IOException {
+        lock.lock();
+        try {
+            throwFailure();
+            if (count == 0) return;
+            messages++;
+            if (messages >= maxBatch) {
+                writeBatch();
+            } else if (!scheduled) {
+                scheduled = true;
+                streams.add(this);
+                timer.schedule(() -> senders.execute(this::flushBatch), lingerNanos, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushBatch();
+        streams.remove(this);
+        out.close();
+    }
+
+    /**
+     * Write whatever is held back, run by a sender once the linger time is up. A batch that fails to write is dropped
+     * with the connection.
+     */
+    private void flushBatch() {
+        lock.lock();
+        try {
+            scheduled = false;
+            writeBatch();
+        } catch (IOException e) {
+            failure = e;
+        } finally {
+            streams.remove(this);
+            lock.unlock();
+        }
+    }
+
+    private void writeBatch() throws IOException {
+        messages = 0;
+        if (count == 0) return;
+        int length = count;
+        count = 0;
+        out.write(buffer, 0, length);
+        out.flush();
+    }
+
+    private void throwFailure() throws IOException {
+        if (failure != null) throw failure;
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Runs listener tasks on either a platform thread or a virtual thread per task
+ */
+class ListenerExecutor implements Executor {
+    private Executor executor;
+    private int running;
+    private ReentrantLock lock = new ReentrantLock();
+    private Condition idle = lock.newCondition();
+
+    /**
+     * Instantiates a listener executor
+     * @param engine "virtual" for a virtual thread per task, anything else for a platform thread per task
+     */
+    ListenerExecutor(String engine) {
+        if (engine.equals("virtual")) {
+            // Looked up reflectively so the project still builds and runs on JDKs without virtual threads
+            try {
+                executor = (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                Log.warn("Virtual threads are not supported by this JVM, using platform threads");
+            }
+        }
+        if (executor == null) executor = task -> new Thread(task).start();
+    }
+
+    /**
+     * Run the listeners on the engine asked for
+     * @param flags The command line flags, --engine=virtual runs each listener on a virtual thread and anything else
+     *              on a platform thread, a coordinator given --engine=nio handling its participants on a
+     *              {@link CoordinatorSelector} instead
+     * @return The listener executor
+     */
+    static ListenerExecutor create(Flags flags) {
+        return new ListenerExecutor(flags.get("engine", "threads"));
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        changeRunning(1);
+        try {
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    changeRunning(-1);
+                }
+            });
+        } catch (RuntimeException | Error e) {
+            // The task never started so it will never finish
+            changeRunning(-1);
+            throw e;
+        }
+    }
+
+    /**
+     * Block until every task has finished, virtual threads are daemons so the thread that started them has to stay
+     * alive to keep the JVM running
+     */
+    void awaitIdle() {
+        lock.lock();
+        try {
+            while (running > 0) idle.awaitUninterruptibly();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void changeRunning(int delta) {
+        lock.lock();
+        try {
+            running += delta;
+            if (running == 0) idle.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes log lines to standard output on a thread of its own, so a thread handling messages only pays for queueing
+ * a line rather than a write to the console, and lines below the level set aren't built at all when the caller
+ * checks first. Lines are written in the order they were logged, in batches, and whatever is still queued is
+ * written before the process exits.
+ */
+class Log {
+    static final int DEBUG = 0;
+    static final int INFO = 1;
+    static final int WARN = 2;
+    static final int OFF = 3;
+
+    private static volatile int level = INFO;
+    private static final BlockingQueue<String> queue = new LinkedBlockingQueue<>();
+    // Lines logged but not yet written, counted down once they have been flushed
+    private static final AtomicLong pending = new AtomicLong();
+    private static final PrintStream out = new PrintStream(
+            new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16), false);
+
+    static {
+        Thread writer = new Thread(Log::write, "log writer");
+        writer.setDaemon(true);
+        writer.start();
+        // The coordinator and participants finish with System.exit, which runs the hooks but not the writer
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::awaitWritten));
+    }
+
+    /**
+     * Set the level from the command line flags
+     * @param flags The command line flags, --log=debug|info|warn|off, info by default, debug adding a line for
+     *              every message sent and received
+     */
+    static void configure(Flags flags) {
+        switch (flags.get("log", "info")) {
+            case "debug":
+                level = DEBUG;
+                break;
+            case "warn":
+                level = WARN;
+                break;
+            case "off":
+                level = OFF;
+                break;
+            default:
+                level = INFO;
+        }
+    }
+
+    /**
+     * @return True if debug lines are written, for callers to check before building a line on a hot path
+     */
+    static boolean isDebug() {
+        return level <= DEBUG;
+    }
+
+    /**
+     * Log a line about a single message
+     */
+    static void debug(String message) {
+        if (level <= DEBUG) enqueue(message);
+    }
+
+    static void info(String message) {
+        if (level <= INFO) enqueue(message);
+    }
+
+    /**
+     * Log a line about something that went wrong
+     */
+    static void warn(String message) {
+        if (level <= WARN) enqueue(message);
+    }
+
+    private static void enqueue(String message) {
+        pending.incrementAndGet();
+        queue.add(message);
+    }
+
+    private static void write() {
+        ArrayList<String> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(batch);
+            for (String line : batch) out.println(line);
+            out.flush();
+            pending.addAndGet(-batch.size());
+            batch.clear();
+        }
+    }
+
+    /**
+     * Wait briefly for the writer to write every line queued before exiting
+     */
+    private static void awaitWritten() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (pending.get() > 0 && System.nanoTime() < deadline) Thread.onSpinWait();
+    }
+}
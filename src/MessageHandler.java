@@ -0,0 +1,28 @@
+/**
+ * Receives the messages scanned by a text parser. The arguments are only valid for the duration of the call, as
+ * the parser reuses them for the next message.
+ */
+interface MessageHandler {
+    // The outcome passed for an option the table doesn't know
+    int NOT_AN_OPTION = -2;
+
+    /**
+     * Syntax: VOTE[@<instance>] |<port> <vote>|
+     * @param votes The instance, ports and option indexes of the votes in the message
+     */
+    void votes(VoteBatch votes);
+
+    /**
+     * Syntax: OUTCOME[@<instance>] <outcome> |<contributing participants>|
+     * @param instance The decision the outcome is for
+     * @param option The option index of the outcome, -1 for FAIL or {@link #NOT_AN_OPTION}
+     * @param contributors The ports of the participants whose votes were considered, in the first count elements
+     * @param count The number of contributors
+     */
+    void outcome(int instance, int option, int[] contributors, int count);
+
+    /**
+     * Syntax: HEARTBEAT
+     */
+    void heartbeat();
+}
@@ -0,0 +1,13 @@
+import java.io.IOException;
+
+/**
+ * Reads protocol messages from one connection in the encoding negotiated for it
+ */
+interface MessageReader {
+
+    /**
+     * Block until the next message arrives
+     * @return A token for the message, or null if the connection has been closed
+     */
+    Token read() throws IOException;
+}
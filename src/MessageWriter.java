@@ -0,0 +1,69 @@
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Writes protocol messages to one connection in the encoding negotiated for it. Messages about a decision carry
+ * its instance, which the text encoding leaves off for instance 0 so a single decision is sent as it always was.
+ */
+interface MessageWriter {
+
+    /**
+     * Syntax: RULE <rule> <tie-break>, sent first on joining when the outcome isn't settled by a majority
+     */
+    void rule(DecisionRule rule);
+
+    /**
+     * Syntax: STAR, sent on joining when votes are sent to the coordinator rather than to the other participants
+     */
+    void star();
+
+    /**
+     * Syntax: TREE <fan-out>, sent before the details when votes are passed along a tree rather than to everyone
+     */
+    void tree(int fanout);
+
+    /**
+     * Syntax: DETAILS |<port>|, listing every participant including the one it is sent to
+     * @param details The participants and those that can be sent binary messages
+     */
+    void details(ParticipantDetails details);
+
+    /**
+     * Syntax: VOTE_OPTIONS[@<instance>] |<option>|
+     */
+    void voteOptions(int instance, List<String> options);
+
+    /**
+     * Syntax: VOTE[@<instance>] |<port> <vote>|, each vote a ranking of the options joined by '>' under the runoff
+     * rule
+     */
+    void votes(VoteBroadcast votes);
+
+    /**
+     * Syntax: OUTCOME[@<instance>] <outcome> |<contributing participants>|
+     */
+    void outcome(int instance, String outcome, Collection<String> contributors);
+
+    /**
+     * Syntax: RESTART[@<instance>] |<port>|
+     */
+    void restart(int instance, List<String> failures);
+
+    /**
+     * Syntax: DECIDED[@<instance>] <outcome>, FAIL when the decision is being voted on again as a new instance
+     */
+    void decided(int instance, String outcome);
+
+    /**
+     * Syntax: REJOINED <port>, sent to the other participants when a participant restarted from its journal has
+     * rejoined, so they connect to it again and send it the votes it missed
+     * @param participant The port of the participant that has rejoined
+     * @param binary Whether the participant can be sent binary messages
+     */
+    void rejoined(String participant, boolean binary);
+
+    /**
+     * Syntax: HEARTBEAT, sent every heartbeat interval so the other end can tell a slow connection from a failed one
+     */
+    void heartbeat();
+}
@@ -0,0 +1,318 @@
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The counters and latency histograms of the coordinators and participants running in this process. They are always
+ * recorded, as recording is a few uncontended atomic adds, and read through JMX or a plain text page served over
+ * HTTP when asked for. The counters and histograms are named by role, coordinator.vote apart from participant.vote,
+ * as an in-process cluster runs both in one process; the message counts are for the whole process.
+ */
+class Metrics {
+    // The message types by their binary codec type, with the join handshake lines that come before either codec
+    // as 0
+    private static final String[] TYPES = {"HANDSHAKE", "DETAILS", "VOTE_OPTIONS", "VOTE", "OUTCOME", "RESTART",
+            "OPTIONS", "DECIDED", "TREE", "STAR", "HEARTBEAT", "REJOINED", "RANKED_VOTE", "RULE"};
+
+    private static final LongAdder[] sent = adders();
+    private static final LongAdder[] sentBytes = adders();
+    private static final LongAdder[] received = adders();
+    private static final LongAdder[] receivedBytes = adders();
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[TYPES.length];
+        for (int i = 0; i < adders.length; i++) adders[i] = new LongAdder();
+        return adders;
+    }
+
+    /**
+     * Expose the metrics if asked to
+     * @param flags The command line flags, --metrics registers them with the platform MBean server and
+     *              --metrics-port=<port> also serves them at http://localhost:<port>/metrics
+     * @param name What the process is, used to name the MBean
+     */
+    static void expose(Flags flags, String name) {
+        if (!flags.has("metrics") && !flags.has("metrics-port")) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(),
+                    new ObjectName("consensus:type=Metrics,name=" + name));
+        } catch (JMException e) {
+            Log.warn("Failed to register the metrics MBean");
+        }
+        if (!flags.has("metrics-port")) return;
+        // Started from a daemon thread so the server's own threads are daemons and don't keep the process alive
+        Thread starter = new Thread(() -> serve(flags.getInt("metrics-port", 0)));
+        starter.setDaemon(true);
+        starter.start();
+    }
+
+    private static void serve(int port) {
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+            server.createContext("/metrics", exchange -> {
+                byte[] body = report().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            });
+            server.start();
+            Log.info("Serving metrics at http://localhost:" + server.getAddress().getPort() + "/metrics");
+        } catch (IOException e) {
+            Log.warn("Failed to start the metrics server");
+        }
+    }
+
+    /**
+     * @param name The counter's name
+     * @return The counter, created at zero the first time it is asked for
+     */
+    static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    /**
+     * @param name The histogram's name
+     * @return The histogram, created empty the first time it is asked for
+     */
+    static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new Histogram());
+    }
+
+    /**
+     * Count a message written to a connection
+     * @param type The message's binary codec type, 0 for the join handshake
+     * @param bytes Its encoded length
+     */
+    static void sent(byte type, int bytes) {
+        if (type < 0 || type >= TYPES.length) type = 0;
+        sent[type].increment();
+        sentBytes[type].add(bytes);
+    }
+
+    /**
+     * Count a message read from a connection
+     * @param type The message's binary codec type, 0 for the join handshake
+     * @param bytes Its encoded length
+     */
+    static void received(byte type, int bytes) {
+        if (type < 0 || type >= TYPES.length) type = 0;
+        received[type].increment();
+        receivedBytes[type].add(bytes);
+    }
+
+    /**
+     * @param keyword The type of a text message, without any instance tag
+     * @return Its binary codec type, 0 for the join handshake and anything unknown
+     */
+    static byte type(String keyword) {
+        for (byte type = 1; type < TYPES.length; type++) {
+            if (TYPES[type].equals(keyword)) return type;
+        }
+        return 0;
+    }
+
+    /**
+     * @return Every metric by name, histograms as their count, mean, percentiles and maximum in milliseconds
+     */
+    static Map<String, Number> snapshot() {
+        Map<String, Number> values = new TreeMap<>();
+        for (int type = 0; type < TYPES.length; type++) {
+            if (sent[type].sum() > 0) {
+                values.put("messages.sent." + TYPES[type], sent[type].sum());
+                values.put("bytes.sent." + TYPES[type], sentBytes[type].sum());
+            }
+            if (received[type].sum() > 0) {
+                values.put("messages.received." + TYPES[type], received[type].sum());
+                values.put("bytes.received." + TYPES[type], receivedBytes[type].sum());
+            }
+        }
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            values.put(counter.getKey(), counter.getValue().sum());
+        }
+        for (Map.Entry<String, Histogram> histogram : histograms.entrySet()) {
+            histogram.getValue().snapshot(histogram.getKey(), values);
+        }
+        return values;
+    }
+
+    /**
+     * @return Every metric as a line of its name and value
+     */
+    static String report() {
+        StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, Number> value : snapshot().entrySet()) {
+            report.append(value.getKey()).append(' ').append(value.getValue()).append('\n');
+        }
+        return report.toString();
+    }
+}
+
+/**
+ * A latency histogram in the style of HdrHistogram. Values below 128ns are counted exactly, and above that each
+ * power of two is split into 64 buckets, so every value is kept to within about 1.5% however large it is, in a
+ * fixed array recorded into without locking.
+ */
+class Histogram {
+    private static final int SUB_BUCKETS = 64;
+    private static final int LINEAR = SUB_BUCKETS * 2;
+
+    private AtomicLongArray counts = new AtomicLongArray(LINEAR + 57 * SUB_BUCKETS);
+    private LongAdder count = new LongAdder();
+    private LongAdder sum = new LongAdder();
+    private AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency
+     * @param nanos The latency in nanoseconds, negative values are counted as 0
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        if (value > max.get()) max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * Record the time since a start
+     * @param start The System.nanoTime() the latency started at
+     */
+    void since(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    private static int index(long value) {
+        if (value < LINEAR) return (int) value;
+        // Shift the value so its top seven bits are left, which picks the sub-bucket within its power of two
+        int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    /**
+     * @return The highest value counted in a bucket
+     */
+    private static long highest(int index) {
+        if (index < LINEAR) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * @return How many latencies have been recorded
+     */
+    long count() {
+        return count.sum();
+    }
+
+    /**
+     * @param percentile The percentile, from 0 to 100
+     * @return The latency in nanoseconds that the percentile of latencies are at or below, 0 if none are recorded
+     */
+    long percentile(double percentile) {
+        long total = count.sum();
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(highest(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * Add the summary of this histogram to a set of metrics
+     * @param name The histogram's name, which each summary value is named after
+     * @param values The metrics to add to
+     */
+    void snapshot(String name, Map<String, Number> values) {
+        long total = count.sum();
+        values.put(name + ".count", total);
+        values.put(name + ".mean_ms", total == 0 ? 0.0 : millis(sum.sum() / total));
+        values.put(name + ".p50_ms", millis(percentile(50)));
+        values.put(name + ".p90_ms", millis(percentile(90)));
+        values.put(name + ".p99_ms", millis(percentile(99)));
+        values.put(name + ".p999_ms", millis(percentile(99.9)));
+        values.put(name + ".max_ms", millis(max.get()));
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1e3) / 1e3;
+    }
+}
+
+/**
+ * Exposes every metric as a read-only JMX attribute, the attributes growing as counters and histograms are first
+ * recorded
+ */
+class MetricsMBean implements DynamicMBean {
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Number value = Metrics.snapshot().get(attribute);
+        if (value == null) throw new AttributeNotFoundException(attribute);
+        return value;
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        Map<String, Number> values = Metrics.snapshot();
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            if (values.containsKey(attribute)) list.add(new Attribute(attribute, values.get(attribute)));
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) {
+        throw new UnsupportedOperationException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("Metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        Map<String, Number> values = Metrics.snapshot();
+        MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+        int i = 0;
+        for (Map.Entry<String, Number> value : values.entrySet()) {
+            attributes[i++] = new MBeanAttributeInfo(value.getKey(), value.getValue().getClass().getName(),
+                    value.getKey(), true, false, false);
+        }
+        return new MBeanInfo(Metrics.class.getName(), "Consensus counters and latency histograms", attributes,
+                null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,108 @@
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Numbers the vote options so the binary codec can send an option's index instead of its name. Indexes are taken
+ * from the coordinator's original option list, so they stay the same when options are removed on a restart.
+ */
+class OptionTable {
+    private volatile String[] options = new String[0];
+    private Map<String, Integer> indexes = new ConcurrentHashMap<>();
+    // Whether the indexes are only given by the coordinator, so an option it hasn't sent yet isn't numbered here
+    private volatile boolean following;
+
+    OptionTable() {
+    }
+
+    /**
+     * Instantiates an option table numbering the options in the order given
+     * @param options The vote options
+     */
+    OptionTable(Iterable<String> options) {
+        for (String option : options) indexOf(option);
+    }
+
+    /**
+     * @param index The index of an option
+     * @return The option, or null if it isn't known
+     */
+    String get(int index) {
+        String[] options = this.options;
+        return index >= 0 && index < options.length ? options[index] : null;
+    }
+
+    /**
+     * Take the indexes from the coordinator's binary messages only, as numbering an option here could give it an index
+     * the coordinator gives another
+     */
+    void follow() {
+        following = true;
+    }
+
+    /**
+     * Record an option at the index it was given by another node
+     */
+    synchronized void put(int index, String option) {
+        if (index >= options.length) options = Arrays.copyOf(options, index + 1);
+        Integer previous = indexes.get(option);
+        if (previous != null && previous != index) {
+            Log.warn("Option " + option + " renumbered from " + previous + " to " + index);
+            options[previous] = null;
+        }
+        String replaced = options[index];
+        if (replaced != null && !replaced.equals(option)) {
+            Log.warn("Option " + replaced + " at " + index + " replaced by " + option);
+            indexes.remove(replaced);
+        }
+        options[index] = option;
+        indexes.put(option, index);
+    }
+
+    /**
+     * @param option A vote option
+     * @return The index of the option, numbering it after the known options if it hasn't been seen before, or -1 if
+     * it hasn't and the table follows the coordinator's numbering
+     */
+    int indexOf(String option) {
+        Integer index = indexes.get(option);
+        if (index != null) return index;
+        synchronized (this) {
+            index = indexes.get(option);
+            if (index != null) return index;
+            if (following) return -1;
+            put(options.length, option);
+            return options.length - 1;
+        }
+    }
+
+    /**
+     * Find an option from its bytes in a message without building a string for it, never numbering one that hasn't
+     * been seen as the message may name anything
+     * @param bytes The buffer holding the option
+     * @param offset The start of the option
+     * @param length The length of the option
+     * @return The index of the option, or -1 if it isn't known
+     */
+    int find(byte[] bytes, int offset, int length) {
+        String[] options = this.options;
+        for (int index = 0; index < options.length; index++) {
+            String option = options[index];
+            if (option == null || option.length() != length) continue;
+            int i = 0;
+            while (i < length && option.charAt(i) == (char) bytes[offset + i]) i++;
+            if (i == length) return index;
+        }
+        // Only ASCII options compare byte for byte, anything else is decoded before being looked up
+        Integer index = indexes.get(new String(bytes, offset, length, Charset.defaultCharset()));
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return One more than the highest known index
+     */
+    int size() {
+        return options.length;
+    }
+}
@@ -0,0 +1,22 @@
+/**
+ * The outcome of a decision proposed to a ConsensusCluster
+ */
+public class Outcome {
+    // The option decided on
+    public final String option;
+    // How many rounds it took, one more for each restart
+    public final int rounds;
+    // How long it took from being proposed, in nanoseconds
+    public final long nanos;
+
+    Outcome(String option, int rounds, long nanos) {
+        this.option = option;
+        this.rounds = rounds;
+        this.nanos = nanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s after %d round(s) in %.3fms", option, rounds, nanos / 1e6);
+    }
+}
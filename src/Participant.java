@@ -1,8 +1,17 @@
 import java.io.*;
+import java.net.ConnectException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A participant in the consensus vote
@@ -10,325 +19,1358 @@ import java.util.concurrent.atomic.AtomicBoolean;
 public class Participant {
 
     private int port;
+    private int timeout;
     private int failureCondition;
-    private int failureCount;
+    // Connections to other participants that have been lost, and the participants the coordinator has reported failed
+    private int lostParticipants;
+    private Set<String> failedParticipants = new HashSet<>();
 
-    private AtomicBoolean outcomeSent = new AtomicBoolean(false);
-    private Set<String> currentParticipants = Collections.synchronizedSet(new HashSet<>());
-    private Map<String, PrintWriter> participants = Collections.synchronizedMap(new HashMap<>());
-    private Map<String, String> votes = Collections.synchronizedMap(new HashMap<>());
-    private Map<String, String> votesCache = Collections.synchronizedMap(new HashMap<>());
+    private Set<String> currentParticipants = ConcurrentHashMap.newKeySet();
+    private Map<String, MessageWriter> participants = new ConcurrentHashMap<>();
+    private Set<String> binaryParticipants = new HashSet<>();
 
-    // Coordinator details
-    private BufferedReader coordIn;
-    private PrintWriter coordOut;
+    // How many children each participant has when votes are passed along a tree rather than to everyone, this
+    // participant's parent and children, how many connections have been accepted and whether the tree has been
+    // abandoned for connections to everyone after a failure
+    private volatile int fanout;
+    private List<String> neighbours;
+    private int inbound;
+    private boolean meshed;
+    // Whether votes are sent to the coordinator alone, which then needs no details of the other participants
+    private boolean star;
+    // How the outcome is settled from the votes, a majority unless the coordinator says otherwise on joining
+    private DecisionRule rule = new DecisionRule(DecisionRule.MAJORITY, DecisionRule.ORDER);
+
+    // The decisions being voted on by instance, and those the coordinator has said are made
+    private Map<Integer, Ballot> ballots = new ConcurrentHashMap<>();
+    private DecidedInstances decided = new DecidedInstances();
+
+    // Coordinator details, replaced if the connection is reset and resumed, and the standby coordinators given by
+    // --standbys=<port>,... to resume with in the order they take over if it fails
+    private int coordinatorPort;
+    private List<Integer> standbys = new ArrayList<>();
+    private InputStream coordStream;
+    private OutputStream coordOutStream;
+    private MessageReader coordIn;
+    private volatile MessageWriter coordOut;
+
+    // Whether to ask the coordinator for the binary codec, by --codec=binary, and the option indexes votes are parsed
+    // into
+    private boolean binary;
+    private OptionTable optionTable = new OptionTable();
+    // Votes from text participants naming an option the coordinator hasn't numbered yet, by decision, registered once
+    // its options arrive
+    private Map<Integer, HashMap<String, String>> early = new ConcurrentHashMap<>();
+    // The indexes the ballots hold votes by, numbered from the coordinator's details
+    private ParticipantTable participantTable = new ParticipantTable();
+    // Used to batch the messages written to the coordinator and each other participant
+    private Flags flags;
 
     private Tokeniser tokeniser;
+    private ListenerExecutor listeners;
+    // Opens the connections to the other participants, ends the process once the participant is done or fails on
+    // purpose, and makes the random choices, the same votes from one run to the next with --seed=<n>, all replaced
+    // when the participant is run in a simulation
+    private Transport transport = Transport.SOCKETS;
+    // How many participants are connected to at once, by --connect-parallelism=<n>, and how many times and after how
+    // long a connection refused by a participant not yet listening is retried, by --connect-retries=<n> and
+    // --connect-backoff=<ms>, the backoff doubling each time
+    private int connectParallelism = 1;
+    private int connectRetries;
+    private int connectBackoff;
+    private Runnable exit = () -> System.exit(0);
+    private Random random;
+    // The socket the other participants connect to, the connection to the coordinator and those to and from the
+    // other participants, closed to stop a participant run in-process, and whether it has been
+    private ServerSocket listener;
+    private Socket coordSocket;
+    private Set<Closeable> connections = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+    // Suspects the other participants from their heartbeats in place of the timeout, null if none are sent
+    private FailureDetector detector;
+    // Keeps the connections open through transient resets, null to count a lost connection as a failure at once
+    private ConnectionManager connectionManager;
+    // Journals the votes cast and received to --journal=<path> so a restarted participant can rejoin the decisions in
+    // progress, null to keep them in memory alone
+    private ParticipantJournal journal;
+    // Whether the journal held votes from before this participant restarted, so it rejoins rather than joins
+    private boolean rejoining;
+
+    // Guards the voting state but for the votes merged into each ballot by the listeners, which hold only the
+    // ballot's own lock. A lock rather than synchronized so waiting virtual threads don't pin their carrier.
+    private ReentrantLock lock = new ReentrantLock();
+    // The messages to send once the lock is released, so no lock is held while writing to a connection, and held
+    // while they are sent so messages still go out in the order the changes behind them were made
+    private ThreadLocal<ArrayList<Runnable>> outbox = ThreadLocal.withInitial(ArrayList::new);
+    private ReentrantLock sendLock = new ReentrantLock();
 
     /**
-     * Instantiates a participant
-     * @param coordinatorPort The port the coordinator is listening on
-     * @param port The port this participant should listen on
-     * @param timeout How long to wait after hearing no messages from other participants before closing
+     * Instantiates a participant, listening for the other participants and replaying its journal if one is given
+     * @param port The port this participant should listen on, 0 for any free port
+     * @param timeout How long to wait after hearing no messages from other participants before closing, 0 to wait
+     *                for as long as the coordinator is running more decisions, unused when heartbeats are sent
      * @param failureCondition 0 - no failure, 1 - after sending it's vote to some but not all other participants,
      *                         2 - fails before deciding on the outcome
+     * @param flags The command line flags, each documented on the field or component it configures
+     * @param exit Called once the participant is done or fails on purpose, and not expected to return
      */
-    private Participant(int coordinatorPort, int port, int timeout, int failureCondition) {
+    Participant(int port, int timeout, int failureCondition, Flags flags, Runnable exit) throws IOException {
+        Log.configure(flags);
         tokeniser = new Tokeniser();
-        this.port = port;
+        listeners = ListenerExecutor.create(flags);
         this.failureCondition = failureCondition;
-        failureCount = 0;
+        binary = flags.get("codec", "text").equals("binary");
+        this.flags = flags;
+        this.exit = exit;
+        this.timeout = timeout;
+        random = random(flags);
+        connectParallelism = Math.max(1, flags.getInt("connect-parallelism", 4));
+        connectRetries = Math.max(0, flags.getInt("connect-retries", 5));
+        connectBackoff = Math.max(1, flags.getInt("connect-backoff", 10));
+        for (String standby : flags.get("standbys", "").split(",")) {
+            if (!standby.isEmpty()) standbys.add(Integer.parseInt(standby));
+        }
+        try {
+            listener = new ServerSocket(port, Transport.BACKLOG);
+        } catch (IOException e) {
+            throw new IOException("Failed to listen for other participants", e);
+        }
+        this.port = listener.getLocalPort();
+        Metrics.expose(flags, "participant-" + this.port);
+        detector = FailureDetector.create(flags, "participant");
+        connectionManager = ConnectionManager.create(flags, Integer.toString(this.port), this::resendVotes);
+        try {
+            journal = ParticipantJournal.open(flags, this::snapshot);
+            if (journal != null) recover();
+        } catch (IOException e) {
+            close();
+            throw new IOException("Failed to open the journal", e);
+        }
+    }
 
+    /**
+     * Join the coordinator and vote on its decisions until it closes the connection
+     * @param coordinatorPort The port the coordinator is listening on
+     */
+    void run(int coordinatorPort) {
+        this.coordinatorPort = coordinatorPort;
         try {
-            Socket coordSocket = new Socket("localhost", coordinatorPort);
-            coordIn = new BufferedReader(new InputStreamReader(coordSocket.getInputStream()));
-            coordOut = new PrintWriter(new OutputStreamWriter(coordSocket.getOutputStream()));
+            coordSocket = new Socket("localhost", coordinatorPort);
+            coordSocket.setTcpNoDelay(true);
+            coordStream = new BufferedInputStream(coordSocket.getInputStream());
+            coordOutStream = coordSocket.getOutputStream();
 
             // Add this as it's own current participant
             currentParticipants.add(Integer.toString(port));
+            participantTable.indexOf(port);
 
             // Listen for incoming connections from the other participants
-            new Thread(() -> {
+            listeners.execute(() -> {
                 try {
-                    System.out.println("Listening for other participants");
-                    ServerSocket listener = new ServerSocket(port);
+                    Log.info("Listening for other participants");
                     while (true) {
                         Socket participantSocket = listener.accept();
-                        participantSocket.setSoTimeout(timeout);
-                        new Thread(new ParticipantListener(this, participantSocket, tokeniser)).start();
+                        connections.add(participantSocket);
+                        // A participant that stops sending heartbeats is suspected instead of waiting out the timeout
+                        if (detector == null) participantSocket.setSoTimeout(timeout);
+                        listeners.execute(new ParticipantListener(this, participantSocket, tokeniser, detector));
+                        // Otherwise counted once the connection's session shows it isn't one opened again
+                        if (connectionManager == null) accepted();
                     }
                 } catch (IOException e) {
-                    System.out.println("Failed to start thread for new participant connection");
+                    if (!closed) Log.warn("Failed to start thread for new participant connection");
                 }
-            }).start();
+            });
 
             join();
+            if (detector != null) detector.send(this::sendHeartbeats);
+            listenToCoordinator();
         } catch (IOException e) {
-            System.out.println("Failed to connect to the coordinator");
+            Log.warn("Failed to connect to the coordinator");
+            close();
         }
     }
 
+    /**
+     * Close every connection and stop listening, for a participant run in-process to stop without its process
+     * exiting. The coordinator and the other participants see its connections lost as if it had failed.
+     */
+    void close() {
+        closed = true;
+        if (detector != null) detector.close();
+        if (connectionManager != null) connectionManager.close();
+        closeQuietly(listener);
+        closeQuietly(coordSocket);
+        for (Closeable connection : connections) closeQuietly(connection);
+    }
+
+    /**
+     * Reset the connections from the other participants and to the coordinator, as a fault in the network between
+     * them would, for the benchmarks to measure recovering from
+     */
+    void resetConnections() {
+        ArrayList<Closeable> sockets = new ArrayList<>(connections);
+        sockets.add(coordSocket);
+        for (Closeable connection : sockets) {
+            if (!(connection instanceof Socket)) continue;
+            try {
+                // Closed without lingering so the other end sees the connection reset rather than closed
+                ((Socket) connection).setSoLinger(true, 0);
+                connection.close();
+            } catch (IOException e) {
+                Log.warn("Failed to reset a connection");
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            Log.warn("Failed to close a connection");
+        }
+    }
+
+    /**
+     * @return The port this participant listens on
+     */
+    int port() {
+        return port;
+    }
+
+    /**
+     * Instantiates a participant that has yet to join, for a simulation to drive through its handler methods in place
+     * of the listeners, without sockets or threads of its own
+     * @param port The port this participant is known by
+     * @param failureCondition As given on the command line
+     * @param flags The command line flags, of which --codec and --seed are used
+     * @param transport Opens the connections to the other participants
+     * @param exit Called in place of ending the process, and not expected to return
+     */
+    Participant(int port, int failureCondition, Flags flags, Transport transport, Runnable exit) {
+        tokeniser = new Tokeniser();
+        listeners = new ListenerExecutor("threads");
+        this.port = port;
+        this.failureCondition = failureCondition;
+        binary = flags.get("codec", "text").equals("binary");
+        this.flags = flags;
+        random = random(flags);
+        this.transport = transport;
+        this.exit = exit;
+        currentParticipants.add(Integer.toString(port));
+        participantTable.indexOf(port);
+    }
+
+    /**
+     * Instantiates a participant that has already joined, without any connections, so its voting state can be
+     * driven directly by the benchmarks
+     * @param port The port this participant is known by
+     * @param others The ports of the other participants
+     * @param coordOut Where outcomes are sent
+     */
+    Participant(int port, Collection<String> others, MessageWriter coordOut) {
+        tokeniser = new Tokeniser();
+        listeners = new ListenerExecutor("threads");
+        this.port = port;
+        this.coordOut = coordOut;
+        random = new Random();
+        currentParticipants.add(Integer.toString(port));
+        currentParticipants.addAll(others);
+        participantTable.indexOf(port);
+        for (String participant : others) participantTable.indexOf(participant);
+    }
+
+    /**
+     * Instantiates a participant that has already joined and connected to the other participants
+     * @param port The port this participant is known by
+     * @param others The other participants' ports and where votes are sent to them
+     * @param coordOut Where outcomes are sent
+     */
+    Participant(int port, Map<String, MessageWriter> others, MessageWriter coordOut) {
+        this(port, others.keySet(), coordOut);
+        participants.putAll(others);
+    }
+
+    /**
+     * @return A random number generator seeded by --seed=<n> if it is given
+     */
+    private static Random random(Flags flags) {
+        return flags.has("seed") ? new Random(flags.getInt("seed", 0)) : new Random();
+    }
+
     /**
      * Connect to the coordinator
      */
-    private synchronized void join() {
-        System.out.println("Joining");
-        // Send join message to the coordinator
-        coordOut.println("JOIN " + port);
-        coordOut.flush();
+    private void join() {
+        long start = System.nanoTime();
+        lock.lock();
+        try {
+            requestJoin(coordOutStream);
+            try {
+                // The coordinator replies with the binary handshake if it agreed to the binary codec
+                String message = BinaryCodec.readLine(coordStream);
+                Token token = message == null ? null : tokeniser.getToken(message);
+                boolean agreed = token instanceof CodecToken && ((CodecToken) token).codec.equals("BINARY");
+                useCodec(agreed);
+                if (agreed) {
+                    coordIn = new BinaryReader(coordStream, optionTable);
+                    token = coordIn.read();
+                } else {
+                    coordIn = new TextReader(new BufferedReader(new InputStreamReader(coordStream)), tokeniser);
+                }
+                while (!joined(token)) token = coordIn.read();
+            } catch (IOException e) {
+                Log.warn("Failed to read participant details token");
+            }
+        } finally {
+            Metrics.histogram("participant.join").since(start);
+            lock.unlock();
+        }
+    }
 
-        getParticipantDetails();
-        getVoteOptions();
+    /**
+     * Ask the coordinator to let this participant join, which it replies to with the codec for the rest of the
+     * connection
+     * @param out The stream to the coordinator
+     */
+    void requestJoin(OutputStream out) {
+        coordOutStream = out;
+        Log.info(rejoining ? "Rejoining" : "Joining");
+        PrintWriter joinOut = new PrintWriter(new OutputStreamWriter(out));
+        joinOut.println((rejoining ? "REJOIN " : "JOIN ") + port + (binary ? " BINARY" : ""));
+        joinOut.flush();
     }
 
     /**
-     * Receive the details of the other participants from the coordinator
+     * Write to the coordinator in the codec it replied with
+     * @param agreed Whether the coordinator agreed to the binary codec
      */
-    private synchronized void getParticipantDetails() {
-        Token token = null;
-        // Details token identifying the other participants
+    void useCodec(boolean agreed) {
+        OutputStream out = LingerOutputStream.wrap(coordOutStream, flags);
+        if (agreed) {
+            Log.info("Using the binary codec");
+            optionTable.follow();
+            coordOut = new BinaryWriter(out, optionTable);
+        } else {
+            coordOut = new TextWriter(new PrintWriter(new OutputStreamWriter(out)));
+        }
+    }
+
+    /**
+     * Handle a message from the coordinator while joining, the decision rule, the topology and the details of the
+     * other participants arriving in that order
+     * @param token The message, null if the connection closed first
+     * @return True once the participant has joined
+     */
+    boolean joined(Token token) {
+        lock.lock();
         try {
-            token = tokeniser.getToken(coordIn.readLine());
-        } catch (IOException e) {
-            System.out.println("Failed to read participant details token");
+            // The coordinator says first how the outcome is settled, if not by a majority
+            if (token instanceof RuleToken) {
+                RuleToken ruleToken = (RuleToken) token;
+                rule = new DecisionRule(ruleToken.rule, ruleToken.tieBreak);
+                Log.info("Settling the outcome by " + rule);
+                return false;
+            }
+            // The coordinator says on joining if votes are sent to it alone, otherwise the details follow
+            if (token instanceof StarToken) {
+                star = true;
+                Log.info("Sending votes to the coordinator");
+                return true;
+            }
+            // The details follow the fan-out when votes are passed along a tree
+            if (token instanceof TreeToken) {
+                fanout = ((TreeToken) token).fanout;
+                Log.info("Passing votes along a tree with fan-out " + fanout);
+                return false;
+            }
+            getParticipantDetails(token);
+            return true;
+        } finally {
+            release();
         }
+    }
+
+    /**
+     * Connect to the other participants given in the details from the coordinator
+     * @param token Details token identifying the other participants
+     */
+    private void getParticipantDetails(Token token) {
         if (token instanceof DetailsToken) {
-            System.out.println("Connecting to other participants");
+            Log.info("Connecting to other participants");
+            long start = System.nanoTime();
+            DetailsToken detailsToken = (DetailsToken) token;
+            binaryParticipants = detailsToken.binaryParticipants;
+            // Every participant is sent the same list, this one included
+            ArrayList<String> others = new ArrayList<>(detailsToken.participants);
+            others.remove(Integer.toString(port));
+            for (String participant : others) participantTable.indexOf(participant);
 
-            // For each participant, set up a socket to connect to them
-            for (String participant : ((DetailsToken) token).participants) {
+            Collection<String> connectTo = others;
+            if (fanout > 0) {
+                // Every participant still votes, but votes only travel along the tree
+                currentParticipants.addAll(others);
+                neighbours = treeNeighbours(Integer.toString(port), others, fanout);
+                connectTo = neighbours;
+            }
+
+            connectAll(connectTo);
+            Metrics.histogram("participant.mesh").since(start);
+            // Ballots replayed from the journal were started before the other participants were known
+            for (Ballot ballot : ballots.values()) {
+                ballot.lock.asWriteLock().lock();
+                ballot.expect(participantTable.indexes(currentParticipants));
+                ballot.lock.asWriteLock().unlock();
+            }
+        } else {
+            Log.warn("Failed to receive other participants details");
+        }
+    }
+
+    /**
+     * Open a connection to another participant to send votes on
+     * @param participant The port of the other participant
+     */
+    private void connect(String participant) throws IOException {
+        MessageWriter participantOut;
+        if (connectionManager != null) {
+            ConnectionManager.PeerLink link = connectionManager.link(participant,
+                    () -> open(Integer.parseInt(participant)), out -> writer(participant, out));
+            connections.add(link);
+            participantOut = link;
+        } else {
+            OutputStream out = open(Integer.parseInt(participant));
+            connections.add(out);
+            participantOut = writer(participant, out);
+        }
+
+        Log.info("Adding participant: " + participant);
+        // Add the name to the starting participants list
+        currentParticipants.add(participant);
+        // Add the name and output channel to the participants hash map
+        participants.put(participant, participantOut);
+    }
+
+    /**
+     * Write to another participant in the binary codec if both ends have agreed it with the coordinator
+     * @param participant The port of the other participant
+     * @param out The connection to the participant
+     * @return The writer for the connection, which has sent the codec handshake
+     */
+    private MessageWriter writer(String participant, OutputStream out) {
+        if (coordOut instanceof BinaryWriter && binaryParticipants.contains(participant)) {
+            PrintWriter hello = new PrintWriter(out, true);
+            hello.println(BinaryCodec.HELLO);
+            return new BinaryWriter(LingerOutputStream.wrap(out, flags), optionTable);
+        }
+        return new TextWriter(new PrintWriter(LingerOutputStream.wrap(out, flags), true));
+    }
+
+    /**
+     * Open a connection to another participant, retrying with a jittered backoff while it refuses connections, as a
+     * participant rejoining after a restart may not be listening again yet
+     * @param participant The port of the other participant
+     * @return The stream to write messages to the participant on
+     */
+    private OutputStream open(int participant) throws IOException {
+        long backoff = connectBackoff;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return transport.connect(participant);
+            } catch (ConnectException e) {
+                if (attempt >= connectRetries || closed) throw e;
+                Metrics.counter("participant.connect-retries").increment();
                 try {
+                    Thread.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while connecting to another participant", interrupted);
+                }
+                backoff = Math.min(backoff * 2, 1000);
+            }
+        }
+    }
 
-                    Socket participantSocket = new Socket("localhost", Integer.parseInt(participant));
+    /**
+     * Connect to each of the given participants, up to the connect parallelism at once
+     * @param connectTo The ports of the participants to connect to
+     * @return How many of them couldn't be connected to
+     */
+    private int connectAll(Collection<String> connectTo) {
+        int failures = 0;
+        if (connectParallelism == 1 || connectTo.size() <= 1) {
+            for (String participant : connectTo) {
+                if (!tryConnect(participant)) failures++;
+            }
+            return failures;
+        }
 
-                    PrintWriter participantOut = new PrintWriter(participantSocket.getOutputStream(), true);
+        ArrayList<Callable<Boolean>> attempts = new ArrayList<>();
+        for (String participant : connectTo) attempts.add(() -> tryConnect(participant));
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(connectParallelism, attempts.size()));
+        try {
+            for (Future<Boolean> connected : pool.invokeAll(attempts)) {
+                if (!connected.get()) failures++;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.warn("Interrupted while connecting to other participants");
+        } catch (ExecutionException e) {
+            failures++;
+        } finally {
+            pool.shutdownNow();
+        }
+        return failures;
+    }
 
-                    System.out.println("Adding participant: " + participant);
-                    // Add the name to the starting participants list
-                    currentParticipants.add(participant);
-                    // Add the name and output channel to the participants hash map
-                    participants.put(participant, participantOut);
-                } catch (IOException e) {
-                    System.out.println("Failed to establish connection to another participant");
+    /**
+     * @return True if a connection to the other participant was opened
+     */
+    private boolean tryConnect(String participant) {
+        try {
+            connect(participant);
+            return true;
+        } catch (IOException e) {
+            Log.warn("Failed to establish connection to another participant");
+            return false;
+        }
+    }
+
+    /**
+     * Find a participant's parent and children in a k-ary tree of every participant ordered by port, which every
+     * participant works out the same way from the coordinator's details
+     * @param self This participant's port
+     * @param others The other participants' ports
+     * @param fanout How many children each participant has
+     * @return The ports of the participant's parent and children
+     */
+    static List<String> treeNeighbours(String self, Collection<String> others, int fanout) {
+        ArrayList<String> all = new ArrayList<>(others);
+        all.add(self);
+        all.sort(Comparator.comparingInt(Integer::parseInt));
+        int index = all.indexOf(self);
+
+        ArrayList<String> neighbours = new ArrayList<>();
+        if (index > 0) neighbours.add(all.get((index - 1) / fanout));
+        for (int child = index * fanout + 1; child <= index * fanout + fanout && child < all.size(); child++) {
+            neighbours.add(all.get(child));
+        }
+        return neighbours;
+    }
+
+    /**
+     * Count a connection accepted from another participant, one more than the tree neighbours means another
+     * participant has lost part of the tree and is sending votes to everyone
+     */
+    void accepted() {
+        lock.lock();
+        try {
+            inbound++;
+            if (neighbours != null && inbound > neighbours.size() && !meshed) {
+                meshUp();
+                resendVotes();
+            }
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Stop passing votes along the tree and connect to every participant, as once one has failed the tree may no
+     * longer reach them all. A participant that can't be connected to is counted as failed, like a lost connection.
+     */
+    private void meshUp() {
+        if (fanout == 0 || meshed) return;
+        meshed = true;
+        Log.info("Connecting to every participant");
+        ArrayList<String> connectTo = new ArrayList<>();
+        for (String participant : currentParticipants) {
+            if (participant.equals(Integer.toString(port)) || participants.containsKey(participant)) continue;
+            connectTo.add(participant);
+        }
+        for (int failures = connectAll(connectTo); failures > 0; failures--) countFailure();
+    }
+
+    /**
+     * Send a heartbeat to the coordinator and every participant connected to
+     */
+    private void sendHeartbeats() {
+        coordOut.heartbeat();
+        for (MessageWriter participant : participants.values()) participant.heartbeat();
+    }
+
+    /**
+     * Send a message once the lock is released, or by a listener merging votes once it has released the ballot
+     */
+    private void send(Runnable message) {
+        outbox.get().add(message);
+    }
+
+    /**
+     * Send the messages this thread has queued
+     */
+    private void flush() {
+        ArrayList<Runnable> messages = outbox.get();
+        try {
+            for (Runnable message : messages) message.run();
+        } finally {
+            messages.clear();
+        }
+    }
+
+    /**
+     * Release the lock and send the messages queued while it was held. The send lock is taken before the lock is
+     * released, so another thread changing the voting state carries on straight away but sends its own messages
+     * after these.
+     */
+    private void release() {
+        if (lock.getHoldCount() > 1 || outbox.get().isEmpty()) {
+            lock.unlock();
+            return;
+        }
+        sendLock.lock();
+        lock.unlock();
+        try {
+            flush();
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    /**
+     * Handle the messages from the coordinator until it closes the connection, the vote options, restarts and
+     * decisions for every decision arrive in the order the coordinator sent them
+     */
+    private void listenToCoordinator() {
+        do {
+            try {
+                Token token;
+                while ((token = coordIn.read()) != null) coordinatorMessage(token);
+                // Closed by the coordinator once every decision has been made, or by its process failing, which is
+                // only told apart from it by the standbys refusing this participant too
+                if (standbys.isEmpty()) break;
+            } catch (IOException e) {
+                Log.warn("Failed to read from coordinator");
+            }
+        } while (resumeCoordinator());
+        coordinatorClosed();
+    }
+
+    /**
+     * Open the connection to the coordinator again after it was reset, resuming rather than rejoining as this
+     * participant still has its voting state and its connections to the other participants, or resume with the
+     * standbys after it in turn if it has failed. The coordinator resumed with sends the options of the decisions in
+     * progress again, and is sent again the outcomes it may have missed.
+     * @return True if the connection was resumed, false if the coordinators have all stopped or counted this
+     *         participant as failed
+     */
+    private boolean resumeCoordinator() {
+        if (connectionManager == null || closed) return false;
+        List<Integer> coordinators = new ArrayList<>();
+        coordinators.add(coordinatorPort);
+        coordinators.addAll(standbys.subList(standbys.indexOf(coordinatorPort) + 1, standbys.size()));
+        ConnectionManager.Resumed resumed = connectionManager.resume(coordinators, binary, connections);
+        if (resumed == null) return false;
+
+        lock.lock();
+        try {
+            coordinatorPort = resumed.coordinator;
+            coordSocket = resumed.socket;
+            coordStream = resumed.in;
+            coordOutStream = resumed.out;
+            useCodec(resumed.binary);
+            if (resumed.binary) {
+                coordIn = new BinaryReader(resumed.in, optionTable);
+            } else {
+                coordIn = new TextReader(new BufferedReader(new InputStreamReader(resumed.in)), tokeniser);
+            }
+            for (Ballot ballot : ballots.values()) {
+                ballot.lock.asWriteLock().lock();
+                try {
+                    if (!ballot.outcomeSent || decided.contains(ballot.instance)) continue;
+                    String outcome = ballot.outcome;
+                    ArrayList<String> contributors = ballot.contributors;
+                    send(() -> coordOut.outcome(ballot.instance, outcome, contributors));
+                } finally {
+                    ballot.lock.asWriteLock().unlock();
                 }
             }
+        } finally {
+            release();
+        }
+        Log.info("Resumed the connection to the coordinator");
+        return true;
+    }
+
+    /**
+     * Handle a message from the coordinator once joined
+     */
+    void coordinatorMessage(Token token) {
+        if (token instanceof VoteOptionsToken) {
+            vote(token.instance, ((VoteOptionsToken) token).voteOptions);
+        } else if (token instanceof RestartToken) {
+            restartVote(token.instance, ((RestartToken) token).failures);
+        } else if (token instanceof DecidedToken) {
+            decided(token.instance);
+        } else if (token instanceof RejoinedToken) {
+            RejoinedToken rejoinedToken = (RejoinedToken) token;
+            rejoined(rejoinedToken.participant, rejoinedToken.binary);
         } else {
-            System.out.println("Failed to receive other participants details");
+            Log.warn("Unexpected message from coordinator");
         }
     }
 
     /**
-     * Receive the vote options from the coordinator
+     * Stop once no messages have arrived from another participant for the timeout, as the outcome must have been
+     * decided
      */
-    private synchronized void getVoteOptions() {
-        Token token;
+    void timedOut() {
+        exit.run();
+    }
+
+    /**
+     * Stop once the connection to the coordinator has closed, which it only does once every decision has been made
+     */
+    void coordinatorClosed() {
+        if (!closed) Log.info("Connection to the coordinator has been closed");
+        if (journal != null) journal.delete();
+        exit.run();
+    }
+
+    /**
+     * Vote on the options received from the coordinator for a decision
+     * @param instance The decision to vote on
+     * @param voteOptions The options to decide randomly between
+     */
+    void vote(int instance, ArrayList<String> voteOptions) {
+        CastVoteEvent event = new CastVoteEvent();
+        event.begin();
+        lock.lock();
         try {
-            // Get vote options and decide randomly which to vote for
-            token = tokeniser.getToken(coordIn.readLine());
-            if (token instanceof VoteOptionsToken) {
-                System.out.println("Received vote options");
+            if (decided.contains(instance)) return;
+            Ballot ballot = ballot(instance);
+            ballot.lock.asWriteLock().lock();
+            try {
+                vote(ballot, voteOptions);
+            } finally {
+                ballot.lock.asWriteLock().unlock();
+            }
+        } finally {
+            release();
+            event.commit(PortNames.of(port), instance, voteOptions.size());
+        }
+        HashMap<String, String> held = early.remove(instance);
+        if (held != null) registerVote(instance, held);
+    }
 
-                ArrayList<String> voteOptions = ((VoteOptionsToken) token).voteOptions;
-                String vote = voteOptions.get(new Random().nextInt(voteOptions.size()));
-                System.out.println("Participant has decided to vote for: " + vote);
+    /**
+     * Cast this participant's vote in a ballot held with both locks
+     */
+    private void vote(Ballot ballot, ArrayList<String> voteOptions) {
+        int instance = ballot.instance;
+        ballot.optionsReceived = System.nanoTime();
+        Log.debug("Received vote options" + ballot.label());
 
-                // Add this participants vote
-                votes.put(Integer.toString(port), vote);
+        for (String option : voteOptions) optionTable.indexOf(option);
+        ballot.options = voteOptions;
+        int self = participantTable.indexOf(port);
+        String vote;
+        if (ballot.voted) {
+            // Voted on before this participant restarted, so the same vote is sent again
+            String ranking = ballot.ranking(self);
+            vote = ranking != null ? ranking : optionTable.get(ballot.vote(self));
+            Log.debug("Participant has already voted for: " + vote + ballot.label());
+        } else {
+            if (rule.ranked()) {
+                // Every option is ranked in the one vote, so eliminating options needs no further rounds
+                ArrayList<String> ranking = new ArrayList<>(voteOptions);
+                Collections.shuffle(ranking, random);
+                vote = DecisionRule.rank(ranking);
             } else {
-                System.out.println("Failed to receive vote options");
+                vote = voteOptions.get(random.nextInt(voteOptions.size()));
             }
+            Log.debug("Participant has decided to vote for: " + vote + ballot.label());
+            if (journal != null) journal.voted(instance, optionTable.indexOf(DecisionRule.firstChoice(vote)), vote);
+        }
 
-            sendVotes();
-        } catch (IOException e) {
-            System.out.println();
+        // Add this participants vote
+        ballot.putVote(self, optionTable.indexOf(DecisionRule.firstChoice(vote)),
+                DecisionRule.isRanking(vote) ? vote : null);
+        ballot.voted = true;
+
+        if (star) {
+            // The coordinator counts the votes and says what was decided
+            VoteBroadcast message = new VoteBroadcast(instance, Map.of(Integer.toString(port), vote));
+            send(() -> {
+                if (failureCondition == 1) exit.run();
+                coordOut.votes(message);
+                if (failureCondition == 2) exit.run();
+            });
+            return;
+        }
+
+        sendVotes(ballot);
+
+        // Check if it has already received enough of the votes as they may have arrived before the vote options
+        if (!ballot.outcomeSent && (ballot.complete() || ballot.majorityCertain()
+                || ballot.failureCount == ballot.expectedCount() - 1)) {
+            sendOutcome(ballot);
         }
     }
 
     /**
-     * Send votes to all other participants
+     * Look up the ballot for a decision, starting one if this is the first message about it
      */
-    private synchronized void sendVotes() {
-        // If this is the only participant left there is no point in sending out votes so just send the outcome
+    private Ballot ballot(int instance) {
+        return ballots.computeIfAbsent(instance, i -> new Ballot(i, participantTable.indexes(currentParticipants),
+                lostParticipants - failedParticipants.size(), participantTable, optionTable));
+    }
+
+    /**
+     * Send the votes for a decision that the other participants haven't been sent, with the ballot held so the votes
+     * sent are those of one round, once the locks are released
+     */
+    private void sendVotes(Ballot ballot) {
+        // If this is the only participant left there is no one to send votes to
         if (currentParticipants.size() == 1) {
-            System.out.println("Participant is the only one remaining, sending outcome");
-            sendOutcome();
-            System.exit(0);
+            Log.debug("Participant is the only one remaining" + ballot.label());
+            return;
         }
-        System.out.println("Sending vote to other participants");
-        int count = 0;
+        if (Log.isDebug()) Log.debug("Sending vote to other participants" + ballot.label());
 
-        StringBuilder voteList = new StringBuilder();
-        for (Map.Entry<String, String> vote : votes.entrySet()) {
-            voteList.append(vote.getKey()).append(" ").append(vote.getValue()).append(" ");
+        // Each participant is sent only the votes it hasn't been sent before, so votes sent again after a failure
+        // carry just what has been learnt since. Its own vote goes with them, which tells votes for the next round
+        // from those resent from the last. Participants sent the same votes share a message, encoded once for each
+        // codec in use rather than once per participant.
+        HashMap<BitSet, VoteBroadcast> messages = new HashMap<>();
+        ArrayList<MessageWriter> writers = new ArrayList<>();
+        ArrayList<VoteBroadcast> sends = new ArrayList<>();
+        for (Map.Entry<String, MessageWriter> participant : participants.entrySet()) {
+            int peer = participantTable.indexOf(participant.getKey());
+            BitSet votes = ballot.unsent(peer);
+            if (votes.isEmpty()) continue;
+            if (ballot.vote(peer) != -1) votes.set(peer);
+            writers.add(participant.getValue());
+            sends.add(messages.computeIfAbsent(votes, v -> new VoteBroadcast(ballot.instance, ballot.votes(v))));
         }
-        String message = "VOTE " + voteList;
-
-        int killCount;
-        if (participants.size() - 1 > 0) {
-            killCount = participants.size() - 1;
-        } else {
-            killCount = 1;
+        if (writers.isEmpty()) {
+            Log.debug("Other participants have been sent every vote" + ballot.label());
+            return;
         }
 
-        for (Map.Entry<String, PrintWriter> participant : participants.entrySet()) {
-            participant.getValue().println(message);
-            count ++;
-            // Kill it before sending all of the votes
-            if (failureCondition == 1 && count == killCount) System.exit(0);
-        }
-        // Kill it after sending the votes
-        if (failureCondition == 2) System.exit(0);
+        send(() -> {
+            int count = 0;
+            int killCount;
+            if (writers.size() - 1 > 0) {
+                killCount = writers.size() - 1;
+            } else {
+                killCount = 1;
+            }
+
+            for (int i = 0; i < writers.size(); i++) {
+                writers.get(i).votes(sends.get(i));
+                count ++;
+                // Kill it before sending all of the votes
+                if (failureCondition == 1 && count == killCount) exit.run();
+            }
+            // Kill it after sending the votes
+            if (failureCondition == 2) exit.run();
+        });
     }
 
     /**
      * Record a vote received by a participant listener, send the outcome back to the coordinator if we have received
      * a vote from all of the participants
+     * @param instance The decision the votes are for
      * @param votes The votes received
      */
-    synchronized void registerVote(HashMap<String, String> votes) {
-        if (!outcomeSent.get()) {
-            System.out.println("Registering vote");
-            this.votes.putAll(votes);
-            // If we have received a vote from all participants calculate the outcome
-            if (this.votes.keySet().equals(currentParticipants)) {
-                sendOutcome();
+    void registerVote(int instance, HashMap<String, String> votes) {
+        VoteBatch batch = new VoteBatch();
+        batch.instance = instance;
+        for (Map.Entry<String, String> vote : votes.entrySet()) {
+            int option = optionTable.indexOf(DecisionRule.firstChoice(vote.getValue()));
+            // An option the coordinator hasn't numbered yet is kept by name until it has
+            String ranking = DecisionRule.isRanking(vote.getValue()) || option == -1 ? vote.getValue() : null;
+            batch.add(Integer.parseInt(vote.getKey()), option, ranking);
+        }
+        registerVote(batch);
+    }
+
+    /**
+     * Record the votes scanned from a message by a participant listener, the keys and values stored are interned so
+     * this allocates nothing when it only replaces votes already held. The votes are merged alongside those of the
+     * other listeners, holding the ballot only exclusively when a vote replaces another.
+     * @param votes The decision, ports and option indexes of the votes received
+     */
+    void registerVote(VoteBatch votes) {
+        for (int i = 0; i < votes.size; i++) {
+            if (votes.options[i] == -1) {
+                hold(votes);
+                return;
             }
-        } else if (failureCount == 0) {
-            System.out.println("Caching vote");
-            votesCache.putAll(votes);
         }
+        RegisterVoteEvent event = new RegisterVoteEvent();
+        event.begin();
+        Ballot ballot = openBallot(votes.instance);
+        if (ballot != null && !merge(ballot, votes, false)) merge(ballot, votes, true);
+        event.commit(PortNames.of(port), votes.instance, votes.size);
     }
 
     /**
-     * Register that a participant has failed
+     * Hold votes naming an option the coordinator hasn't numbered yet until its options for the decision arrive,
+     * checked again with the lock held as the options may have arrived since
      */
-    synchronized void registerFailure() {
-        failureCount++;
-        if (failureCount == currentParticipants.size() - 1) {
-            sendOutcome();
+    private void hold(VoteBatch votes) {
+        HashMap<String, String> held = new HashMap<>();
+        for (int i = 0; i < votes.size; i++) held.put(PortNames.of(votes.participants[i]), votes.vote(i, optionTable));
+        lock.lock();
+        try {
+            if (decided.contains(votes.instance)) return;
+            boolean numbered = true;
+            for (String vote : held.values()) {
+                if (optionTable.indexOf(DecisionRule.firstChoice(vote)) == -1) numbered = false;
+            }
+            if (!numbered) {
+                Log.debug("Holding votes until the options for decision " + votes.instance + " arrive");
+                early.computeIfAbsent(votes.instance, instance -> new HashMap<>()).putAll(held);
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        registerVote(votes.instance, held);
+    }
+
+    /**
+     * Look up the ballot for votes from a listener, starting it with the lock held if they are the first message
+     * about its decision
+     * @return The ballot, or null if the decision has been made and the votes are no longer needed
+     */
+    private Ballot openBallot(int instance) {
+        if (decided.contains(instance)) return null;
+        Ballot ballot = ballots.get(instance);
+        if (ballot != null) return ballot;
+        lock.lock();
+        try {
+            return decided.contains(instance) ? null : ballot(instance);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Merge votes into a ballot, then pass on those newly learnt and send the outcome if they complete it once the
+     * ballot has been released
+     * @param exclusive Whether to hold the ballot's write lock, rather than its read lock alongside other listeners
+     * @return False if a vote replaces another or needs the tally grown, and has to be merged again exclusively
+     */
+    private boolean merge(Ballot ballot, VoteBatch votes, boolean exclusive) {
+        Lock held = exclusive ? ballot.lock.asWriteLock() : ballot.lock.asReadLock();
+        boolean merged = true;
+        boolean ready = false;
+        Map<String, String> learnt = null;
+        held.lock();
+        try {
+            // Along a tree votes are still passed on once the outcome has been sent, restarts there are voted on as
+            // a new instance so they can only be for this round
+            if (!ballot.outcomeSent || fanout > 0) {
+                if (Log.isDebug()) Log.debug("Registering vote" + ballot.label());
+                for (int i = 0; i < votes.size; i++) {
+                    int participant = participantTable.indexOf(votes.participants[i]);
+                    if (exclusive) {
+                        if (!ballot.putVote(participant, votes.options[i], votes.rankings[i])) continue;
+                    } else {
+                        int result = ballot.merge(participant, votes.options[i], votes.rankings[i]);
+                        if (result == Ballot.EXCLUSIVE) merged = false;
+                        if (result != Ballot.MERGED) continue;
+                    }
+                    if (journal != null) {
+                        journal.received(votes.instance, PortNames.of(votes.participants[i]), votes.options[i],
+                                votes.vote(i, optionTable));
+                    }
+                    if (fanout == 0) continue;
+                    if (learnt == null) learnt = new HashMap<>();
+                    learnt.put(PortNames.of(votes.participants[i]), votes.vote(i, optionTable));
+                }
+                ready = !ballot.outcomeSent && ballot.ready();
+            } else if (ballot.failureCount == 0 && !votes.contains(port)) {
+                // Votes for the next round can't include this participant's before it has voted again, so votes that
+                // do are the last round's resent by a participant that saw a failure first
+                if (Log.isDebug()) Log.debug("Caching vote" + ballot.label());
+                for (int i = 0; i < votes.size; i++) {
+                    int participant = participantTable.indexOf(votes.participants[i]);
+                    if (exclusive) {
+                        ballot.putCached(participant, votes.options[i], votes.rankings[i]);
+                    } else if (!ballot.cache(participant, votes.options[i], votes.rankings[i])) {
+                        merged = false;
+                    }
+                }
+            }
+        } finally {
+            held.unlock();
+        }
+        // Along a tree the votes only reach the rest of the participants if they are passed on
+        if (learnt != null) forwardVotes(ballot, learnt);
+        if (ready) {
+            // Sent holding the lock like every other change that sends, so it can't overtake votes another thread has
+            // queued to resend, which would reach the others after the restart it leads to
+            lock.lock();
+            try {
+                // Checked again as another listener may have sent the outcome, or the vote restarted, since
+                ballot.lock.asWriteLock().lock();
+                try {
+                    if (!ballot.outcomeSent && ballot.ready() && !decided.contains(ballot.instance)) {
+                        sendOutcome(ballot);
+                    }
+                } finally {
+                    ballot.lock.asWriteLock().unlock();
+                }
+            } finally {
+                release();
+            }
+        }
+        flush();
+        return merged;
+    }
+
+    /**
+     * @return The option table votes from other participants are looked up in
+     */
+    OptionTable optionTable() {
+        return optionTable;
+    }
+
+    /**
+     * Count a connection opened by another participant, if it names the participant it is from
+     * @param participant The port it named, opening a connection that may replace one that was reset
+     */
+    void connectionOpened(String participant) {
+        if (connectionManager == null) return;
+        if (connectionManager.opened(participant)) {
+            Log.info("Participant: " + participant + " has reconnected");
         } else {
-            sendVotes();
+            accepted();
         }
     }
 
     /**
-     * Send the outcome of the vote to the coordinator
+     * Register that the connection from another participant has been lost, counted as a failure unless it opens a
+     * new one within the reconnect window
+     * @param participant The port it named, null if it named none
      */
-    private synchronized void sendOutcome() {
-        outcomeSent.set(true);
+    void connectionLost(String participant) {
+        if (connectionManager == null || participant == null) {
+            registerFailure();
+        } else {
+            connectionManager.lost(participant, this::registerFailure);
+        }
+    }
 
-        // Majority vote the votes this participant has received
-        String decision = majorityVote(votes.values());
+    /**
+     * Register that a participant has failed
+     */
+    void registerFailure() {
+        // Connections close along with a participant that has been stopped
+        if (closed) return;
+        lock.lock();
+        try {
+            countFailure();
+            meshUp();
+            resendVotes();
+        } finally {
+            release();
+        }
+    }
 
-        StringBuilder contributors = new StringBuilder();
-        for (String participant : votes.keySet()) {
-            contributors.append(participant).append(" ");
+    private void countFailure() {
+        lostParticipants++;
+        for (Ballot ballot : ballots.values()) {
+            ballot.lock.asWriteLock().lock();
+            ballot.failureCount++;
+            ballot.lock.asWriteLock().unlock();
         }
+    }
+
+    /**
+     * Send the votes for every decision again, or the outcome if every other participant has failed, so the votes a
+     * failed participant only sent to some are passed on to the rest
+     */
+    private void resendVotes() {
+        for (Ballot ballot : ballots.values()) {
+            ballot.lock.asWriteLock().lock();
+            try {
+                // Ballots not yet voted on are checked once this participant votes
+                if (!ballot.voted) continue;
+                if (ballot.failureCount == ballot.expectedCount() - 1 && !ballot.outcomeSent) {
+                    sendOutcome(ballot);
+                } else {
+                    sendVotes(ballot);
+                }
+            } finally {
+                ballot.lock.asWriteLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Pass the votes newly learnt for a decision on to the tree neighbours, each vote crosses each link of the tree
+     * once rather than every message carrying every vote so far
+     */
+    private void forwardVotes(Ballot ballot, Map<String, String> learnt) {
+        VoteBroadcast message = new VoteBroadcast(ballot.instance, learnt);
+        send(() -> {
+            for (MessageWriter participant : participants.values()) participant.votes(message);
+        });
+    }
+
+    /**
+     * Send the outcome of the vote on a decision to the coordinator once the locks are released, with the ballot
+     * held exclusively so only one thread sends it
+     */
+    private void sendOutcome(Ballot ballot) {
+        SendOutcomeEvent event = new SendOutcomeEvent();
+        event.begin();
+        ballot.outcomeSent = true;
+        if (ballot.optionsReceived != 0) Metrics.histogram("participant.vote").since(ballot.optionsReceived);
+
+        // The option the votes this participant has received settle on
+        int outcome = ballot.decide(rule);
+        String decision = outcome == -1 ? null : optionTable.get(outcome);
+
+        ArrayList<String> contributors = ballot.voters();
+        ballot.outcome = decision != null ? decision : "FAIL";
+        ballot.contributors = contributors;
 
         if (decision != null) {
-            System.out.println("Vote decision: " + decision);
+            Log.debug("Vote decision: " + decision + ballot.label());
             // Finally send the outcome to the coordinator
-            coordOut.println("OUTCOME " + decision + " " + contributors);
-            coordOut.flush();
+            send(() -> coordOut.outcome(ballot.instance, decision, contributors));
         } else {
-            System.out.println("Vote decision: FAIL");
-            // Report the tie to the coordinator so it can resend the vote options
-            coordOut.println("OUTCOME FAIL " + contributors);
-            coordOut.flush();
-            // Wait for the restart message from the coordinator
-            new Thread(this::waitForRestart).start();
+            Log.debug("Vote decision: FAIL" + ballot.label());
+            // Report the tie to the coordinator so it can restart the vote and resend the vote options
+            send(() -> coordOut.outcome(ballot.instance, "FAIL", contributors));
         }
+        event.commit(PortNames.of(port), ballot.instance, contributors.size());
     }
 
     /**
-     * Run in a separate thread, this waits for the restart message from the coordinator as this is sent once all
-     * participants have reported a fail (no majority)
+     * Restarts the vote on a decision by clearing its votes, the new vote options follow from the coordinator
+     * @param instance The decision to restart
+     * @param failures The participants that failed during the last vote, left out of every later vote
      */
-    private void waitForRestart() {
-        Token token;
+    private void restartVote(int instance, ArrayList<String> failures) {
+        RestartedEvent event = new RestartedEvent();
+        event.begin();
+        lock.lock();
         try {
-            // Restart token
-            String message = coordIn.readLine();
-            token = tokeniser.getToken(message);
-            if (token instanceof RestartToken) {
-                restartVote(((RestartToken) token).failures);
-            } else {
-                System.out.println("Restart message not received from coordinator");
+            for (String participant : failures) {
+                currentParticipants.remove(participant);
+                failedParticipants.add(participant);
             }
-        } catch (IOException e) {
-            System.out.println("Failed to read restart message");
+            if (decided.contains(instance)) return;
+            Ballot ballot = ballot(instance);
+            Log.info("Restarting Vote" + ballot.label());
+            Metrics.counter("participant.restarts").increment();
+            if (journal != null) journal.restarted(instance, failures);
+            ballot.lock.asWriteLock().lock();
+            try {
+                // Votes cached from participants that have since failed will never be matched by a current
+                // participant
+                for (String participant : failures) ballot.leaveOut(participantTable.indexOf(participant));
+                // A decision voted on again as a new instance may already hold votes from quicker participants
+                if (!ballot.voted) return;
+                ballot.outcomeSent = false;
+                ballot.voted = false;
+                ballot.failureCount = lostParticipants - failedParticipants.size();
+                ballot.restart();
+            } finally {
+                ballot.lock.asWriteLock().unlock();
+            }
+        } finally {
+            lock.unlock();
+            event.commit(PortNames.of(port), instance, failures.size());
         }
     }
 
     /**
-     * Restarts the vote by clearing the current votes and receiving the new vote options
+     * Drop the voting state for a decision the coordinator has made, or is voting on again as a new instance
      */
-    private synchronized void restartVote(ArrayList<String> failures) {
-        System.out.println("Restarting Vote");
-        outcomeSent.set(false);
-        failureCount = 0;
-        for (String participant : failures) currentParticipants.remove(participant);
-        votes.clear();
-        votes.putAll(votesCache);
-        votesCache.clear();
-        getVoteOptions();
-        // Check if it has received all of the votes in case the votes were cached
-        if (this.votes.keySet().equals(currentParticipants)) {
-            sendOutcome();
+    private void decided(int instance) {
+        lock.lock();
+        try {
+            // Marked decided first so a listener can't start the ballot again once it has gone
+            decided.add(instance, ballots.keySet());
+            ballots.remove(instance);
+            early.remove(instance);
+            if (journal != null) journal.decided(instance);
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
-     * Majority vote the votes received to decide on a vote outcome
-     * @param values A collection of all votes received
-     * @return The majority element or null if there isn't a majority
+     * Connect again to a participant that has restarted from its journal, if this participant sent it votes before,
+     * and send it the votes for every decision voted on so far, which it may have missed while it was away
+     * @param participant The port of the participant that has rejoined
+     * @param binary Whether it can be sent binary messages
      */
-    private String majorityVote(Collection<String> values) {
-        ArrayList<String> votes = new ArrayList<>(values);
-        String element = null;
-        int counter = 0;
-        int index = 0;
-
-        while (index < votes.size()) {
-            if (counter == 0) {
-                element = votes.get(index);
-                counter++;
-            } else if (element.equals(votes.get(index))) {
-                counter++;
-            } else {
-                counter--;
+    private void rejoined(String participant, boolean binary) {
+        lock.lock();
+        try {
+            Log.info("Participant: " + participant + " has rejoined");
+            // The connection it lost was counted as a failure the coordinator will now never report
+            if (lostParticipants > failedParticipants.size()) {
+                lostParticipants--;
+                for (Ballot ballot : ballots.values()) {
+                    ballot.lock.asWriteLock().lock();
+                    ballot.failureCount = Math.max(0, ballot.failureCount - 1);
+                    ballot.lock.asWriteLock().unlock();
+                }
             }
-            index++;
+            if (fanout > 0 && !meshed && !neighbours.contains(participant)) return;
+            if (binary) binaryParticipants.add(participant);
+            try {
+                connect(participant);
+            } catch (IOException e) {
+                Log.warn("Failed to establish connection to another participant");
+                countFailure();
+                return;
+            }
+            resendVotes(participant, participants.get(participant));
+        } finally {
+            release();
         }
+    }
 
-        // No majority element found
-        if (counter == 0) {
-            return null;
+    /**
+     * Send another participant the votes for every decision voted on so far, as it may have missed them on a
+     * connection that has been replaced
+     * @param participant The port of the other participant
+     * @param out The writer for the new connection
+     */
+    private void resendVotes(String participant, MessageWriter out) {
+        lock.lock();
+        try {
+            int peer = participantTable.indexOf(participant);
+            for (Ballot ballot : ballots.values()) {
+                ballot.lock.asWriteLock().lock();
+                try {
+                    if (!ballot.voted) continue;
+                    ballot.unsend(peer);
+                    VoteBroadcast message = new VoteBroadcast(ballot.instance, ballot.votes(ballot.unsent(peer)));
+                    send(() -> out.votes(message));
+                } finally {
+                    ballot.lock.asWriteLock().unlock();
+                }
+            }
+        } finally {
+            release();
         }
+    }
 
-        index = -1;
-        counter = 0;
-        while (++index < votes.size()) {
-            if (element.equals(votes.get(index))) {
-                counter++;
+    /**
+     * Rebuild the ballots from the journal left by this participant before it restarted
+     */
+    private void recover() throws IOException {
+        int records = journal.replay(new Recovery());
+        if (records == 0) return;
+        rejoining = true;
+        Log.info("Replayed " + records + " journal records, rejoining with " + ballots.size()
+                + " ballot(s) in progress");
+    }
+
+    /**
+     * Write the votes of every ballot in progress into a snapshot of the journal. It is called by the journal while a
+     * record is appended, which a listener may do while holding a ballot, so it takes none of their locks; a vote
+     * merged as it runs is put before it is journalled, so it is in the snapshot or the record follows it. Decisions
+     * already made are left out, as the coordinator only sends the options again for those still in progress.
+     */
+    private void snapshot(JournalHandler out) {
+        int self = participantTable.indexOf(port);
+        for (Ballot ballot : ballots.values()) {
+            for (int participant = 0; participant < participantTable.size(); participant++) {
+                int vote = ballot.vote(participant);
+                if (participant == self || vote == -1) continue;
+                String ranking = ballot.ranking(participant);
+                out.received(ballot.instance, participantTable.name(participant), vote,
+                        ranking != null ? ranking : optionTable.get(vote));
+            }
+            int own = ballot.vote(self);
+            String ranking = ballot.ranking(self);
+            if (ballot.voted && own != -1) {
+                out.voted(ballot.instance, own, ranking != null ? ranking : optionTable.get(own));
             }
         }
+    }
 
-        if (counter > votes.size() / 2)
-            return element;
+    /**
+     * Applies the records replayed from the journal to the ballots, the same way the votes were put when they were
+     * journalled
+     */
+    private class Recovery implements JournalHandler {
+        @Override
+        public void voted(int instance, int option, String vote) {
+            optionTable.put(option, DecisionRule.firstChoice(vote));
+            Ballot ballot = ballot(instance);
+            ballot.putVote(participantTable.indexOf(port), option, DecisionRule.isRanking(vote) ? vote : null);
+            ballot.voted = true;
+        }
+
+        @Override
+        public void received(int instance, String participant, int option, String vote) {
+            optionTable.put(option, DecisionRule.firstChoice(vote));
+            // Merged by a listener that found the ballot just before the decision was made
+            if (decided.contains(instance)) return;
+            ballot(instance).putVote(participantTable.indexOf(participant), option,
+                    DecisionRule.isRanking(vote) ? vote : null);
+        }
 
-        return null;
+        @Override
+        public void restarted(int instance, List<String> failures) {
+            // Who is still voting is taken from the coordinator's details on rejoining
+            Ballot ballot = ballots.get(instance);
+            if (ballot == null) return;
+            if (!ballot.voted) {
+                for (String participant : failures) ballot.removeVote(participantTable.indexOf(participant));
+            } else {
+                ballot.voted = false;
+                ballot.outcomeSent = false;
+                ballot.clear();
+            }
+        }
+
+        @Override
+        public void decided(int instance) {
+            decided.add(instance, ballots.keySet());
+            ballots.remove(instance);
+        }
     }
 
     /**
      * Start a participant
-     * @param args Coordinator port, Participant port, Timeout in milliseconds, Failure condition
+     * @param args Coordinator port, Participant port, Timeout in milliseconds, Failure condition, optionally
+     *             --engine=threads|virtual, --codec=text|binary, --linger=<ms>, --batch=<messages>,
+     *             --heartbeat=<ms>, --pause=<ms>, --phi=<threshold>, --journal=<path>, --fsync=always|interval|never,
+     *             --fsync-interval=<ms>, --snapshot-every=<records>, --log=debug|info|warn|off, --metrics,
+     *             --metrics-port=<port>, --seed=<n>, --connect-parallelism=<n>, --connect-retries=<n>,
+     *             --connect-backoff=<ms>, --reconnect=<ms> and --standbys=<port>,...
      */
     public static void main(String[] args) {
-        if (args.length == 4) {
-            new Participant(Integer.parseInt(args[0]), Integer.parseInt(args[1]), Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        Flags flags = new Flags(args);
+        ArrayList<String> positional = flags.positional();
+        if (positional.size() == 4) {
+            Participant participant;
+            try {
+                participant = new Participant(Integer.parseInt(positional.get(1)), Integer.parseInt(positional.get(2)),
+                        Integer.parseInt(positional.get(3)), flags, () -> System.exit(0));
+            } catch (IOException e) {
+                Log.warn(e.getMessage());
+                return;
+            }
+            participant.run(Integer.parseInt(positional.get(0)));
         } else {
-            System.out.println("Not enough arguments provided");
+            Log.info("Not enough arguments provided");
         }
     }
 }
@@ -0,0 +1,63 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The participants that have joined, sent to each of them so they can connect to each other. Every participant is
+ * sent the same list, leaving itself out when it reads it, so the list is encoded at most once for each codec
+ * however many participants it is sent to.
+ */
+class ParticipantDetails {
+    private List<String> participants;
+    private Set<String> binaryParticipants;
+    private String text;
+    private ByteBuffer binary;
+
+    /**
+     * Instantiates participant details
+     * @param participants The ports of the participants, copied so later joins don't change what is sent
+     * @param binaryParticipants The participants that can be sent binary messages
+     */
+    ParticipantDetails(Collection<String> participants, Set<String> binaryParticipants) {
+        this.participants = new ArrayList<>(participants);
+        this.binaryParticipants = new HashSet<>(binaryParticipants);
+    }
+
+    /**
+     * @return How many participants are listed
+     */
+    int size() {
+        return participants.size();
+    }
+
+    /**
+     * @return The details as a text message
+     */
+    String text() {
+        if (text == null) {
+            StringBuilder participantList = new StringBuilder("DETAILS ");
+            for (String participant : participants) participantList.append(participant).append(" ");
+            text = participantList.toString();
+        }
+        return text;
+    }
+
+    /**
+     * @return The details as a binary frame, a view each caller can consume independently
+     */
+    ByteBuffer binary() {
+        if (binary == null) {
+            binary = BinaryCodec.frame(BinaryCodec.sizeOf(participants),
+                    out -> BinaryCodec.encodeDetails(out, participants, binaryParticipants));
+        }
+        return binary.duplicate();
+    }
+
+    @Override
+    public String toString() {
+        return participants.toString();
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The votes a participant has cast and received, in the order it cast and received them. Replaying them in a
+ * restarted participant rebuilds the ballots it had, so it can rejoin the decisions in progress. Each vote carries
+ * the index it had in the option table, as the binary codec goes on using the indexes given before the restart,
+ * and the vote as it was sent, which under the runoff rule is a ranking with that option first.
+ */
+interface JournalHandler {
+
+    /**
+     * This participant has voted, recorded before the vote is sent
+     */
+    void voted(int instance, int option, String vote);
+
+    void received(int instance, String participant, int option, String vote);
+
+    /**
+     * @param failures The participants left out of the vote from now on
+     */
+    void restarted(int instance, List<String> failures);
+
+    void decided(int instance);
+}
+
+/**
+ * Encodes each journal entry as a record type and a payload of the binary codec's varints and strings
+ */
+class JournalWriter implements JournalHandler {
+    static final byte VOTED = 1;
+    static final byte RECEIVED = 2;
+    static final byte RESTARTED = 3;
+    static final byte DECIDED = 4;
+
+    private RecordSink out;
+
+    /**
+     * Instantiates a journal writer
+     * @param out Where the records are written, the journal or a snapshot of it
+     */
+    JournalWriter(RecordSink out) {
+        this.out = out;
+    }
+
+    @Override
+    public void voted(int instance, int option, String vote) {
+        out.write(VOTED, payload -> {
+            BinaryCodec.putVarint(payload, instance);
+            BinaryCodec.putVarint(payload, option);
+            BinaryCodec.putString(payload, vote);
+        });
+    }
+
+    @Override
+    public void received(int instance, String participant, int option, String vote) {
+        out.write(RECEIVED, payload -> {
+            BinaryCodec.putVarint(payload, instance);
+            BinaryCodec.putString(payload, participant);
+            BinaryCodec.putVarint(payload, option);
+            BinaryCodec.putString(payload, vote);
+        });
+    }
+
+    @Override
+    public void restarted(int instance, List<String> failures) {
+        out.write(RESTARTED, payload -> {
+            BinaryCodec.putVarint(payload, instance);
+            BinaryCodec.putVarint(payload, failures.size());
+            for (String participant : failures) BinaryCodec.putString(payload, participant);
+        });
+    }
+
+    @Override
+    public void decided(int instance) {
+        out.write(DECIDED, payload -> BinaryCodec.putVarint(payload, instance));
+    }
+
+    /**
+     * Pass a record to a handler
+     */
+    static void read(byte type, ByteBuffer in, JournalHandler handler) {
+        switch (type) {
+            case VOTED:
+                handler.voted(BinaryCodec.getVarint(in), BinaryCodec.getVarint(in), BinaryCodec.getString(in));
+                break;
+            case RECEIVED:
+                handler.received(BinaryCodec.getVarint(in), BinaryCodec.getString(in), BinaryCodec.getVarint(in),
+                        BinaryCodec.getString(in));
+                break;
+            case RESTARTED: {
+                int instance = BinaryCodec.getVarint(in);
+                int count = BinaryCodec.getVarint(in);
+                ArrayList<String> failures = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) failures.add(BinaryCodec.getString(in));
+                handler.restarted(instance, failures);
+                break;
+            }
+            case DECIDED:
+                handler.decided(BinaryCodec.getVarint(in));
+                break;
+            default:
+                Log.warn("Unknown journal record");
+        }
+    }
+}
+
+/**
+ * A participant's journal on disk, appending each entry to a write-ahead log. The vote a participant casts is forced
+ * to disk before it is sent, the votes received and the decisions' progress going with the next commit or snapshot.
+ */
+class ParticipantJournal implements JournalHandler {
+    private WriteAheadLog log;
+    private JournalWriter writer;
+
+    private ParticipantJournal(WriteAheadLog log) {
+        this.log = log;
+        writer = new JournalWriter(log);
+    }
+
+    /**
+     * Open the journal if one is set
+     * @param flags The command line flags, --journal=<path> journals to the file given, forced to disk as the
+     *              write-ahead log's flags set
+     * @param snapshotter Writes the votes of every ballot in progress into a snapshot of the journal
+     * @return The journal, or null if the votes are only kept in memory
+     */
+    static ParticipantJournal open(Flags flags, Consumer<JournalHandler> snapshotter) throws IOException {
+        WriteAheadLog log = WriteAheadLog.create(flags, "journal", out -> snapshotter.accept(new JournalWriter(out)));
+        return log == null ? null : new ParticipantJournal(log);
+    }
+
+    /**
+     * Replay the journal left by the participant before it restarted, ready to append after it
+     * @param handler Rebuilds the ballots from the entries
+     * @return How many records were replayed
+     */
+    int replay(JournalHandler handler) throws IOException {
+        return log.replay((type, in) -> JournalWriter.read(type, in, handler));
+    }
+
+    @Override
+    public void voted(int instance, int option, String vote) {
+        writer.voted(instance, option, vote);
+        log.commit();
+    }
+
+    @Override
+    public void received(int instance, String participant, int option, String vote) {
+        writer.received(instance, participant, option, vote);
+    }
+
+    @Override
+    public void restarted(int instance, List<String> failures) {
+        writer.restarted(instance, failures);
+    }
+
+    @Override
+    public void decided(int instance) {
+        writer.decided(instance);
+    }
+
+    /**
+     * Remove the journal once every decision has been made
+     */
+    void delete() {
+        log.delete();
+    }
+}
@@ -1,53 +1,115 @@
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 
 /**
  * A listener thread to handle incoming votes from another participant
  */
-class ParticipantListener implements Runnable {
+class ParticipantListener implements Runnable, MessageHandler {
     private Participant participant;
     private Socket socket;
     private Tokeniser tokeniser;
+    private FailureDetector detector;
+    private Heartbeats heartbeats;
+    // The participant the connection is from if it named itself, so it may connect again rather than be counted as
+    // failed when the connection is lost
+    private String session;
 
     /**
      * Instantiates a participant listener
      * @param participant A reference to the participant this listener belongs to
      * @param socket The socket connection to the other participant
      * @param tokeniser A reference to the tokeniser object for parsing the received messages
+     * @param detector Watches the other participant's heartbeats, null if they aren't sent
      */
-    ParticipantListener(Participant participant, Socket socket, Tokeniser tokeniser) {
+    ParticipantListener(Participant participant, Socket socket, Tokeniser tokeniser, FailureDetector detector) {
         this.participant = participant;
         this.socket = socket;
         this.tokeniser = tokeniser;
+        this.detector = detector;
     }
 
     /**
-     * Loops while the buffered reader reads an input and pass the vote on to the participant
+     * Loops while the reader reads an input and pass the vote on to the participant
      */
     @Override
     public void run() {
-        String message;
+        if (detector != null) heartbeats = detector.watch(this::suspect);
         try {
-            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            while ((message = in.readLine()) != null) {
-                // Read the vote token and register it with the participant
-                Token token = tokeniser.getToken(message);
-                if (token instanceof VoteToken) {
-                    VoteToken voteToken = ((VoteToken) token);
-                    participant.registerVote(voteToken.votes);
+            InputStream stream = new BufferedInputStream(socket.getInputStream());
+
+            // The other participant names itself first if the connection may replace one that was reset, then opens
+            // with the binary handshake if it is going to send binary frames
+            String first = BinaryCodec.readLine(stream);
+            Token opening = first != null && first.startsWith("SESSION ") ? tokeniser.getToken(first) : null;
+            if (opening instanceof SessionToken) {
+                session = ((SessionToken) opening).participant;
+                participant.connectionOpened(session);
+                first = BinaryCodec.readLine(stream);
+            }
+            if (first == null) throw new IOException();
+            if (first.equals(BinaryCodec.HELLO)) {
+                // The options sent ahead of the votes carry the coordinator's numbering, so they go in this
+                // participant's table rather than being numbered afresh when a vote beats the coordinator's options
+                MessageReader in = new BinaryReader(stream, participant.optionTable());
+                Token token;
+                while ((token = in.read()) != null) {
+                    // Read the vote token and register it with the participant
+                    register(token);
                 }
+            } else {
+                register(tokeniser.getToken(first));
+                // Scan the rest of the votes without allocating, passing them on through the handler methods
+                TextParser parser = new TextParser(stream, participant.optionTable());
+                while (parser.next(this)) ;
             }
             throw new IOException();
         } catch (SocketTimeoutException e) {
             // If the connection times out kill the participant as an outcome must have been decided as no votes have been sent
-            System.exit(0);
+            participant.timedOut();
         } catch (IOException e) {
             // This means a participant failed so we need to do another round of voting
-            System.out.println("Connection to a participant has been lost");
-            participant.registerFailure();
+            Log.info("Connection to a participant has been lost");
+            if (detector != null) detector.unwatch(heartbeats);
+            participant.connectionLost(session);
+        }
+    }
+
+    @Override
+    public void votes(VoteBatch votes) {
+        participant.registerVote(votes);
+    }
+
+    @Override
+    public void outcome(int instance, int option, int[] contributors, int count) {
+    }
+
+    @Override
+    public void heartbeat() {
+        if (heartbeats != null) heartbeats.heartbeat();
+    }
+
+    /**
+     * Close the connection to a participant that has stopped sending heartbeats, which ends the read in run as if
+     * the connection had been lost
+     */
+    private void suspect() {
+        Log.info("Suspecting a participant has failed");
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Log.warn("Failed to close the connection to a suspected participant");
+        }
+    }
+
+    private void register(Token token) {
+        if (token instanceof VoteToken) {
+            VoteToken voteToken = ((VoteToken) token);
+            participant.registerVote(voteToken.instance, voteToken.votes);
+        } else if (token instanceof HeartbeatToken) {
+            heartbeat();
         }
     }
 }
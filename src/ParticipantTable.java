@@ -0,0 +1,66 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Numbers the participants densely in the order they become known, from the coordinator's details or a vote that
+ * arrives first, so ballots can hold votes in arrays indexed by participant. An index is found from a port through a
+ * table covering every port, without hashing or allocating.
+ */
+class ParticipantTable {
+    // One more than each port's index, 0 for the ports not yet numbered
+    private final AtomicIntegerArray indexes = new AtomicIntegerArray(65536);
+    private volatile int[] ports = new int[16];
+    private volatile int size;
+
+    /**
+     * @param port A participant's port
+     * @return The index of the participant, numbering it after the known participants if it hasn't been seen before
+     */
+    int indexOf(int port) {
+        int index = indexes.get(port) - 1;
+        if (index >= 0) return index;
+        synchronized (this) {
+            index = indexes.get(port) - 1;
+            if (index >= 0) return index;
+            if (size == ports.length) ports = Arrays.copyOf(ports, size * 2);
+            ports[size] = port;
+            // Published after the port so a thread that sees the index also sees the port behind it
+            indexes.set(port, size + 1);
+            return size++;
+        }
+    }
+
+    /**
+     * @param participant A participant's port as a string
+     */
+    int indexOf(String participant) {
+        return indexOf(Integer.parseInt(participant));
+    }
+
+    /**
+     * @param index The index of a participant
+     * @return The participant's port as a string, the same instance every time
+     */
+    String name(int index) {
+        return PortNames.of(ports[index]);
+    }
+
+    /**
+     * @param participants Participants' ports as strings
+     * @return The participants' indexes as a set of bits
+     */
+    BitSet indexes(Collection<String> participants) {
+        BitSet bits = new BitSet(size);
+        for (String participant : participants) bits.set(indexOf(participant));
+        return bits;
+    }
+
+    /**
+     * @return One more than the highest index given
+     */
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,23 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Interns the string form of port numbers, so participant ports parsed as ints can be used as the map keys the
+ * voting state is held under without allocating a new string for every message
+ */
+class PortNames {
+    private static final AtomicReferenceArray<String> names = new AtomicReferenceArray<>(65536);
+
+    /**
+     * @param port A participant's port
+     * @return The port as a string, the same instance every time
+     */
+    static String of(int port) {
+        if (port < 0 || port >= names.length()) return Integer.toString(port);
+        String name = names.get(port);
+        if (name == null) {
+            names.compareAndSet(port, null, Integer.toString(port));
+            name = names.get(port);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,273 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Streams the coordinator's log records to the standby coordinators following it, each starting from a snapshot of
+ * the whole voting state, so the first standby still running can take over with the same state if the leader fails.
+ * Records are written as they are logged and flushed wherever the write-ahead log is committed, before the messages
+ * depending on them go to the participants, so a leader that crashes has already handed them to the network.
+ *
+ * Each record is framed by its length followed by its type and payload as in the log, and the stream ends with an
+ * empty frame once every decision has been made, so a standby can tell the leader finishing from it failing. Called
+ * with the coordinator's lock held, as the log is, so a standby that takes too long to accept a commit's records has
+ * its connection closed rather than holding up the voting, and follows again from a fresh snapshot.
+ */
+class Replicas implements RecordSink {
+    // Returned by a standby following its leaders once one has made every decision
+    static final long FINISHED = -1;
+    // How long a standby may take to accept the records of one commit before it is dropped
+    private static final long STALL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    // The standbys being flushed to, which one timer thread checks for stalls
+    private static final Set<Standby> flushing = ConcurrentHashMap.newKeySet();
+
+    static {
+        ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "replica watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        watchdog.scheduleAtFixedRate(() -> {
+            long now = System.nanoTime();
+            for (Standby standby : flushing) {
+                if (now - standby.flushStarted > STALL_NANOS) standby.stalled();
+            }
+        }, 250, 250, TimeUnit.MILLISECONDS);
+    }
+
+    private Map<String, Standby> standbys = new LinkedHashMap<>();
+    private ByteBuffer payload = ByteBuffer.allocate(256);
+
+    /**
+     * Start streaming to a standby
+     * @param standby The port of the standby
+     * @param out The stream to the standby
+     * @param snapshotter Writes the whole voting state, which the standby starts from
+     */
+    void add(String standby, OutputStream out, WriteAheadLog.Snapshotter snapshotter) {
+        Standby stream = new Standby(standby, out);
+        standbys.put(standby, stream);
+        snapshotter.snapshot((type, encoder) -> {
+            encode(type, encoder);
+            stream.write(payload);
+        });
+        flush();
+    }
+
+    /**
+     * Stop streaming to a standby whose connection has closed
+     * @param out The stream it was added with, so a standby that has followed again since is kept
+     */
+    void remove(String standby, OutputStream out) {
+        Standby stream = standbys.get(standby);
+        if (stream != null && stream.connection == out) standbys.remove(standby);
+    }
+
+    @Override
+    public void write(byte type, BinaryCodec.Encoder encoder) {
+        if (standbys.isEmpty()) return;
+        encode(type, encoder);
+        for (Standby standby : standbys.values()) standby.write(payload);
+    }
+
+    /**
+     * Encode a record's type and payload into the payload buffer
+     */
+    private void encode(byte type, BinaryCodec.Encoder encoder) {
+        payload = BinaryCodec.encode(payload, 0, out -> {
+            out.put(type);
+            encoder.encode(out);
+        });
+    }
+
+    /**
+     * Hand the records written so far to every standby, dropping those whose connections have failed
+     */
+    void flush() {
+        Iterator<Standby> standbys = this.standbys.values().iterator();
+        while (standbys.hasNext()) {
+            Standby standby = standbys.next();
+            try {
+                standby.flush();
+            } catch (IOException e) {
+                Log.info("Lost standby coordinator: " + standby.name);
+                standbys.remove();
+            }
+        }
+    }
+
+    /**
+     * Tell every standby the leader has made every decision, so they stop rather than take over
+     */
+    void finish() {
+        payload.clear().flip();
+        for (Standby standby : standbys.values()) standby.write(payload);
+        flush();
+    }
+
+    /**
+     * Follow the first of a standby's leaders that is running, following the next once it has failed. A leader whose
+     * stream breaks is followed again in case only the connection was reset, and counted as failed once it refuses
+     * the connection.
+     * @param leaders The ports of the coordinators the standby follows, in the order they take over
+     * @param self The port the standby listens on, which it is followed by
+     * @param flags The command line flags, a leader still starting when the standby does is connected to again
+     *              --connect-retries=<n> times from --connect-backoff=<ms>, the backoff doubling each time
+     * @param connections Holds the connection to the leader while it is open, so closing the standby closes it
+     * @param closed Whether the standby has been closed, which stops it following
+     * @param reader Starts applying the records from a leader afresh, for each leader followed
+     * @return When the last leader was lost, as System.nanoTime, or FINISHED once a leader has made every decision
+     */
+    static long follow(List<Integer> leaders, int self, Flags flags, Set<Closeable> connections,
+                       BooleanSupplier closed, Supplier<RecordReader> reader) {
+        long lost = 0;
+        int retries = flags.getInt("connect-retries", 5);
+        long backoff = Math.max(1, flags.getInt("connect-backoff", 10));
+        for (int i = 0; i < leaders.size() && !closed.getAsBoolean(); ) {
+            int leader = leaders.get(i);
+            Socket socket;
+            try {
+                socket = new Socket("localhost", leader);
+                connections.add(socket);
+            } catch (IOException e) {
+                // The leader may still be starting when this standby does, otherwise it has stopped
+                if (lost == 0 && retries-- > 0) {
+                    sleep(backoff);
+                    backoff *= 2;
+                    continue;
+                }
+                if (lost == 0) lost = System.nanoTime();
+                i++;
+                continue;
+            }
+            Log.info("Following coordinator: " + leader);
+            boolean finished;
+            try {
+                OutputStream out = socket.getOutputStream();
+                out.write(("FOLLOW " + self + "\n").getBytes());
+                out.flush();
+                finished = follow(new DataInputStream(new BufferedInputStream(socket.getInputStream())), reader.get());
+            } catch (IOException e) {
+                finished = false;
+            } finally {
+                connections.remove(socket);
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    Log.warn("Failed to close the connection to the leader");
+                }
+            }
+            if (finished) {
+                Log.info("Coordinator: " + leader + " has made every decision");
+                return FINISHED;
+            }
+            Log.info("Lost the connection to coordinator: " + leader);
+            lost = System.nanoTime();
+        }
+        return lost;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Apply the records streamed from the leader as they arrive
+     * @param in The stream from the leader
+     * @param reader Applies each record to the standby's state
+     * @return True once the leader has finished, false if the stream broke first
+     */
+    static boolean follow(DataInputStream in, RecordReader reader) {
+        ByteBuffer payload = ByteBuffer.allocate(256);
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length == 0) return true;
+                if (payload.capacity() < length) payload = ByteBuffer.allocate(length);
+                payload.clear().limit(length);
+                in.readFully(payload.array(), 0, length);
+                reader.read(payload.get(), payload);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The stream to one standby, held in memory until the next commit so only a flush writes to the connection
+     */
+    private static class Standby {
+        String name;
+        OutputStream connection;
+        ByteArrayOutputStream pending = new ByteArrayOutputStream(1 << 16);
+        DataOutputStream out = new DataOutputStream(pending);
+        // When the flush in progress started
+        volatile long flushStarted;
+
+        Standby(String name, OutputStream connection) {
+            this.name = name;
+            this.connection = connection;
+        }
+
+        /**
+         * Hold a record framed by its length until the next flush
+         */
+        void write(ByteBuffer record) {
+            try {
+                out.writeInt(record.remaining());
+                out.write(record.array(), 0, record.remaining());
+            } catch (IOException e) {
+                Log.debug("Failed to replicate to standby coordinator: " + name);
+            }
+        }
+
+        /**
+         * Write the records held to the connection, failing if the standby is dropped for stalling part way
+         */
+        void flush() throws IOException {
+            if (pending.size() == 0) return;
+            flushStarted = System.nanoTime();
+            flushing.add(this);
+            try {
+                pending.writeTo(connection);
+                connection.flush();
+            } finally {
+                flushing.remove(this);
+            }
+            pending.reset();
+        }
+
+        /**
+         * Close the connection to a standby that has stopped reading, which fails the write it is blocked in
+         */
+        void stalled() {
+            Log.warn("Standby coordinator: " + name + " has stopped reading, dropping it");
+            try {
+                connection.close();
+            } catch (IOException e) {
+                Log.warn("Failed to close the connection to standby coordinator: " + name);
+            }
+        }
+    }
+}
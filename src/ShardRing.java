@@ -0,0 +1,60 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Places decision keys on coordinator shards by consistent hashing. Each shard holds many points on a ring, hashed
+ * from the shard's number, and a key belongs to the shard holding the first point at or after the key's own hash, so
+ * keys spread evenly across the shards and a ring with one more shard only moves the keys landing just before the new
+ * shard's points.
+ */
+class ShardRing {
+    // The points in order around the ring, and the shard holding each
+    private long[] points;
+    private int[] shards;
+
+    /**
+     * Instantiates a ring
+     * @param shards How many shards to place keys on
+     * @param pointsPerShard How many points each shard holds, more spreading the keys more evenly
+     */
+    ShardRing(int shards, int pointsPerShard) {
+        TreeMap<Long, Integer> ring = new TreeMap<>();
+        for (int shard = 0; shard < shards; shard++) {
+            for (int point = 0; point < pointsPerShard; point++) ring.putIfAbsent(hash(shard + "#" + point), shard);
+        }
+        points = new long[ring.size()];
+        this.shards = new int[ring.size()];
+        int i = 0;
+        for (Map.Entry<Long, Integer> entry : ring.entrySet()) {
+            points[i] = entry.getKey();
+            this.shards[i++] = entry.getValue();
+        }
+    }
+
+    /**
+     * @param key The key a decision is partitioned by
+     * @return The shard the key belongs to
+     */
+    int shardOf(String key) {
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) i = -i - 1;
+        return shards[i == points.length ? 0 : i];
+    }
+
+    /**
+     * FNV-1a over the characters, then mixed so keys differing only in their last characters land far apart
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ hash >>> 33;
+    }
+}
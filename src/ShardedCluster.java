@@ -0,0 +1,135 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Partitions decisions by key across several coordinators, each a ConsensusCluster of its own, so decisions on
+ * different keys are voted on, registered and restarted independently and a shard whose participants all fail doesn't
+ * stop the others. A key is placed on a shard by consistent hashing, so every decision on the same key goes to the
+ * same coordinator. A participant takes part in every shard by joining each of their coordinators.
+ */
+public class ShardedCluster implements AutoCloseable {
+    // Points each shard holds on the ring, enough for each to be given within about a tenth as many keys as another
+    private static final int POINTS = 512;
+
+    private List<ConsensusCluster> shards = new ArrayList<>();
+    private ShardRing ring;
+
+    private ShardedCluster(int shards) {
+        ring = new ShardRing(shards, POINTS);
+    }
+
+    /**
+     * Start a coordinator for each shard, on any free ports, for participants to join
+     * @param shards How many coordinators to partition the decisions across
+     * @param expectedParticipants How many participants join each shard before its decisions are voted on
+     * @param flags As for a ConsensusCluster, with --wal=<path> written to <path>.<shard> by each shard
+     */
+    public ShardedCluster(int shards, int expectedParticipants, String... flags) throws IOException {
+        this(shards);
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                this.shards.add(new ConsensusCluster(0, expectedParticipants, shardFlags(shard, flags)));
+            }
+        } catch (IOException | RuntimeException e) {
+            abandon();
+            throw e;
+        }
+    }
+
+    /**
+     * Start a coordinator for each shard and the participants to vote with, all in this process, each participant
+     * running a node on every shard
+     * @param shards How many coordinators to partition the decisions across
+     * @param participants How many participants to start
+     * @param flags As for a ConsensusCluster, also given to every participant
+     * @return The cluster, ready for decisions to be proposed to
+     */
+    public static ShardedCluster local(int shards, int participants, String... flags) throws IOException {
+        ShardedCluster cluster = new ShardedCluster(shards);
+        try {
+            for (int shard = 0; shard < shards; shard++) {
+                cluster.shards.add(ConsensusCluster.local(participants, shardFlags(shard, flags)));
+            }
+        } catch (IOException | RuntimeException e) {
+            cluster.abandon();
+            throw e;
+        }
+        return cluster;
+    }
+
+    /**
+     * Give each shard a write-ahead log of its own
+     */
+    private static String[] shardFlags(int shard, String[] flags) {
+        String[] copy = flags.clone();
+        for (int i = 0; i < copy.length; i++) {
+            if (copy[i].startsWith("--wal=")) copy[i] += "." + shard;
+        }
+        return copy;
+    }
+
+    /**
+     * @return The shards, in the order the ring numbers them
+     */
+    public List<ConsensusCluster> shards() {
+        return shards;
+    }
+
+    /**
+     * @return The ports participants join each shard on, every one of which a participant joins
+     */
+    public List<Integer> ports() {
+        List<Integer> ports = new ArrayList<>();
+        for (ConsensusCluster shard : shards) ports.add(shard.port());
+        return ports;
+    }
+
+    /**
+     * @param key The key a decision is partitioned by
+     * @return The shard decisions on the key are proposed to
+     */
+    public ConsensusCluster shard(String key) {
+        return shards.get(ring.shardOf(key));
+    }
+
+    /**
+     * @return Completed once every shard is ready, exceptionally if any was closed first
+     */
+    public CompletableFuture<Void> ready() {
+        CompletableFuture<?>[] ready = new CompletableFuture<?>[shards.size()];
+        for (int i = 0; i < ready.length; i++) ready[i] = shards.get(i).ready();
+        return CompletableFuture.allOf(ready);
+    }
+
+    /**
+     * Propose a decision to the shard its key belongs to
+     * @param key The key the decision is partitioned by, decisions on the same key all going to the same shard
+     * @param options The options to decide between, none containing '>'
+     * @return The outcome, completed exceptionally if every participant of the shard fails or it is closed first
+     */
+    public CompletableFuture<Outcome> propose(String key, List<String> options) {
+        return shard(key).propose(options);
+    }
+
+    /**
+     * Wait for the decisions proposed to every shard to be made, then stop the shards and their nodes. The shards are
+     * closed one at a time, the others still making their decisions meanwhile. If the thread is interrupted, the
+     * shards left are closed without waiting, as a shard is.
+     */
+    @Override
+    public void close() {
+        for (ConsensusCluster shard : shards) {
+            if (Thread.currentThread().isInterrupted()) shard.abandon();
+            else shard.close();
+        }
+    }
+
+    /**
+     * Stop the shards started before one failed to start, without waiting for any decisions
+     */
+    private void abandon() {
+        for (ConsensusCluster shard : shards) shard.abandon();
+    }
+}
@@ -0,0 +1,560 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Runs a coordinator and its participants on one thread against a virtual clock, passing their messages over
+ * in-memory connections that deliver each message after a random delay, in order on each connection as TCP does.
+ * The nodes are the same classes run from the command line, driven through the handler methods the NIO engine drives
+ * the coordinator through, so thousands of decisions run in a second and a run is repeated exactly by its seed,
+ * failures included.
+ *
+ * A participant crashes when its failure condition says so or at a virtual time given, which the others see as its
+ * connections closing once what it sent has arrived. Messages can be dropped, which as over TCP delays them by the
+ * retransmission timeout and holds up those behind them on the same connection, as the protocol relies on its
+ * connections not losing messages. Heartbeats, journals, the write-ahead log, rejoining, lingering and serving run
+ * on timers and threads of their own, so they are left out.
+ */
+class Simulation {
+    private Random random;
+    // How long each message takes to arrive, plus up to the jitter, in virtual nanoseconds
+    private long latency = 100_000;
+    private long jitter = 50_000;
+    // The chance of each message being dropped, and how long it then takes to be sent again
+    private double dropRate;
+    private long retransmit;
+
+    // The events still to happen by time, those at the same time in the order they were scheduled
+    private PriorityQueue<Event> events = new PriorityQueue<>();
+    private long now;
+    private long scheduled;
+    private Tokeniser tokeniser = new Tokeniser();
+
+    private Node coordinatorNode;
+    private Coordinator coordinator;
+    private boolean started;
+    private Map<Integer, Node> participants = new LinkedHashMap<>();
+
+    // What the participants were seen to be told, by instance, and what they were seen to decide
+    private Map<Integer, Long> roundsStarted = new HashMap<>();
+    private Set<Integer> decided = new HashSet<>();
+    private Set<String> restarts = new HashSet<>();
+    private Map<Integer, String> outcomes = new HashMap<>();
+    private Set<Integer> mismatched = new HashSet<>();
+    private Histogram rounds = new Histogram();
+    private long messages;
+    private long drops;
+    private long finished;
+
+    /**
+     * Instantiates a simulation
+     * @param seed Seeds every random choice made in the run, by the network and by the nodes
+     */
+    Simulation(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * Set how long messages take to arrive
+     * @param latency The least time a message takes in nanoseconds
+     * @param jitter The most time added to that at random
+     * @return This simulation
+     */
+    Simulation network(long latency, long jitter) {
+        this.latency = latency;
+        this.jitter = jitter;
+        return this;
+    }
+
+    /**
+     * Drop messages at random
+     * @param dropRate The chance of each message being dropped, and of each time it is sent again
+     * @param retransmit How long a dropped message takes to be sent again in nanoseconds
+     * @return This simulation
+     */
+    Simulation drops(double dropRate, long retransmit) {
+        this.dropRate = dropRate;
+        this.retransmit = retransmit;
+        return this;
+    }
+
+    /**
+     * Add the coordinator
+     * @param expectedParticipants The number of participants the coordinator is expecting to join
+     * @param options The voting options
+     * @param args The coordinator's command line flags
+     */
+    void coordinator(int expectedParticipants, List<String> options, String... args) throws IOException {
+        coordinatorNode = new Node("coordinator");
+        coordinator = new Coordinator(expectedParticipants, new ArrayList<>(options), flags(args),
+                stopper(coordinatorNode));
+    }
+
+    /**
+     * Add a participant, which joins the coordinator as the run starts
+     * @param port The port the participant is known by
+     * @param failureCondition As given on the command line
+     * @param args The participant's command line flags
+     */
+    void participant(int port, int failureCondition, String... args) {
+        Node node = new Node(Integer.toString(port));
+        node.participant = new Participant(port, failureCondition, flags(args), to -> connect(node, to),
+                stopper(node));
+        participants.put(port, node);
+        schedule(0, node, () -> join(node));
+    }
+
+    /**
+     * Crash a participant at a virtual time
+     * @param port The port of the participant
+     * @param at The time in nanoseconds from the start of the run
+     */
+    void crash(int port, long at) {
+        Node node = participants.get(port);
+        schedule(at, node, () -> {
+            throw new Stopped(node);
+        });
+    }
+
+    /**
+     * Run until there is nothing left to happen, once the coordinator and participants have stopped or no node is
+     * waiting on a message still to arrive
+     * @return What was decided and how quickly
+     */
+    Result run() {
+        Event event;
+        while ((event = events.poll()) != null) {
+            if (!event.node.alive) continue;
+            now = event.time;
+            try {
+                event.action.run();
+            } catch (Stopped stopped) {
+                stop(stopped.node);
+            }
+        }
+        return new Result(decided.size(), restarts.size(), mismatched.size(), messages, drops, finished, rounds);
+    }
+
+    /**
+     * @return The flags given, with a seed for the node's own random choices
+     */
+    private Flags flags(String... args) {
+        String[] seeded = Arrays.copyOf(args, args.length + 1);
+        seeded[args.length] = "--seed=" + random.nextInt();
+        return new Flags(seeded);
+    }
+
+    /**
+     * @return An exit hook that stops the node in place of ending the process
+     */
+    private static Runnable stopper(Node node) {
+        return () -> {
+            throw new Stopped(node);
+        };
+    }
+
+    private void schedule(long time, Node node, Runnable action) {
+        events.add(new Event(time, scheduled++, node, action));
+    }
+
+    /**
+     * @return How long the next message takes to arrive
+     */
+    private long delay() {
+        return latency + (jitter > 0 ? (long) (random.nextDouble() * jitter) : 0);
+    }
+
+    /**
+     * Connect a participant to the coordinator both ways and ask to join
+     */
+    private void join(Node node) {
+        Channel out = new Channel(node, coordinatorNode);
+        Channel in = new Channel(coordinatorNode, node);
+        out.reverse = in;
+        in.reverse = out;
+        out.receiver = new CoordinatorEnd(in);
+        in.receiver = new ParticipantEnd(node.participant);
+        node.participant.requestJoin(out);
+    }
+
+    /**
+     * Open a connection from a participant to another, refused if it isn't running
+     */
+    private OutputStream connect(Node from, int port) throws IOException {
+        Node to = participants.get(port);
+        if (to == null || !to.alive) throw new ConnectException("Connection refused");
+        Channel channel = new Channel(from, to);
+        channel.receiver = new PeerEnd(to.participant);
+        channel.deliver(to.participant::accepted);
+        return channel;
+    }
+
+    /**
+     * Stop a node that has exited or crashed. What it has sent still arrives, then its connections are seen to close.
+     */
+    private void stop(Node node) {
+        if (!node.alive) return;
+        node.alive = false;
+        for (Channel channel : node.out) channel.sever();
+        for (Channel channel : node.in) channel.broken = true;
+    }
+
+    /**
+     * Note what a participant is told by the coordinator, to measure the rounds from
+     */
+    private void observe(Token token, long sent) {
+        if (token instanceof VoteOptionsToken) {
+            roundsStarted.putIfAbsent(token.instance, sent);
+        } else if (token instanceof RestartToken) {
+            // Sent to every participant at once, so the time tells one restart from another of the same instance
+            restarts.add(token.instance + "@" + sent);
+            outcomes.remove(token.instance);
+        } else if (token instanceof DecidedToken) {
+            if (((DecidedToken) token).outcome.equals("FAIL") || !decided.add(token.instance)) return;
+            Long roundStarted = roundsStarted.get(token.instance);
+            if (roundStarted != null) rounds.record(now - roundStarted);
+            finished = now;
+        }
+    }
+
+    /**
+     * Check an outcome a participant sends against those the others sent for the same round
+     */
+    private void check(OutcomeToken token) {
+        if (token.outcome.equals("FAIL")) return;
+        String first = outcomes.putIfAbsent(token.instance, token.outcome);
+        if (first != null && !first.equals(token.outcome)) mismatched.add(token.instance);
+    }
+
+    /**
+     * The outcome of a run
+     */
+    static class Result {
+        final int decisions;
+        final int restarts;
+        final int mismatches;
+        final long messages;
+        final long drops;
+        // The virtual time of the last decision, and how long each round took from its options being sent to the
+        // first participant hearing it was decided
+        final long nanos;
+        final Histogram rounds;
+
+        Result(int decisions, int restarts, int mismatches, long messages, long drops, long nanos, Histogram rounds) {
+            this.decisions = decisions;
+            this.restarts = restarts;
+            this.mismatches = mismatches;
+            this.messages = messages;
+            this.drops = drops;
+            this.nanos = nanos;
+            this.rounds = rounds;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d decisions, %d restarts, %d mismatches, %d messages, %d drops in %.3fms, round "
+                            + "p50 %.3fms p99 %.3fms", decisions, restarts, mismatches, messages, drops, nanos / 1e6,
+                    rounds.percentile(50) / 1e6, rounds.percentile(99) / 1e6);
+        }
+    }
+
+    /**
+     * Thrown in place of ending the process, to stop the node that called the exit hook
+     */
+    private static class Stopped extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        // Never serialized, as it is always caught by the simulation that threw it
+        final transient Node node;
+
+        Stopped(Node node) {
+            super(null, null, false, false);
+            this.node = node;
+        }
+    }
+
+    private static class Node {
+        final String name;
+        // Null for the coordinator
+        Participant participant;
+        boolean alive = true;
+        // The connections written to by this node and those it reads from
+        List<Channel> out = new ArrayList<>();
+        List<Channel> in = new ArrayList<>();
+
+        Node(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        // The node the event happens to, which is skipped once the node has stopped
+        final Node node;
+        final Runnable action;
+
+        Event(long time, long sequence, Node node, Runnable action) {
+            this.time = time;
+            this.sequence = sequence;
+            this.node = node;
+            this.action = action;
+        }
+
+        @Override
+        public int compareTo(Event other) {
+            return time != other.time ? Long.compare(time, other.time) : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /**
+     * One direction of an in-memory connection, delivering what has been written each time it is flushed, in the
+     * order it was written
+     */
+    private class Channel extends OutputStream {
+        final Node from;
+        final Node to;
+        Receiver receiver;
+        // The other direction of a connection to the coordinator, which closes along with this one
+        Channel reverse;
+        boolean broken;
+        private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        // When the last delivery arrives, which the next can't overtake
+        private long last;
+
+        Channel(Node from, Node to) {
+            this.from = from;
+            this.to = to;
+            from.out.add(this);
+            to.in.add(this);
+        }
+
+        @Override
+        public void write(int b) {
+            pending.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            pending.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            if (pending.size() == 0) return;
+            byte[] message = pending.toByteArray();
+            pending.reset();
+            if (broken) return;
+            long delay = delay();
+            while (dropRate > 0 && random.nextDouble() < dropRate) {
+                delay += retransmit;
+                drops++;
+            }
+            long sent = now;
+            deliver(delay, () -> receiver.receive(message, sent));
+        }
+
+        void deliver(Runnable action) {
+            deliver(delay(), action);
+        }
+
+        private void deliver(long delay, Runnable action) {
+            last = Math.max(now + delay, last);
+            schedule(last, to, action);
+        }
+
+        /**
+         * Close the connection, which the receiving end sees once everything already sent has arrived
+         */
+        void sever() {
+            if (broken) return;
+            broken = true;
+            deliver(receiver::end);
+            if (reverse != null) reverse.sever();
+        }
+    }
+
+    /**
+     * The receiving end of a connection, splitting what arrives into messages in the text codec or, once agreed,
+     * the binary codec
+     */
+    private abstract class Receiver {
+        private ByteBuffer in = ByteBuffer.allocate(1024);
+        // The table binary frames are decoded with, null while the connection is text
+        OptionTable table;
+        // Whether the connection has closed, or is treated as closed once a frame couldn't be decoded
+        private boolean ended;
+
+        void receive(byte[] message, long sent) {
+            messages++;
+            if (ended) return;
+            if (in.remaining() < message.length) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(in.capacity() * 2, in.position() + message.length));
+                in.flip();
+                in = larger.put(in);
+            }
+            in.put(message);
+            in.flip();
+            while (in.hasRemaining()) {
+                Token token;
+                if (table != null) {
+                    try {
+                        token = BinaryCodec.decode(in, table);
+                    } catch (IOException e) {
+                        end();
+                        return;
+                    }
+                } else {
+                    String line = CoordinatorSelector.nextLine(in);
+                    token = line == null ? null : tokeniser.getToken(line);
+                    if (line != null && token == null) continue;
+                }
+                if (token == null) break;
+                handle(token, sent);
+            }
+            in.compact();
+        }
+
+        void end() {
+            if (ended) return;
+            ended = true;
+            closed();
+        }
+
+        abstract void handle(Token token, long sent);
+
+        abstract void closed();
+    }
+
+    /**
+     * The coordinator's end of a connection from a participant
+     */
+    private class CoordinatorEnd extends Receiver {
+        private Channel reply;
+        private String name;
+        private MessageWriter out;
+
+        CoordinatorEnd(Channel reply) {
+            this.reply = reply;
+        }
+
+        @Override
+        void handle(Token token, long sent) {
+            if (name == null) {
+                // The first message must be the join token
+                if (token instanceof JoinToken) {
+                    JoinToken joinToken = (JoinToken) token;
+                    MessageWriter writer = coordinator.accept(joinToken, reply);
+                    if (coordinator.join(joinToken, writer)) {
+                        name = joinToken.port;
+                        out = writer;
+                        if (writer instanceof BinaryWriter) table = coordinator.optionTable();
+                        if (!started && coordinator.allJoined()) {
+                            started = true;
+                            coordinator.startVote();
+                        }
+                        return;
+                    }
+                }
+                reply.sever();
+                return;
+            }
+            if (token instanceof OutcomeToken) {
+                OutcomeToken outcomeToken = (OutcomeToken) token;
+                check(outcomeToken);
+                coordinator.registerOutcome(name, outcomeToken.instance, outcomeToken.outcome,
+                        outcomeToken.participants);
+            } else if (token instanceof VoteToken) {
+                VoteToken voteToken = (VoteToken) token;
+                for (Map.Entry<String, String> vote : voteToken.votes.entrySet()) {
+                    coordinator.registerVote(voteToken.instance, vote.getKey(), vote.getValue());
+                }
+            }
+        }
+
+        @Override
+        void closed() {
+            if (name != null) coordinator.registerFailure(name, out);
+        }
+    }
+
+    /**
+     * A participant's end of its connection from the coordinator
+     */
+    private class ParticipantEnd extends Receiver {
+        private Participant participant;
+        private boolean codecChosen;
+        private boolean joined;
+
+        ParticipantEnd(Participant participant) {
+            this.participant = participant;
+        }
+
+        @Override
+        void handle(Token token, long sent) {
+            // The coordinator replies with the binary handshake if it agreed to the binary codec
+            if (!codecChosen) {
+                codecChosen = true;
+                boolean agreed = token instanceof CodecToken && ((CodecToken) token).codec.equals("BINARY");
+                participant.useCodec(agreed);
+                if (agreed) {
+                    table = participant.optionTable();
+                    return;
+                }
+            }
+            if (!joined) {
+                joined = participant.joined(token);
+                return;
+            }
+            observe(token, sent);
+            participant.coordinatorMessage(token);
+        }
+
+        @Override
+        void closed() {
+            participant.coordinatorClosed();
+        }
+    }
+
+    /**
+     * A participant's end of a connection from another participant
+     */
+    private class PeerEnd extends Receiver {
+        private Participant participant;
+
+        PeerEnd(Participant participant) {
+            this.participant = participant;
+        }
+
+        @Override
+        void handle(Token token, long sent) {
+            if (token instanceof CodecToken) {
+                table = new OptionTable();
+            } else if (token instanceof VoteToken) {
+                participant.registerVote(token.instance, ((VoteToken) token).votes);
+            }
+        }
+
+        @Override
+        void closed() {
+            participant.registerFailure();
+        }
+    }
+}
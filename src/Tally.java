@@ -0,0 +1,75 @@
+import java.util.Arrays;
+
+/**
+ * Counts votes by option index with primitive counters, keeping track of the leading option as votes are counted
+ * so a majority can be read off without going over the votes again
+ */
+class Tally {
+    private int[] counts = new int[8];
+    private int total;
+    private int leader = -1;
+    private int leaderCount;
+
+    /**
+     * Count a vote
+     * @param option The index of the option voted for
+     */
+    void add(int option) {
+        if (option >= counts.length) counts = Arrays.copyOf(counts, Math.max(counts.length * 2, option + 1));
+        int count = ++counts[option];
+        total++;
+        if (count > leaderCount) {
+            leader = option;
+            leaderCount = count;
+        }
+    }
+
+    /**
+     * Stop counting a vote, when a vote is replaced or its participant fails
+     * @param option The index of the option voted for
+     */
+    void remove(int option) {
+        counts[option]--;
+        total--;
+        if (option != leader) return;
+        // Only a vote for the leader can change it, and then the counts are few enough to go over again
+        leaderCount = 0;
+        leader = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > leaderCount) {
+                leader = i;
+                leaderCount = counts[i];
+            }
+        }
+    }
+
+    void clear() {
+        Arrays.fill(counts, 0);
+        total = 0;
+        leader = -1;
+        leaderCount = 0;
+    }
+
+    /**
+     * @return How many votes have been counted
+     */
+    int total() {
+        return total;
+    }
+
+    /**
+     * @return The index of the option with more than half of the votes counted, or -1 if there isn't one
+     */
+    int majority() {
+        return majority(total);
+    }
+
+    /**
+     * @param voters How many votes there will be once everyone has voted
+     * @return The index of the option with more than half of every vote whichever way the rest go, or -1 if the
+     *         outcome isn't certain yet
+     */
+    int majority(int voters) {
+        return leaderCount > voters / 2 ? leader : -1;
+    }
+}
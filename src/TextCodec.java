@@ -0,0 +1,128 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Reads text messages a line at a time
+ */
+class TextReader implements MessageReader {
+    private BufferedReader in;
+    private Tokeniser tokeniser;
+
+    /**
+     * Instantiates a text reader
+     * @param in A buffered reader for the connection
+     * @param tokeniser A reference to the tokeniser object for parsing the received messages
+     */
+    TextReader(BufferedReader in, Tokeniser tokeniser) {
+        this.in = in;
+        this.tokeniser = tokeniser;
+    }
+
+    /**
+     * Read lines until one of them is a message, skipping any that can't be tokenised
+     */
+    @Override
+    public Token read() throws IOException {
+        String message;
+        while ((message = in.readLine()) != null) {
+            Token token = tokeniser.getToken(message);
+            if (token != null) return token;
+        }
+        return null;
+    }
+}
+
+/**
+ * Writes text messages a line at a time
+ */
+class TextWriter implements MessageWriter {
+    private PrintWriter out;
+
+    /**
+     * Instantiates a text writer
+     * @param out A print writer for the connection
+     */
+    TextWriter(PrintWriter out) {
+        this.out = out;
+    }
+
+    @Override
+    public void rule(DecisionRule rule) {
+        write(BinaryCodec.RULE, "RULE " + rule.name + " " + rule.tieBreak);
+    }
+
+    @Override
+    public void star() {
+        write(BinaryCodec.STAR, "STAR");
+    }
+
+    @Override
+    public void tree(int fanout) {
+        write(BinaryCodec.TREE, "TREE " + fanout);
+    }
+
+    @Override
+    public void details(ParticipantDetails details) {
+        write(BinaryCodec.DETAILS, details.text());
+    }
+
+    @Override
+    public void voteOptions(int instance, List<String> options) {
+        StringBuilder optionsList = new StringBuilder();
+        for (String option : options) optionsList.append(option).append(" ");
+        write(BinaryCodec.VOTE_OPTIONS, keyword("VOTE_OPTIONS", instance) + " " + optionsList);
+    }
+
+    @Override
+    public void votes(VoteBroadcast votes) {
+        write(BinaryCodec.VOTE, votes.text());
+    }
+
+    @Override
+    public void outcome(int instance, String outcome, Collection<String> contributors) {
+        StringBuilder contributorList = new StringBuilder();
+        for (String participant : contributors) contributorList.append(participant).append(" ");
+        write(BinaryCodec.OUTCOME, keyword("OUTCOME", instance) + " " + outcome + " " + contributorList);
+    }
+
+    @Override
+    public void restart(int instance, List<String> failures) {
+        StringBuilder failureList = new StringBuilder();
+        for (String participant : failures) failureList.append(participant).append(" ");
+        write(BinaryCodec.RESTART, keyword("RESTART", instance) + " " + failureList);
+    }
+
+    @Override
+    public void decided(int instance, String outcome) {
+        write(BinaryCodec.DECIDED, keyword("DECIDED", instance) + " " + outcome);
+    }
+
+    @Override
+    public void rejoined(String participant, boolean binary) {
+        write(BinaryCodec.REJOINED, "REJOINED " + participant);
+    }
+
+    @Override
+    public void heartbeat() {
+        write(BinaryCodec.HEARTBEAT, "HEARTBEAT");
+    }
+
+    /**
+     * @return The message type tagged with the instance it is about, untagged for instance 0
+     */
+    static String keyword(String type, int instance) {
+        return instance == 0 ? type : type + "@" + instance;
+    }
+
+    /**
+     * @param type The message's binary codec type, which it is counted under
+     */
+    private void write(byte type, String message) {
+        Metrics.sent(type, message.length() + 1);
+        out.println(message);
+        out.flush();
+    }
+}
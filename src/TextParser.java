@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Scans text messages straight out of a reusable byte buffer and hands the votes and outcomes in them to a handler
+ * as ports and option indexes, so reading a message allocates nothing once the buffer has grown to fit it, but for
+ * the rankings sent as votes under the runoff rule. Other messages are skipped, as the listeners only act on votes,
+ * outcomes and heartbeats.
+ */
+class TextParser {
+    private static final byte[] VOTE = {'V', 'O', 'T', 'E'};
+    private static final byte[] OUTCOME = {'O', 'U', 'T', 'C', 'O', 'M', 'E'};
+    private static final byte[] FAIL = {'F', 'A', 'I', 'L'};
+    private static final byte[] HEARTBEAT = {'H', 'E', 'A', 'R', 'T', 'B', 'E', 'A', 'T'};
+
+    private InputStream in;
+    private OptionTable options;
+    private byte[] buffer = new byte[1024];
+    // The unread bytes are buffer[start, end)
+    private int start;
+    private int end;
+    // Where the next field in the current line starts
+    private int cursor;
+
+    private VoteBatch votes = new VoteBatch();
+    private int[] contributors = new int[16];
+
+    /**
+     * Instantiates a text parser
+     * @param in The stream to read
+     * @param options The option table to look up options in
+     */
+    TextParser(InputStream in, OptionTable options) {
+        this.in = in;
+        this.options = options;
+    }
+
+    /**
+     * Read the next line and pass it to the handler if it is a vote, an outcome or a heartbeat
+     * @return False if the stream has ended
+     */
+    boolean next(MessageHandler handler) throws IOException {
+        int newline;
+        int scanned = start;
+        while ((newline = indexOf('\n', scanned)) == -1) {
+            // Carry on from where the last scan stopped, as filling may move the unread bytes
+            int offset = end - start;
+            if (!fill()) return false;
+            scanned = start + offset;
+        }
+        int lineEnd = newline > start && buffer[newline - 1] == '\r' ? newline - 1 : newline;
+        parse(lineEnd, handler);
+        start = newline + 1;
+        return true;
+    }
+
+    private void parse(int lineEnd, MessageHandler handler) {
+        cursor = start;
+        int keyword = skipKeyword(lineEnd);
+        int instance = 0;
+        if (cursor < lineEnd && buffer[cursor] == '@') {
+            cursor++;
+            instance = parseInt(lineEnd);
+        } else {
+            skipField(lineEnd);
+        }
+
+        if (matches(keyword, VOTE)) {
+            Metrics.received(BinaryCodec.VOTE, lineEnd - start + 1);
+            votes.clear();
+            votes.instance = instance;
+            while (skipSpaces(lineEnd)) {
+                int participant = parseInt(lineEnd);
+                if (!skipSpaces(lineEnd)) break;
+                int optionStart = cursor;
+                int optionLength = skipField(lineEnd);
+                // A ranking is counted for its first choice, and kept whole to be counted again as options are
+                // eliminated
+                int firstLength = indexOf(DecisionRule.RANKING, optionStart, optionStart + optionLength) - optionStart;
+                if (firstLength < 0) {
+                    // An option the coordinator hasn't numbered yet is kept by name until it has
+                    int option = options.find(buffer, optionStart, optionLength);
+                    String name = option == -1
+                            ? new String(buffer, optionStart, optionLength, Charset.defaultCharset()) : null;
+                    votes.add(participant, option, name);
+                } else {
+                    votes.add(participant, options.find(buffer, optionStart, firstLength),
+                            new String(buffer, optionStart, optionLength, Charset.defaultCharset()));
+                }
+            }
+            handler.votes(votes);
+        } else if (matches(keyword, OUTCOME)) {
+            Metrics.received(BinaryCodec.OUTCOME, lineEnd - start + 1);
+            if (!skipSpaces(lineEnd)) return;
+            int outcomeStart = cursor;
+            int outcomeLength = skipField(lineEnd);
+            int outcome = -1;
+            if (!matches(outcomeStart, outcomeLength, FAIL)) {
+                outcome = options.find(buffer, outcomeStart, outcomeLength);
+                if (outcome == -1) outcome = MessageHandler.NOT_AN_OPTION;
+            }
+            int count = 0;
+            while (skipSpaces(lineEnd)) {
+                if (count == contributors.length) contributors = Arrays.copyOf(contributors, count * 2);
+                contributors[count++] = parseInt(lineEnd);
+            }
+            handler.outcome(instance, outcome, contributors, count);
+        } else if (matches(keyword, HEARTBEAT)) {
+            Metrics.received(BinaryCodec.HEARTBEAT, lineEnd - start + 1);
+            handler.heartbeat();
+        }
+    }
+
+    /**
+     * Move the cursor past the message type at the start of a line, stopping at any instance tag after it
+     * @return The length of the message type
+     */
+    private int skipKeyword(int lineEnd) {
+        int fieldStart = cursor;
+        while (cursor < lineEnd && buffer[cursor] != ' ' && buffer[cursor] != '\t' && buffer[cursor] != '@') cursor++;
+        return cursor - fieldStart;
+    }
+
+    /**
+     * Move the cursor past the field it is on
+     * @return The length of the field
+     */
+    private int skipField(int lineEnd) {
+        int fieldStart = cursor;
+        while (cursor < lineEnd && buffer[cursor] != ' ' && buffer[cursor] != '\t') cursor++;
+        return cursor - fieldStart;
+    }
+
+    /**
+     * Move the cursor to the start of the next field
+     * @return False if there are no more fields in the line
+     */
+    private boolean skipSpaces(int lineEnd) {
+        while (cursor < lineEnd && (buffer[cursor] == ' ' || buffer[cursor] == '\t')) cursor++;
+        return cursor < lineEnd;
+    }
+
+    private int parseInt(int lineEnd) {
+        int value = 0;
+        while (cursor < lineEnd && buffer[cursor] >= '0' && buffer[cursor] <= '9') {
+            value = value * 10 + (buffer[cursor++] - '0');
+        }
+        skipField(lineEnd);
+        return value;
+    }
+
+    private boolean matches(int length, byte[] keyword) {
+        return matches(start, length, keyword);
+    }
+
+    private boolean matches(int offset, int length, byte[] keyword) {
+        if (length != keyword.length) return false;
+        for (int i = 0; i < length; i++) {
+            if (buffer[offset + i] != keyword[i]) return false;
+        }
+        return true;
+    }
+
+    private int indexOf(char c, int from) {
+        return indexOf(c, from, end);
+    }
+
+    private int indexOf(char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buffer[i] == c) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Read more bytes into the buffer, first moving the unread bytes to the front or growing it if it is full
+     * @return False if the stream has ended
+     */
+    private boolean fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            end -= start;
+            start = 0;
+        } else if (end == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = in.read(buffer, end, buffer.length - end);
+        if (read == -1) return false;
+        end += read;
+        return true;
+    }
+}
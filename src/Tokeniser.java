@@ -1,5 +1,6 @@
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.StringTokenizer;
 
 /**
@@ -19,9 +20,68 @@ class Tokeniser {
         if (!(st.hasMoreTokens())) return null;
 
         String firstToken = st.nextToken();
+
+        // Messages about any decision but the first are tagged with its instance, e.g. VOTE@3
+        int instance = 0;
+        int at = firstToken.indexOf('@');
+        if (at != -1) {
+            try {
+                instance = Integer.parseInt(firstToken.substring(at + 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            firstToken = firstToken.substring(0, at);
+        }
+        Metrics.received(Metrics.type(firstToken), message.length() + 1);
+
+        Token token = getToken(message, firstToken, st);
+        if (token != null) token.instance = instance;
+        return token;
+    }
+
+    /**
+     * Tokenise the rest of a message once its type is known
+     */
+    private Token getToken(String message, String firstToken, StringTokenizer st) {
         switch (firstToken) {
             case "JOIN":
-                if (st.hasMoreTokens()) return new JoinToken(message, st.nextToken());
+            case "REJOIN":
+            case "RESUME":
+                if (st.hasMoreTokens()) {
+                    String port = st.nextToken();
+                    JoinToken token = new JoinToken(message, port, st.hasMoreTokens() ? st.nextToken() : "TEXT");
+                    token.rejoin = firstToken.equals("REJOIN");
+                    token.resume = firstToken.equals("RESUME");
+                    return token;
+                }
+                else return null;
+            case "SESSION":
+                if (st.hasMoreTokens()) return new SessionToken(message, st.nextToken());
+                else return null;
+            case "FOLLOW":
+                if (st.hasMoreTokens()) return new FollowToken(message, st.nextToken());
+                else return null;
+            case "REJOINED":
+                if (st.hasMoreTokens()) return new RejoinedToken(message, st.nextToken(), false);
+                else return null;
+            case "CODEC":
+                if (st.hasMoreTokens()) return new CodecToken(message, st.nextToken());
+                else return null;
+            case "STAR":
+                return new StarToken(message);
+            case "HEARTBEAT":
+                return new HeartbeatToken(message);
+            case "RULE":
+                if (st.countTokens() >= 2) return new RuleToken(message, st.nextToken(), st.nextToken());
+                else return null;
+            case "TREE":
+                if (st.hasMoreTokens()) {
+                    try {
+                        return new TreeToken(message, Integer.parseInt(st.nextToken()));
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                }
                 else return null;
             case "OUTCOME":
                 if (st.hasMoreTokens()) {
@@ -34,9 +94,9 @@ class Tokeniser {
                 if (st.hasMoreTokens()) {
                     ArrayList<String> participants = new ArrayList<>();
                     while (st.hasMoreTokens()) participants.add(st.nextToken());
-                    return new DetailsToken(message, participants);
+                    return new DetailsToken(message, participants, new HashSet<>());
                 } else {
-                    return new DetailsToken(message, new ArrayList<>());
+                    return new DetailsToken(message, new ArrayList<>(), new HashSet<>());
                 }
             case "VOTE_OPTIONS":
                 if (st.hasMoreTokens()) {
@@ -64,6 +124,9 @@ class Tokeniser {
                 } else {
                     return new RestartToken(message, new ArrayList<>());
                 }
+            case "DECIDED":
+                if (st.hasMoreTokens()) return new DecidedToken(message, st.nextToken());
+                else return null;
         }
         return null;
     }
@@ -74,17 +137,36 @@ class Tokeniser {
  */
 abstract class Token {
     String message;
+    // The decision the message is about, 0 for the first or only decision
+    int instance;
 }
 
 /**
- * Syntax: JOIN <port>;
+ * Syntax: JOIN <port> [<codec>], REJOIN <port> [<codec>] from a participant restarted from its journal, or
+ * RESUME <port> [<codec>] from a participant whose connection to the coordinator was reset
  */
 class JoinToken extends Token {
     String port;
+    String codec;
+    boolean rejoin;
+    boolean resume;
 
-    JoinToken(String message, String port) {
+    JoinToken(String message, String port, String codec) {
         this.message = message;
         this.port = port;
+        this.codec = codec;
+    }
+}
+
+/**
+ * Syntax: CODEC <codec>
+ */
+class CodecToken extends Token {
+    String codec;
+
+    CodecToken(String message, String codec) {
+        this.message = message;
+        this.codec = codec;
     }
 }
 
@@ -102,15 +184,101 @@ class OutcomeToken extends Token {
     }
 }
 
+/**
+ * Syntax: STAR
+ */
+class StarToken extends Token {
+    StarToken(String message) {
+        this.message = message;
+    }
+}
+
+/**
+ * Syntax: HEARTBEAT
+ */
+class HeartbeatToken extends Token {
+    HeartbeatToken(String message) {
+        this.message = message;
+    }
+}
+
+/**
+ * Syntax: SESSION <port>, opening a connection from another participant that may replace one that was reset
+ */
+class SessionToken extends Token {
+    String participant;
+
+    SessionToken(String message, String participant) {
+        this.message = message;
+        this.participant = participant;
+    }
+}
+
+/**
+ * Syntax: FOLLOW <port>, from a standby coordinator asking for the voting state to be replicated to it
+ */
+class FollowToken extends Token {
+    String standby;
+
+    FollowToken(String message, String standby) {
+        this.message = message;
+        this.standby = standby;
+    }
+}
+
+/**
+ * Syntax: REJOINED <port>
+ */
+class RejoinedToken extends Token {
+    String participant;
+    // Only set by the binary codec, text messages never offer binary connections
+    boolean binary;
+
+    RejoinedToken(String message, String participant, boolean binary) {
+        this.message = message;
+        this.participant = participant;
+        this.binary = binary;
+    }
+}
+
+/**
+ * Syntax: TREE <fan-out>
+ */
+class TreeToken extends Token {
+    int fanout;
+
+    TreeToken(String message, int fanout) {
+        this.message = message;
+        this.fanout = fanout;
+    }
+}
+
+/**
+ * Syntax: RULE <rule> <tie-break>
+ */
+class RuleToken extends Token {
+    String rule;
+    String tieBreak;
+
+    RuleToken(String message, String rule, String tieBreak) {
+        this.message = message;
+        this.rule = rule;
+        this.tieBreak = tieBreak;
+    }
+}
+
 /**
  * Syntax: DETAILS |<port>|
  */
 class DetailsToken extends Token {
     ArrayList<String> participants;
+    // Only filled in by the binary codec, text details never offer binary connections
+    HashSet<String> binaryParticipants;
 
-    DetailsToken(String message, ArrayList<String> participants) {
+    DetailsToken(String message, ArrayList<String> participants, HashSet<String> binaryParticipants) {
         this.message = message;
         this.participants = participants;
+        this.binaryParticipants = binaryParticipants;
     }
 }
 
@@ -150,3 +318,14 @@ class RestartToken extends Token {
     }
 }
 
+/**
+ * Syntax: DECIDED <outcome>
+ */
+class DecidedToken extends Token {
+    String outcome;
+
+    DecidedToken(String message, String outcome) {
+        this.message = message;
+        this.outcome = outcome;
+    }
+}
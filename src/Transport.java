@@ -0,0 +1,27 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Opens the connections a participant sends its votes to the other participants on, a socket to each when run from
+ * the command line or an in-memory connection when run in a simulation
+ */
+interface Transport {
+    // How many connections can wait to be accepted, so a large cluster connecting at once isn't held up by dropped
+    // connection requests
+    int BACKLOG = 1024;
+
+    // Connects to a participant listening on this host, each message going out as it is flushed
+    Transport SOCKETS = port -> {
+        Socket socket = new Socket("localhost", port);
+        socket.setTcpNoDelay(true);
+        return socket.getOutputStream();
+    };
+
+    /**
+     * Open a connection to another node
+     * @param port The port the node listens on
+     * @return The stream to write messages to the node on
+     */
+    OutputStream connect(int port) throws IOException;
+}
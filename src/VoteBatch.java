@@ -0,0 +1,55 @@
+import java.util.Arrays;
+
+/**
+ * The votes from one vote message as parallel arrays of participant ports and option indexes, reused from one
+ * message to the next by the parser that fills it
+ */
+class VoteBatch {
+    // The decision the votes are for
+    int instance;
+    int size;
+    int[] participants = new int[16];
+    int[] options = new int[16];
+    // The ranking each vote was sent as under the runoff rule, its option being the first choice, or the option voted
+    // for if it couldn't be numbered yet, null otherwise
+    String[] rankings = new String[16];
+
+    void clear() {
+        instance = 0;
+        size = 0;
+    }
+
+    void add(int participant, int option) {
+        add(participant, option, null);
+    }
+
+    void add(int participant, int option, String ranking) {
+        if (size == participants.length) {
+            participants = Arrays.copyOf(participants, size * 2);
+            options = Arrays.copyOf(options, size * 2);
+            rankings = Arrays.copyOf(rankings, size * 2);
+        }
+        participants[size] = participant;
+        options[size] = option;
+        rankings[size] = ranking;
+        size++;
+    }
+
+    /**
+     * @param table The option table the votes are numbered by
+     * @return A vote as it was sent, its ranking or the option voted for
+     */
+    String vote(int i, OptionTable table) {
+        return rankings[i] != null ? rankings[i] : table.get(options[i]);
+    }
+
+    /**
+     * @return Whether the batch holds a vote from a participant
+     */
+    boolean contains(int participant) {
+        for (int i = 0; i < size; i++) {
+            if (participants[i] == participant) return true;
+        }
+        return false;
+    }
+}
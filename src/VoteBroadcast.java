@@ -0,0 +1,50 @@
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A set of votes to send to every other participant, encoded at most once for each codec however many
+ * participants it is sent to
+ */
+class VoteBroadcast {
+    private int instance;
+    private Map<String, String> votes;
+    private String text;
+    private ByteBuffer binary;
+
+    /**
+     * Instantiates a vote broadcast
+     * @param instance The decision the votes are for
+     * @param votes The votes to send, copied so later votes don't change what is sent
+     */
+    VoteBroadcast(int instance, Map<String, String> votes) {
+        this.instance = instance;
+        this.votes = new HashMap<>(votes);
+    }
+
+    /**
+     * @return The votes as a text message
+     */
+    String text() {
+        if (text == null) {
+            StringBuilder voteList = new StringBuilder();
+            for (Map.Entry<String, String> vote : votes.entrySet()) {
+                voteList.append(vote.getKey()).append(" ").append(vote.getValue()).append(" ");
+            }
+            text = TextWriter.keyword("VOTE", instance) + " " + voteList;
+        }
+        return text;
+    }
+
+    /**
+     * @param options The table to number the options with
+     * @return The votes as a binary frame, a view each caller can consume independently
+     */
+    ByteBuffer binary(OptionTable options) {
+        if (binary == null) {
+            int size = BinaryCodec.sizeOf(votes.keySet()) + BinaryCodec.sizeOf(votes.values());
+            binary = BinaryCodec.frame(size, out -> BinaryCodec.encodeVote(out, instance, votes, options));
+        }
+        return binary.duplicate();
+    }
+}
@@ -0,0 +1,321 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Where records are written, the log itself or a snapshot being taken of it
+ */
+interface RecordSink {
+
+    /**
+     * Write a record
+     * @param type The record type
+     * @param encoder Writes the payload after the type
+     */
+    void write(byte type, BinaryCodec.Encoder encoder);
+}
+
+/**
+ * Receives the records replayed from a log
+ */
+interface RecordReader {
+    void read(byte type, ByteBuffer payload);
+}
+
+/**
+ * An append-only log of state changes in a memory-mapped file, with a compact snapshot of the whole state taken
+ * every so many records so the log only needs replaying from there. Each record is its length, a
+ * CRC32C, its sequence number, its type and its payload. A record torn by a crash fails its checksum, and records
+ * left over from before the last snapshot break the sequence, so replay stops at the end of what was last written.
+ *
+ * Records are written into the mapping, which survives the process crashing, and forced to disk by the fsync policy:
+ * always forces every record appended since the last commit in one go before the process acts on them, interval
+ * forces on a timer, and never leaves it to the operating system.
+ */
+class WriteAheadLog implements RecordSink {
+    // The length and checksum in front of the sequence number, type and payload
+    private static final int HEADER = 8;
+    private static final int INITIAL_SIZE = 1 << 20;
+
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "wal flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Writes the whole of the state as records, called from within an append
+     */
+    interface Snapshotter {
+        void snapshot(RecordSink out);
+    }
+
+    private Path path;
+    private Path snapshotPath;
+    // Written in full before replacing the snapshot, so a crash part way through leaves the last one whole
+    private Path snapshotWritten;
+    private FileChannel channel;
+    private volatile MappedByteBuffer log;
+    private int position;
+    // Where the records not yet forced by a commit start
+    private int committed;
+    private volatile boolean dirty;
+    private long sequence;
+    private long snapshotSequence;
+    private int sinceSnapshot;
+
+    private String fsync;
+    private int snapshotEvery;
+    private Snapshotter snapshotter;
+
+    private ByteBuffer payload = ByteBuffer.allocate(256);
+    private CRC32C crc = new CRC32C();
+    // Guards appending against the flusher and a snapshot, appends themselves come from under the owner's lock
+    private ReentrantLock lock = new ReentrantLock();
+    // Forces the log on a timer with the interval policy, null with the others
+    private ScheduledFuture<?> flushing;
+
+    /**
+     * Opens a write-ahead log, which must be replayed before it is appended to
+     * @param path The log file, the snapshot is kept alongside it with .snapshot added to the name
+     * @param fsync always, interval or never
+     * @param fsyncInterval How often to force the log with the interval policy
+     * @param snapshotEvery How many records to append before taking a snapshot and starting the log again
+     * @param snapshotter Writes the state into a snapshot
+     */
+    WriteAheadLog(Path path, String fsync, int fsyncInterval, int snapshotEvery, Snapshotter snapshotter)
+            throws IOException {
+        this.path = path;
+        this.snapshotPath = path.resolveSibling(path.getFileName() + ".snapshot");
+        this.snapshotWritten = path.resolveSibling(path.getFileName() + ".snapshot.tmp");
+        this.fsync = fsync;
+        this.snapshotEvery = snapshotEvery;
+        this.snapshotter = snapshotter;
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_SIZE, channel.size()));
+        if (fsync.equals("interval")) {
+            flushing = flusher.scheduleWithFixedDelay(this::force, fsyncInterval, fsyncInterval,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Open a write-ahead log if one is set
+     * @param flags The command line flags, --<name>=<path> logs to the file given, --fsync=always|interval|never
+     *              sets when it is forced to disk, interval by default, with --fsync-interval=<ms> and
+     *              --snapshot-every=<records> how many records are appended between snapshots
+     * @param name The flag giving the log's path
+     * @param snapshotter Writes the state into a snapshot
+     * @return The write-ahead log, or null if the state is only kept in memory
+     */
+    static WriteAheadLog create(Flags flags, String name, Snapshotter snapshotter) throws IOException {
+        if (!flags.has(name)) return null;
+        return new WriteAheadLog(Path.of(flags.get(name, null)), flags.get("fsync", "interval"),
+                flags.getInt("fsync-interval", 10), flags.getInt("snapshot-every", 10000), snapshotter);
+    }
+
+    /**
+     * Replay the last snapshot and then the records appended after it, ready to append after the last of them
+     * @param reader Rebuilds the state from the records
+     * @return How many records were replayed
+     */
+    int replay(RecordReader reader) throws IOException {
+        int records = 0;
+        snapshotSequence = -1;
+        if (Files.exists(snapshotPath)) {
+            ByteBuffer snapshot = ByteBuffer.wrap(Files.readAllBytes(snapshotPath));
+            long last;
+            while ((last = next(snapshot, -1)) != -1) {
+                snapshotSequence = last;
+                records++;
+                reader.read(payload.get(), payload);
+            }
+        }
+
+        sequence = snapshotSequence;
+        long previous = -1;
+        long last;
+        while ((last = next(log, previous)) != -1) {
+            previous = last;
+            // The records a snapshot covers are left in the log if it stopped before starting the log again
+            if (last <= snapshotSequence) continue;
+            sequence = last;
+            records++;
+            reader.read(payload.get(), payload);
+        }
+        position = log.position();
+        committed = position;
+        return records;
+    }
+
+    /**
+     * Read the next record's type and payload into the payload buffer
+     * @param in The records, positioned at the next one, and moved past it if it is whole
+     * @param previous The sequence number of the record before, -1 to accept any
+     * @return The sequence number of the record, or -1 if there are no more whole records in sequence
+     */
+    private long next(ByteBuffer in, long previous) {
+        int start = in.position();
+        if (in.remaining() < HEADER + 9) return -1;
+        int length = in.getInt();
+        int checksum = in.getInt();
+        if (length < 9 || length > in.remaining()) return stop(in, start);
+        crc.reset();
+        crc.update(in.slice(in.position(), length));
+        long record = in.getLong();
+        if ((int) crc.getValue() != checksum || previous != -1 && record != previous + 1) return stop(in, start);
+
+        payload.clear();
+        if (payload.capacity() < length) payload = ByteBuffer.allocate(length);
+        payload.put(in.slice(in.position(), length - 8)).flip();
+        in.position(in.position() + length - 8);
+        return record;
+    }
+
+    private static long stop(ByteBuffer in, int start) {
+        in.position(start);
+        return -1;
+    }
+
+    /**
+     * Append a record to the log, taking a snapshot first if enough records have been appended since the last one
+     * or the log is full, and growing the log if even that doesn't make room
+     */
+    @Override
+    public void write(byte type, BinaryCodec.Encoder encoder) {
+        lock.lock();
+        try {
+            if (sinceSnapshot >= snapshotEvery) snapshot();
+            encode(type, encoder);
+            if (position + HEADER + 8 + payload.remaining() > log.capacity() && sinceSnapshot > 0) {
+                snapshot();
+                encode(type, encoder);
+            }
+            int length = HEADER + 8 + payload.remaining();
+            if (position + length > log.capacity()) grow(position + length);
+
+            putRecord(log.duplicate().position(position), ++sequence);
+            position += length;
+            sinceSnapshot++;
+            dirty = true;
+        } catch (IOException e) {
+            Log.warn("Failed to write to the write-ahead log");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Encode a record's type and payload into the payload buffer
+     */
+    private void encode(byte type, BinaryCodec.Encoder encoder) {
+        payload = BinaryCodec.encode(payload, 0, out -> {
+            out.put(type);
+            encoder.encode(out);
+        });
+    }
+
+    /**
+     * Write the record in the payload buffer behind its length, checksum and sequence number
+     */
+    private void putRecord(ByteBuffer out, long record) {
+        ByteBuffer sequenced = ByteBuffer.allocate(8).putLong(0, record);
+        crc.reset();
+        crc.update(sequenced);
+        crc.update(payload.duplicate());
+        out.putInt(8 + payload.remaining()).putInt((int) crc.getValue()).putLong(record).put(payload);
+    }
+
+    /**
+     * Write the whole state to a new snapshot, replacing the last one once it is complete, and start
+     * the log again from the beginning
+     */
+    private void snapshot() throws IOException {
+        sinceSnapshot = 0;
+        ByteBuffer[] records = {ByteBuffer.allocate(4096)};
+        // Every record in the snapshot carries the sequence number of the last record it covers
+        snapshotter.snapshot((type, encoder) -> {
+            encode(type, encoder);
+            int length = HEADER + 8 + payload.remaining();
+            if (records[0].remaining() < length) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(records[0].capacity() * 2,
+                        records[0].position() + length));
+                records[0] = larger.put(records[0].flip());
+            }
+            putRecord(records[0], sequence);
+        });
+
+        try (FileChannel snapshot = FileChannel.open(snapshotWritten, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = records[0].flip();
+            while (out.hasRemaining()) snapshot.write(out);
+            if (!fsync.equals("never")) snapshot.force(true);
+        }
+        Files.move(snapshotWritten, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshotSequence = sequence;
+
+        // Records from before the snapshot left past the end of the new ones break the sequence, so replay stops
+        position = 0;
+        committed = 0;
+        log.putInt(0, 0);
+    }
+
+    private void grow(int needed) throws IOException {
+        int size = log.capacity();
+        while (size < needed) size *= 2;
+        log = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+
+    /**
+     * Make the records appended since the last commit durable before anything that depends on them is sent, which
+     * with the always policy forces them all at once
+     */
+    void commit() {
+        if (!fsync.equals("always")) return;
+        lock.lock();
+        try {
+            if (position > committed) log.force(committed, position - committed);
+            committed = position;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Force everything appended so far, run by the flusher with the interval policy
+     */
+    private void force() {
+        if (!dirty) return;
+        dirty = false;
+        log.force();
+    }
+
+    /**
+     * Remove the log and snapshot once there is nothing left to resume
+     */
+    void delete() {
+        if (flushing != null) flushing.cancel(false);
+        lock.lock();
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+            Files.deleteIfExists(snapshotPath);
+            Files.deleteIfExists(snapshotWritten);
+        } catch (IOException e) {
+            Log.warn("Failed to remove the write-ahead log");
+        } finally {
+            lock.unlock();
+        }
+    }
+}